@@ -0,0 +1,513 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipEntry;
+
+import javassist.ClassPool;
+import javassist.CtClass;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.analysis.ClassFileReader;
+import cuchaz.enigma.analysis.JarClassIterator;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public abstract class ClassSource implements Closeable {
+    // anything bigger than this isn't a class file we want to deal with
+    private static final int MaxClassSize = Constants.MiB;
+
+    // the compressed bytes have to be in an array before the inflater can read them
+    private static final ThreadLocal<byte[]> m_inputBuffers = new ThreadLocal<byte[]>() {
+	@Override
+	protected byte[] initialValue() {
+	    return new byte[Constants.KiB * 64];
+	}
+    };
+
+    public abstract List<ClassEntry> getClassEntries();
+
+    // returns a read-only view of the class file, or null if there's no such class
+    // the bytes are shared, so every call gets the same ones without copying
+    public abstract ByteBuffer getClassData(String className) throws IOException;
+
+    public CtClass getClass(String className) throws IOException {
+	ByteBuffer data = getClassData(className);
+	if (data == null) {
+	    return null;
+	}
+	return new ClassPool().makeClass(newInputStream(data));
+    }
+
+    @Override
+    public void close() throws IOException {
+	// nothing to do by default
+    }
+
+    public static ClassSource open(File file) throws IOException {
+	return open(file, new Arena());
+    }
+
+    public static ClassSource open(List<File> files) throws IOException {
+	if (files.size() == 1) {
+	    return open(files.get(0));
+	}
+
+	// earlier files hide classes with the same name in later ones, like a classpath
+	Arena arena = new Arena();
+	List<ClassSource> sources = Lists.newArrayList();
+	try {
+	    for (File file : files) {
+		sources.add(open(file, arena));
+	    }
+	} catch (IOException ex) {
+	    for (ClassSource source : sources) {
+		source.close();
+	    }
+	    throw ex;
+	}
+	return new MultiSource(sources);
+    }
+
+    public static ClassSource forJar(JarFile jar) {
+	return new JarFileSource(jar);
+    }
+
+    private static ClassSource open(File file, Arena arena) throws IOException {
+	if (file.isDirectory()) {
+	    return new DirectorySource(file, arena);
+	}
+	return new MappedJarSource(file, arena);
+    }
+
+    public static InputStream newInputStream(final ByteBuffer data) {
+	final ByteBuffer buf = data.duplicate();
+	return new InputStream() {
+	    @Override
+	    public int read() {
+		return buf.hasRemaining() ? buf.get() & 0xff : -1;
+	    }
+
+	    @Override
+	    public int read(byte[] out, int offset, int length) {
+		if (length == 0) {
+		    return 0;
+		}
+		if (!buf.hasRemaining()) {
+		    return -1;
+		}
+		length = Math.min(length, buf.remaining());
+		buf.get(out, offset, length);
+		return length;
+	    }
+
+	    @Override
+	    public int available() {
+		return buf.remaining();
+	    }
+	};
+    }
+
+    private static long getCrc(ByteBuffer data) {
+	CRC32 crc = new CRC32();
+	if (data.hasArray()) {
+	    crc.update(data.array(), data.arrayOffset() + data.position(), data.remaining());
+	} else {
+	    // mapped bytes have to go through an array first
+	    ByteBuffer buf = data.duplicate();
+	    byte[] chunk = m_inputBuffers.get();
+	    while (buf.hasRemaining()) {
+		int length = Math.min(chunk.length, buf.remaining());
+		buf.get(chunk, 0, length);
+		crc.update(chunk, 0, length);
+	    }
+	}
+	return crc.getValue();
+    }
+
+    private static void checkSize(String name, long size) throws IOException {
+	if (size > MaxClassSize) {
+	    throw new IOException("Class file " + name + " larger than 1 MiB! Something is wrong!");
+	}
+    }
+
+    private static class Arena {
+	// small classes get packed together into big chunks, instead of one array each
+	private static final int ChunkSize = Constants.MiB;
+	private static final int MaxPackedSize = ChunkSize / 8;
+
+	private ByteBuffer m_chunk;
+
+	public synchronized ByteBuffer allocate(int size) {
+	    if (size > MaxPackedSize) {
+		return ByteBuffer.allocate(size);
+	    }
+	    if (m_chunk == null || m_chunk.remaining() < size) {
+		m_chunk = ByteBuffer.allocate(ChunkSize);
+	    }
+	    ByteBuffer buf = m_chunk.slice();
+	    buf.limit(size);
+	    m_chunk.position(m_chunk.position() + size);
+	    return buf.slice();
+	}
+    }
+
+    public static class MappedJarSource extends ClassSource {
+	private File m_file;
+	private volatile Arena m_arena;
+	private volatile MappedByteBuffer m_map;
+	private Map<String, RawZipFile.Entry> m_entries;
+	private List<ClassEntry> m_classEntries;
+	private ConcurrentMap<String, ByteBuffer> m_classes;
+
+	private MappedJarSource(File file, Arena arena) throws IOException {
+	    m_file = file;
+	    m_arena = arena;
+
+	    // read the central directory once, then we never need to look at it again
+	    m_entries = Maps.newHashMap();
+	    List<ClassEntry> classEntries = Lists.newArrayList();
+	    try (RawZipFile zip = new RawZipFile(file)) {
+		for (RawZipFile.Entry entry : zip.entries()) {
+		    if (!entry.isDirectory() && entry.getName().endsWith(".class")) {
+			String className = entry.getName().substring(0, entry.getName().length() - ".class".length());
+			m_entries.put(className, entry);
+			classEntries.add(new ClassEntry(className));
+		    }
+		}
+	    }
+	    m_classEntries = Collections.unmodifiableList(classEntries);
+
+	    // the mapping stays valid after the file is closed
+	    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+		if (in.length() > Integer.MAX_VALUE) {
+		    throw new IOException("Jar file " + file + " is too big to map");
+		}
+		m_map = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+	    }
+	    m_map.order(ByteOrder.LITTLE_ENDIAN);
+	    m_classes = Maps.newConcurrentMap();
+	}
+
+	@Override
+	public List<ClassEntry> getClassEntries() {
+	    return m_classEntries;
+	}
+
+	@Override
+	public ByteBuffer getClassData(String className) throws IOException {
+	    ByteBuffer data = m_classes.get(className);
+	    if (data == null) {
+		RawZipFile.Entry entry = m_entries.get(className);
+		if (entry == null) {
+		    return null;
+		}
+
+		// only one thread reads each class, otherwise the losers' bytes would sit in the arena for nothing
+		synchronized (entry) {
+		    data = m_classes.get(className);
+		    if (data == null) {
+			data = readEntry(entry);
+			m_classes.put(className, data);
+		    }
+		}
+	    }
+	    return data.asReadOnlyBuffer();
+	}
+
+	@Override
+	public void close() {
+	    // this only drops our references, so later reads fail. java can't unmap a file on demand, so the file stays
+	    // mapped until the gc collects the mapping, and any class data we handed out keeps it alive until then
+	    m_map = null;
+	    m_arena = null;
+	    m_classes.clear();
+	}
+
+	private ByteBuffer readEntry(RawZipFile.Entry entry) throws IOException {
+	    checkSize(entry.getName(), entry.getSize());
+	    MappedByteBuffer map = m_map;
+	    Arena arena = m_arena;
+	    if (map == null || arena == null) {
+		throw new IOException("Jar file " + m_file + " is closed");
+	    }
+
+	    // skip the local header, it might have different extra fields than the central one
+	    long headerPos = entry.getLocalHeaderOffset();
+	    if (headerPos + RawZipFile.LocalHeaderSize > map.capacity()
+		    || map.getInt((int) headerPos) != RawZipFile.LocalHeaderSignature) {
+		throw new IOException("Bad local header for " + entry.getName() + " in " + m_file);
+	    }
+	    long dataPos = headerPos + RawZipFile.LocalHeaderSize + (map.getShort((int) headerPos + 26) & 0xffff)
+		    + (map.getShort((int) headerPos + 28) & 0xffff);
+	    if (dataPos + entry.getCompressedSize() > map.capacity()) {
+		throw new IOException("Unexpected end of data for " + entry.getName() + " in " + m_file);
+	    }
+	    ByteBuffer rawData = map.duplicate();
+	    rawData.position((int) dataPos);
+	    rawData.limit((int) (dataPos + entry.getCompressedSize()));
+	    rawData = rawData.slice();
+
+	    ByteBuffer data;
+	    switch (entry.getMethod()) {
+	    case ZipEntry.STORED:
+		// the class is right there in the file, no need to copy it anywhere
+		data = rawData;
+		break;
+
+	    case ZipEntry.DEFLATED:
+		data = inflate(entry, rawData, arena);
+		break;
+
+	    default:
+		throw new IOException("Unsupported compression method " + entry.getMethod() + " for "
+			+ entry.getName() + " in " + m_file);
+	    }
+
+	    if (data.remaining() != entry.getSize() || getCrc(data) != entry.getCrc()) {
+		throw new IOException("Corrupt class file " + entry.getName() + " in " + m_file);
+	    }
+	    return data;
+	}
+
+	private ByteBuffer inflate(RawZipFile.Entry entry, ByteBuffer rawData, Arena arena) throws IOException {
+	    int compressedSize = rawData.remaining();
+	    checkSize(entry.getName(), compressedSize);
+	    byte[] in = m_inputBuffers.get();
+	    if (in.length < compressedSize + 1) {
+		in = new byte[compressedSize + 1];
+		m_inputBuffers.set(in);
+	    }
+	    rawData.get(in, 0, compressedSize);
+
+	    // inflate straight into the arena, the central directory says how much room we need
+	    ByteBuffer data = arena.allocate((int) entry.getSize());
+	    Inflater inflater = new Inflater(true);
+	    try {
+		// raw inflate streams need an extra dummy byte at the end
+		in[compressedSize] = 0;
+		inflater.setInput(in, 0, compressedSize + 1);
+		int numBytesInflated = 0;
+		while (numBytesInflated < data.capacity() && !inflater.finished()) {
+		    int n = inflater.inflate(data.array(), data.arrayOffset() + numBytesInflated, data.capacity()
+			    - numBytesInflated);
+		    if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+			break;
+		    }
+		    numBytesInflated += n;
+		}
+		data.limit(numBytesInflated);
+	    } catch (DataFormatException ex) {
+		throw new IOException("Corrupt class file " + entry.getName() + " in " + m_file, ex);
+	    } finally {
+		inflater.end();
+	    }
+	    return data;
+	}
+    }
+
+    public static class DirectorySource extends ClassSource {
+	private File m_dir;
+	private volatile Arena m_arena;
+	private Map<String, File> m_files;
+	private List<ClassEntry> m_classEntries;
+	private ConcurrentMap<String, ByteBuffer> m_classes;
+
+	private DirectorySource(File dir, Arena arena) {
+	    m_dir = dir;
+	    m_arena = arena;
+	    m_files = Maps.newLinkedHashMap();
+	    findClasses(dir, "", m_files);
+	    List<ClassEntry> classEntries = Lists.newArrayList();
+	    for (String className : m_files.keySet()) {
+		classEntries.add(new ClassEntry(className));
+	    }
+	    m_classEntries = Collections.unmodifiableList(classEntries);
+	    m_classes = Maps.newConcurrentMap();
+	}
+
+	private static void findClasses(File dir, String packagePath, Map<String, File> files) {
+	    File[] dirFiles = dir.listFiles();
+	    if (dirFiles == null) {
+		return;
+	    }
+	    for (File file : dirFiles) {
+		if (file.isDirectory()) {
+		    findClasses(file, packagePath + file.getName() + "/", files);
+		} else if (file.getName().endsWith(".class")) {
+		    String simpleName = file.getName().substring(0, file.getName().length() - ".class".length());
+		    files.put(packagePath + simpleName, file);
+		}
+	    }
+	}
+
+	@Override
+	public List<ClassEntry> getClassEntries() {
+	    return m_classEntries;
+	}
+
+	@Override
+	public ByteBuffer getClassData(String className) throws IOException {
+	    ByteBuffer data = m_classes.get(className);
+	    if (data == null) {
+		File file = m_files.get(className);
+		if (file == null) {
+		    return null;
+		}
+
+		// same as for jars, one read per class keeps the arena from filling up with duplicates
+		synchronized (file) {
+		    data = m_classes.get(className);
+		    if (data == null) {
+			data = readFile(file);
+			m_classes.put(className, data);
+		    }
+		}
+	    }
+	    return data.asReadOnlyBuffer();
+	}
+
+	@Override
+	public void close() {
+	    // there's nothing open, just drop the class data so later reads fail
+	    m_arena = null;
+	    m_classes.clear();
+	}
+
+	private ByteBuffer readFile(File file) throws IOException {
+	    checkSize(file.getPath(), file.length());
+	    Arena arena = m_arena;
+	    if (arena == null) {
+		throw new IOException("Class directory " + m_dir + " is closed");
+	    }
+	    ByteBuffer data = arena.allocate((int) file.length());
+	    try (FileInputStream in = new FileInputStream(file)) {
+		int numBytesRead = 0;
+		while (numBytesRead < data.capacity()) {
+		    int n = in.read(data.array(), data.arrayOffset() + numBytesRead, data.capacity() - numBytesRead);
+		    if (n < 0) {
+			throw new IOException("Class file " + file + " changed while reading it");
+		    }
+		    numBytesRead += n;
+		}
+	    }
+	    return data;
+	}
+    }
+
+    public static class JarFileSource extends ClassSource {
+	private JarFile m_jar;
+	private List<ClassEntry> m_classEntries;
+	private ConcurrentMap<String, ByteBuffer> m_classes;
+
+	private JarFileSource(JarFile jar) {
+	    m_jar = jar;
+	    m_classEntries = Collections.unmodifiableList(JarClassIterator.getClassEntries(jar));
+	    m_classes = Maps.newConcurrentMap();
+	}
+
+	@Override
+	public List<ClassEntry> getClassEntries() {
+	    return m_classEntries;
+	}
+
+	@Override
+	public ByteBuffer getClassData(String className) throws IOException {
+	    ByteBuffer data = m_classes.get(className);
+	    if (data == null) {
+		JarEntry entry = m_jar.getJarEntry(className + ".class");
+		if (entry == null) {
+		    return null;
+		}
+		data = ByteBuffer.wrap(ClassFileReader.read(m_jar, entry));
+		ByteBuffer otherData = m_classes.putIfAbsent(className, data);
+		if (otherData != null) {
+		    data = otherData;
+		}
+	    }
+	    return data.asReadOnlyBuffer();
+	}
+    }
+
+    public static class MultiSource extends ClassSource {
+	private List<ClassSource> m_sources;
+	private List<ClassEntry> m_classEntries;
+
+	private MultiSource(List<ClassSource> sources) {
+	    m_sources = sources;
+	    List<ClassEntry> classEntries = Lists.newArrayList();
+	    Set<ClassEntry> seenClassEntries = Sets.newHashSet();
+	    for (ClassSource source : sources) {
+		for (ClassEntry classEntry : source.getClassEntries()) {
+		    if (seenClassEntries.add(classEntry)) {
+			classEntries.add(classEntry);
+		    }
+		}
+	    }
+	    m_classEntries = Collections.unmodifiableList(classEntries);
+	}
+
+	@Override
+	public List<ClassEntry> getClassEntries() {
+	    return m_classEntries;
+	}
+
+	@Override
+	public ByteBuffer getClassData(String className) throws IOException {
+	    for (ClassSource source : m_sources) {
+		ByteBuffer data = source.getClassData(className);
+		if (data != null) {
+		    return data;
+		}
+	    }
+	    return null;
+	}
+
+	@Override
+	public void close() throws IOException {
+	    IOException firstEx = null;
+	    for (ClassSource source : m_sources) {
+		try {
+		    source.close();
+		} catch (IOException ex) {
+		    if (firstEx == null) {
+			firstEx = ex;
+		    }
+		}
+	    }
+	    if (firstEx != null) {
+		throw firstEx;
+	    }
+	}
+    }
+}
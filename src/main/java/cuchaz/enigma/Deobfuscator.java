@@ -11,24 +11,47 @@
  ******************************************************************************/
 package cuchaz.enigma;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileOutputStream;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.io.StringWriter;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarEntry;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
 
+import javassist.CannotCompileException;
 import javassist.CtClass;
+import javassist.NotFoundException;
 import javassist.bytecode.Descriptor;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
 import com.strobel.assembler.metadata.MetadataSystem;
 import com.strobel.assembler.metadata.TypeDefinition;
 import com.strobel.decompiler.DecompilerContext;
@@ -40,11 +63,13 @@ import com.strobel.decompiler.languages.java.ast.CompilationUnit;
 import com.strobel.decompiler.languages.java.ast.InsertParenthesesVisitor;
 
 import cuchaz.enigma.analysis.EntryReference;
-import cuchaz.enigma.analysis.JarClassIterator;
+import cuchaz.enigma.analysis.IndexedClass;
 import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.analysis.JarIndexCache;
 import cuchaz.enigma.analysis.SourceIndex;
 import cuchaz.enigma.analysis.SourceIndexVisitor;
 import cuchaz.enigma.analysis.Token;
+import cuchaz.enigma.bytecode.ClassRenamer;
 import cuchaz.enigma.mapping.ArgumentEntry;
 import cuchaz.enigma.mapping.BehaviorEntry;
 import cuchaz.enigma.mapping.BehaviorEntryFactory;
@@ -55,13 +80,23 @@ import cuchaz.enigma.mapping.Entry;
 import cuchaz.enigma.mapping.FieldEntry;
 import cuchaz.enigma.mapping.FieldMapping;
 import cuchaz.enigma.mapping.Mappings;
+import cuchaz.enigma.mapping.MappingsWriter;
 import cuchaz.enigma.mapping.MappingsRenamer;
 import cuchaz.enigma.mapping.MethodEntry;
 import cuchaz.enigma.mapping.MethodMapping;
 import cuchaz.enigma.mapping.TranslationDirection;
 import cuchaz.enigma.mapping.Translator;
 
-public class Deobfuscator {
+public class Deobfuscator implements Closeable {
+    public static final String SourceReportFileName = "report.txt";
+    public static final String SourceHashesFileName = "hashes.txt";
+    public static final long SourceTimeoutMillis = 60 * 1000;
+    public static final long SlowSourceMillis = 10 * 1000;
+    private static final long WatchdogIntervalMillis = 1000;
+    private static final int MaxSourcesInFlightPerThread = 16;
+    private static final int MaxAbandonedWorkers = 8;
+    public static final long TranslatedClassCacheSize = 64 * Constants.MiB;
+
     public interface ProgressListener {
 	void init(int totalWork, String title);
 
@@ -70,35 +105,83 @@ public class Deobfuscator {
 
     private File m_file;
     private JarFile m_jar;
+    private ClassSource m_classSource;
     private DecompilerSettings m_settings;
     private JarIndex m_jarIndex;
     private Mappings m_mappings;
     private MappingsRenamer m_renamer;
-    private Map<TranslationDirection, Translator> m_translatorCache;
+    private Object m_mappingsLock;
+    private volatile Map<TranslationDirection, Translator> m_translators;
+    private TranslatedClassCache m_translatedClassCache;
+    private LayeredMetadataSystem m_metadataSystem;
+    private Map<String, Set<String>> m_classDependencies;
+    private volatile int m_numReusedExportClasses;
 
     public Deobfuscator(File file) throws IOException {
+	this(file, new JarIndexCache(JarIndexCache.getDefaultDir()));
+    }
+
+    public Deobfuscator(File file, JarIndexCache indexCache) throws IOException {
 	m_file = file;
-	m_jar = new JarFile(m_file);
+	try {
+	    m_jar = new JarFile(m_file);
+	    m_classSource = ClassSource.open(m_file);
 
-	// build the jar index
-	m_jarIndex = new JarIndex();
-	m_jarIndex.indexJar(m_jar, true);
+	    // build the jar index, or load it from the cache if we've seen this jar before
+	    if (indexCache != null) {
+		m_jarIndex = indexCache.getIndex(m_file, m_jar, true);
+	    } else {
+		m_jarIndex = new JarIndex();
+		m_jarIndex.indexJar(m_jar, true);
+	    }
+	} catch (Throwable t) {
+	    // nobody gets a deobfuscator to close, so don't leave the jar open
+	    try {
+		close();
+	    } catch (IOException ex) {
+		t.addSuppressed(ex);
+	    }
+	    throw t;
+	}
 
 	// config the decompiler
-	m_settings = DecompilerSettings.javaDefaults();
-	m_settings.setMergeVariables(true);
-	m_settings.setForceExplicitImports(true);
-	m_settings.setForceExplicitTypeArguments(true);
-	// DEBUG
-	// m_settings.setShowSyntheticMembers( true );
+	m_settings = newDecompilerSettings();
 
 	// init defaults
-	m_translatorCache = Maps.newTreeMap();
+	m_mappingsLock = new Object();
+	m_translators = null;
+	m_translatedClassCache = new TranslatedClassCache(TranslatedClassCacheSize);
+	m_classDependencies = Maps.newConcurrentMap();
 
 	// init mappings
 	setMappings(new Mappings());
     }
 
+    @Override
+    public void close() throws IOException {
+	// this closes the jar and drops the class source's mapping and cached classes, but the file stays mapped until
+	// the gc collects the mapping. Anything still decompiling from this jar will fail after this, so cancel it first
+	try {
+	    if (m_classSource != null) {
+		m_classSource.close();
+	    }
+	} finally {
+	    if (m_jar != null) {
+		m_jar.close();
+	    }
+	}
+    }
+
+    private static DecompilerSettings newDecompilerSettings() {
+	DecompilerSettings settings = DecompilerSettings.javaDefaults();
+	settings.setMergeVariables(true);
+	settings.setForceExplicitImports(true);
+	settings.setForceExplicitTypeArguments(true);
+	// DEBUG
+	// settings.setShowSyntheticMembers( true );
+	return settings;
+    }
+
     public String getJarName() {
 	return m_file.getName();
     }
@@ -111,6 +194,11 @@ public class Deobfuscator {
 	return m_mappings;
     }
 
+    public int getNumReusedExportClasses() {
+	// how many classes the last jar export copied from the export before it
+	return m_numReusedExportClasses;
+    }
+
     public void setMappings(Mappings val) {
 	if (val == null) {
 	    val = new Mappings();
@@ -197,9 +285,13 @@ public class Deobfuscator {
 	    throw new Error("Unable to find classes in jar: " + unknownClasses);
 	}
 
-	m_mappings = val;
-	m_renamer = renamer;
-	m_translatorCache.clear();
+	synchronized (m_mappingsLock) {
+	    m_mappings = val;
+	    m_renamer = renamer;
+	    m_translators = null;
+	}
+	m_translatedClassCache.clear();
+	m_metadataSystem = null;
     }
 
     private void checkClassMapping(List<ClassEntry> unknownClasses, ClassMapping classMapping) {
@@ -238,12 +330,22 @@ public class Deobfuscator {
     }
 
     public Translator getTranslator(TranslationDirection direction) {
-	Translator translator = m_translatorCache.get(direction);
-	if (translator == null) {
-	    translator = m_mappings.getTranslator(direction);
-	    m_translatorCache.put(direction, translator);
+	// the decompile threads need translators too, so build them under the lock renames take
+	// once built, the translators never change, so they can be handed out without the lock
+	Map<TranslationDirection, Translator> translators = m_translators;
+	if (translators == null) {
+	    synchronized (m_mappingsLock) {
+		translators = m_translators;
+		if (translators == null) {
+		    translators = Maps.newEnumMap(TranslationDirection.class);
+		    for (TranslationDirection translationDirection : TranslationDirection.values()) {
+			translators.put(translationDirection, m_mappings.getTranslator(translationDirection));
+		    }
+		    m_translators = translators;
+		}
+	    }
 	}
-	return translator;
+	return translators.get(direction);
     }
 
     public void getSeparatedClasses(List<ClassEntry> obfClasses, List<ClassEntry> deobfClasses) {
@@ -269,6 +371,30 @@ public class Deobfuscator {
     }
 
     public CompilationUnit getSourceTree(String obfClassName) {
+	// the jar types only change with the mappings, so keep them until then
+	LayeredMetadataSystem metadataSystem = m_metadataSystem;
+	if (metadataSystem == null) {
+	    TranslatingTypeLoader typeLoader = newTypeLoader();
+	    m_settings.setTypeLoader(typeLoader);
+	    metadataSystem = LayeredMetadataSystem.newJarSystem(typeLoader);
+	    m_metadataSystem = metadataSystem;
+	}
+
+	return getSourceTree(obfClassName, m_settings, metadataSystem);
+    }
+
+    TranslatingTypeLoader newTypeLoader() {
+	long classCacheVersion = m_translatedClassCache.getVersion();
+	return new TranslatingTypeLoader(m_classSource, m_jarIndex, getTranslator(TranslationDirection.Obfuscating),
+		getTranslator(TranslationDirection.Deobfuscating), m_translatedClassCache, classCacheVersion);
+    }
+
+    CompilationUnit getSourceTree(String obfClassName, MetadataSystem metadataSystem) {
+	return getSourceTree(obfClassName, m_settings, metadataSystem);
+    }
+
+    private CompilationUnit getSourceTree(String obfClassName, DecompilerSettings settings,
+	    MetadataSystem metadataSystem) {
 	// is this class deobfuscated?
 	// we need to tell the decompiler the deobfuscated name so it doesn't
 	// get freaked out
@@ -285,22 +411,51 @@ public class Deobfuscator {
 	    return null;
 	}
 
-	// set the type loader
-	m_settings.setTypeLoader(new TranslatingTypeLoader(m_jar, m_jarIndex,
-		getTranslator(TranslationDirection.Obfuscating), getTranslator(TranslationDirection.Deobfuscating)));
-
 	// decompile it!
-	TypeDefinition resolvedType = new MetadataSystem(m_settings.getTypeLoader()).lookupType(lookupClassName)
-		.resolve();
+	TypeDefinition resolvedType = metadataSystem.lookupType(lookupClassName).resolve();
 	DecompilerContext context = new DecompilerContext();
 	context.setCurrentType(resolvedType);
-	context.setSettings(m_settings);
+	context.setSettings(settings);
 	AstBuilder builder = new AstBuilder(context);
 	builder.addType(resolvedType);
 	builder.runTransformations(null);
 	return builder.getCompilationUnit();
     }
 
+    public class SourceDecompiler {
+	// the decompiler keeps state in all of these, so each thread needs its own
+	private DecompilerSettings m_settings;
+	private MetadataSystem m_metadataSystem;
+
+	public SourceDecompiler(Translator obfuscatingTranslator, Translator deobfuscatingTranslator,
+		long classCacheVersion) {
+	    TranslatingTypeLoader typeLoader = new TranslatingTypeLoader(m_classSource, m_jarIndex,
+		    obfuscatingTranslator, deobfuscatingTranslator, m_translatedClassCache, classCacheVersion);
+	    m_settings = newDecompilerSettings();
+	    m_settings.setTypeLoader(typeLoader);
+	    m_metadataSystem = LayeredMetadataSystem.newJarSystem(typeLoader);
+	}
+
+	public CompilationUnit getSourceTree(String obfClassName) {
+	    return Deobfuscator.this.getSourceTree(obfClassName, m_settings, m_metadataSystem);
+	}
+
+	public String getSource(CompilationUnit sourceTree) {
+	    return Deobfuscator.this.getSource(sourceTree, m_settings);
+	}
+    }
+
+    String getSource(SourceDecompiler decompiler, String obfClassName) {
+	// the export decompiles through here, so the tests can stand in a slow or broken decompiler
+	return decompiler.getSource(decompiler.getSourceTree(obfClassName));
+    }
+
+    public SourceDecompiler newSourceDecompiler() {
+	long classCacheVersion = m_translatedClassCache.getVersion();
+	return new SourceDecompiler(getTranslator(TranslationDirection.Obfuscating),
+		getTranslator(TranslationDirection.Deobfuscating), classCacheVersion);
+    }
+
     public SourceIndex getSourceIndex(CompilationUnit sourceTree, String source) {
 	// build the source index
 	SourceIndex index = new SourceIndex(source);
@@ -337,92 +492,783 @@ public class Deobfuscator {
     }
 
     public String getSource(CompilationUnit sourceTree) {
+	return getSource(sourceTree, m_settings);
+    }
+
+    private String getSource(CompilationUnit sourceTree, DecompilerSettings settings) {
 	// render the AST into source
 	StringWriter buf = new StringWriter();
 	sourceTree.acceptVisitor(new InsertParenthesesVisitor(), null);
-	sourceTree.acceptVisitor(new JavaOutputVisitor(new PlainTextOutput(buf), m_settings), null);
+	sourceTree.acceptVisitor(new JavaOutputVisitor(new PlainTextOutput(buf), settings), null);
 	return buf.toString();
     }
 
     public void writeSources(File dirOut, ProgressListener progress) throws IOException {
+	writeSources(dirOut, progress, Runtime.getRuntime().availableProcessors());
+    }
+
+    public void writeSources(File dirOut, ProgressListener progress, int numThreads) throws IOException {
+	writeSources(dirOut, progress, numThreads, SourceTimeoutMillis);
+    }
+
+    public void writeSources(File dirOut, ProgressListener progress, int numThreads, long timeoutMillis)
+	    throws IOException {
+	writeSources(new SourceSink.DirectorySink(dirOut), progress, numThreads, timeoutMillis);
+    }
+
+    public void writeSourceArchive(File out, ProgressListener progress, boolean includeHashes) throws IOException {
+	writeSourceArchive(out, progress, includeHashes, Runtime.getRuntime().availableProcessors(),
+		SourceTimeoutMillis);
+    }
+
+    public void writeSourceArchive(File out, ProgressListener progress, boolean includeHashes, int numThreads,
+	    long timeoutMillis) throws IOException {
+	// stamp every entry with the jar's time, so the same jar always makes the same archive
+	SourceSink sink = new SourceSink.ArchiveSink(out, m_file.lastModified(), includeHashes);
+	try {
+	    writeSources(sink, progress, numThreads, timeoutMillis);
+	} finally {
+	    sink.close();
+	}
+    }
+
+    private void writeSources(SourceSink sink, ProgressListener progress, int numThreads, long timeoutMillis)
+	    throws IOException {
+	if (numThreads < 1) {
+	    throw new IllegalArgumentException("Need at least one thread to decompile with, not " + numThreads);
+	}
+
 	// get the classes to decompile
-	Set<ClassEntry> classEntries = Sets.newHashSet();
+	List<ClassEntry> obfClassEntries = Lists.newArrayList();
 	for (ClassEntry obfClassEntry : m_jarIndex.getObfClassEntries()) {
 	    // skip inner classes
 	    if (obfClassEntry.isInnerClass()) {
 		continue;
 	    }
 
-	    classEntries.add(obfClassEntry);
+	    obfClassEntries.add(obfClassEntry);
+	}
+
+	// always go in the same order, so the exports (and the reports) are easy to compare
+	Collections.sort(obfClassEntries, new Comparator<ClassEntry>() {
+	    @Override
+	    public int compare(ClassEntry a, ClassEntry b) {
+		return a.getName().compareTo(b.getName());
+	    }
+	});
+
+	// DEOBFUSCATE ALL THE THINGS!! @_@
+	SourceWriter writer = new SourceWriter(obfClassEntries, numThreads * MaxSourcesInFlightPerThread);
+
+	// name the files with the same translator the workers decompile with, so the names still match the sources
+	// if the mappings change while we're writing
+	List<ClassEntry> deobfClassEntries = Lists.newArrayList();
+	for (ClassEntry obfClassEntry : obfClassEntries) {
+	    deobfClassEntries.add(writer.m_deobfuscatingTranslator.translateEntry(new ClassEntry(obfClassEntry)));
 	}
 
 	if (progress != null) {
-	    progress.init(classEntries.size(), "Decompiling classes...");
+	    progress.init(obfClassEntries.size(), "Decompiling classes...");
 	}
 
-	// DEOBFUSCATE ALL THE THINGS!! @_@
-	int i = 0;
-	for (ClassEntry obfClassEntry : classEntries) {
-	    ClassEntry deobfClassEntry = deobfuscateEntry(new ClassEntry(obfClassEntry));
-	    if (progress != null) {
-		progress.onProgress(i++, deobfClassEntry.toString());
+	ExecutorService pool = Executors.newCachedThreadPool(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		// a worker stuck on a bad class shouldn't keep the jvm alive after the export is done
+		Thread thread = new Thread(runnable, "Source Writer");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	int numAbandonedWorkers = 0;
+	boolean[] isDone = new boolean[obfClassEntries.size()];
+	try {
+	    for (int i = 0; i < numThreads; i++) {
+		pool.submit(writer);
 	    }
 
-	    try {
-		// get the source
-		String source = getSource(getSourceTree(obfClassEntry.getName()));
+	    // the workers finish classes in any order, but only this thread writes them out, in order
+	    // it's also the watchdog, since it spends most of its time waiting anyway
+	    long nextCheckTime = System.currentTimeMillis() + WatchdogIntervalMillis;
+	    int numWritten = 0;
+	    while (numWritten < obfClassEntries.size()) {
+		Integer index = writer.m_finishedIndices.poll(WatchdogIntervalMillis, TimeUnit.MILLISECONDS);
+		if (index != null) {
+		    isDone[index] = true;
+		}
 
-		// write the file
-		File file = new File(dirOut, deobfClassEntry.getName().replace('.', '/') + ".java");
-		file.getParentFile().mkdirs();
-		try (FileWriter out = new FileWriter(file)) {
-		    out.write(source);
+		if (System.currentTimeMillis() >= nextCheckTime) {
+		    nextCheckTime = System.currentTimeMillis() + WatchdogIntervalMillis;
+		    for (int stuckIndex : writer.timeOut(timeoutMillis)) {
+			// the decompiler doesn't check for interrupts, so the stuck worker usually runs on (and holds on to
+			// its decompiler) until the class finally finishes. Start another worker in its place, but only up
+			// to a point, since a GUI session could otherwise pile up abandoned decompilers for good
+			numAbandonedWorkers++;
+			if (numAbandonedWorkers < MaxAbandonedWorkers) {
+			    pool.submit(writer);
+			} else if (numAbandonedWorkers == MaxAbandonedWorkers) {
+			    for (int skippedIndex : writer.skipRemaining()) {
+				writer.m_sources.set(skippedIndex, getSourceStub(deobfClassEntries.get(skippedIndex),
+					writer, String.format(
+						"%d classes timed out before this one, so it was skipped.",
+						MaxAbandonedWorkers)));
+				isDone[skippedIndex] = true;
+			    }
+			}
+
+			writer.m_sources.set(stuckIndex, getSourceStub(deobfClassEntries.get(stuckIndex), writer,
+				String.format("Decompiling this class took longer than %d ms, so it was skipped.",
+					timeoutMillis)));
+			isDone[stuckIndex] = true;
+		    }
+		}
+
+		// write out everything that's ready
+		while (numWritten < obfClassEntries.size() && isDone[numWritten]) {
+		    String source = writer.m_sources.getAndSet(numWritten, null);
+		    if (source == null && writer.m_errors[numWritten] != null) {
+			// still write something, so the failed class doesn't just vanish from the export
+			source = getSourceStub(deobfClassEntries.get(numWritten), writer, String.format(
+				"Decompiling this class failed with %s, so it was skipped.",
+				writer.m_errors[numWritten].getClass().getSimpleName()));
+		    }
+		    if (source != null) {
+			try {
+			    sink.writeSource(deobfClassEntries.get(numWritten), source);
+			} catch (IOException ex) {
+			    writer.m_writeErrors[numWritten] = ex;
+			}
+		    }
+		    writer.m_window.release();
+		    if (progress != null) {
+			progress.onProgress(numWritten, deobfClassEntries.get(numWritten).toString());
+		    }
+		    numWritten++;
 		}
-	    } catch (Throwable t) {
-		throw new Error("Unable to deobfuscate class " + deobfClassEntry.toString() + " ("
-			+ obfClassEntry.toString() + ")", t);
 	    }
+	} catch (InterruptedException ex) {
+	    throw new Error("Interrupted while decompiling classes!", ex);
+	} finally {
+	    pool.shutdownNow();
 	}
+
+	// don't let a few bad classes spoil the whole export, just say which ones they were
+	int numErrors = writer.getNumErrors();
+	sink.writeReport(getSourceReport(obfClassEntries, deobfClassEntries, writer, timeoutMillis));
+	if (numErrors > 0) {
+	    System.err.println(String.format("WARNING: Unable to deobfuscate %d of %d classes. See %s", numErrors,
+		    obfClassEntries.size(), SourceReportFileName));
+	}
+
 	if (progress != null) {
-	    progress.onProgress(i, "Done!");
+	    if (numErrors > 0) {
+		progress.onProgress(obfClassEntries.size(), String.format("Done! %d classes failed, see %s",
+			numErrors, SourceReportFileName));
+	    } else {
+		progress.onProgress(obfClassEntries.size(), "Done!");
+	    }
 	}
     }
 
-    public void writeJar(File out, ProgressListener progress) {
-	try (JarOutputStream outJar = new JarOutputStream(new FileOutputStream(out))) {
-	    if (progress != null) {
-		progress.init(JarClassIterator.getClassEntries(m_jar).size(), "Translating classes...");
+    private String getSourceStub(ClassEntry deobfClassEntry, SourceWriter writer, String reason) {
+	// the signatures are better than nothing, and reading them doesn't need the decompiler
+	if (writer.m_stubLoader == null) {
+	    writer.m_stubLoader = new TranslatingTypeLoader(m_classSource, m_jarIndex, writer.m_obfuscatingTranslator,
+		    writer.m_deobfuscatingTranslator, m_translatedClassCache, writer.m_classCacheVersion);
+	}
+	CtClass c = null;
+	try {
+	    c = writer.m_stubLoader.loadClass(deobfClassEntry.getName());
+	} catch (Throwable t) {
+	    System.err.println("WARNING: Unable to read class " + deobfClassEntry + " for its stub: " + t);
+	}
+	return SourceStub.getSource(deobfClassEntry, c, reason);
+    }
+
+    private String getSourceReport(List<ClassEntry> obfClassEntries, List<ClassEntry> deobfClassEntries,
+	    SourceWriter writer, long timeoutMillis) {
+	List<Integer> timedOutIndices = Lists.newArrayList();
+	List<Integer> skippedIndices = Lists.newArrayList();
+	List<Integer> failedIndices = Lists.newArrayList();
+	List<Integer> unwrittenIndices = Lists.newArrayList();
+	List<Integer> slowIndices = Lists.newArrayList();
+	for (int i = 0; i < obfClassEntries.size(); i++) {
+	    // nothing at all got written for these, not even the signatures
+	    if (writer.m_writeErrors[i] != null) {
+		unwrittenIndices.add(i);
 	    }
 
-	    // prep the loader
-	    TranslatingTypeLoader loader = new TranslatingTypeLoader(m_jar, m_jarIndex,
-		    getTranslator(TranslationDirection.Obfuscating), getTranslator(TranslationDirection.Deobfuscating));
+	    if (writer.m_states.get(i) == SourceWriter.TimedOut) {
+		timedOutIndices.add(i);
+	    } else if (writer.m_states.get(i) == SourceWriter.Skipped) {
+		skippedIndices.add(i);
+	    } else if (writer.m_errors[i] != null) {
+		failedIndices.add(i);
+	    } else if (writer.m_times[i] >= SlowSourceMillis) {
+		slowIndices.add(i);
+	    }
+	}
+	if (timedOutIndices.isEmpty() && skippedIndices.isEmpty() && failedIndices.isEmpty()
+		&& unwrittenIndices.isEmpty() && slowIndices.isEmpty()) {
+	    return null;
+	}
 
-	    int i = 0;
-	    for (CtClass c : JarClassIterator.classes(m_jar)) {
-		if (progress != null) {
-		    progress.onProgress(i++, c.getName());
+	// the slowest classes are the most interesting ones
+	final long[] times = writer.m_times;
+	Collections.sort(slowIndices, new Comparator<Integer>() {
+	    @Override
+	    public int compare(Integer a, Integer b) {
+		return Long.compare(times[b], times[a]);
+	    }
+	});
+
+	StringWriter buf = new StringWriter();
+	PrintWriter out = new PrintWriter(buf);
+	if (!timedOutIndices.isEmpty()) {
+	    out.println(String.format("Timed out after %d ms, wrote signatures only:", timeoutMillis));
+	    for (int i : timedOutIndices) {
+		out.println("\t" + deobfClassEntries.get(i).toString() + " (" + obfClassEntries.get(i).toString() + ")");
+	    }
+	    out.println();
+	}
+	if (!skippedIndices.isEmpty()) {
+	    out.println(String.format("Skipped after %d classes timed out, wrote signatures only:",
+		    MaxAbandonedWorkers));
+	    for (int i : skippedIndices) {
+		out.println("\t" + deobfClassEntries.get(i).toString() + " (" + obfClassEntries.get(i).toString() + ")");
+	    }
+	    out.println();
+	}
+	if (!failedIndices.isEmpty()) {
+	    out.println("Failed, wrote signatures only:");
+	    for (int i : failedIndices) {
+		out.println(String.format("\t%s (%s) after %d ms", deobfClassEntries.get(i).toString(), obfClassEntries
+			.get(i).toString(), times[i]));
+		writer.m_errors[i].printStackTrace(out);
+	    }
+	    out.println();
+	}
+	if (!unwrittenIndices.isEmpty()) {
+	    out.println("Unable to write:");
+	    for (int i : unwrittenIndices) {
+		out.println("\t" + deobfClassEntries.get(i).toString() + " (" + obfClassEntries.get(i).toString() + ")");
+		writer.m_writeErrors[i].printStackTrace(out);
+	    }
+	    out.println();
+	}
+	if (!slowIndices.isEmpty()) {
+	    out.println(String.format("Slow (at least %d ms):", SlowSourceMillis));
+	    for (int i : slowIndices) {
+		out.println(String.format("\t%s (%s) in %d ms", deobfClassEntries.get(i).toString(), obfClassEntries
+			.get(i).toString(), times[i]));
+	    }
+	    out.println();
+	}
+	out.flush();
+	return buf.toString();
+    }
+
+    private class SourceWriter implements Runnable {
+	// every thread runs the same writer, and they take turns pulling classes off the list
+	public static final int NotStarted = 0;
+	public static final int Running = 1;
+	public static final int Finished = 2;
+	public static final int TimedOut = 3;
+	public static final int Skipped = 4;
+
+	private List<ClassEntry> m_obfClassEntries;
+	private Translator m_obfuscatingTranslator;
+	private Translator m_deobfuscatingTranslator;
+	private long m_classCacheVersion;
+	private Semaphore m_window;
+	private AtomicInteger m_nextIndex;
+	private BlockingQueue<Integer> m_finishedIndices;
+	private AtomicIntegerArray m_states;
+	private AtomicLongArray m_startTimes;
+	private AtomicReferenceArray<String> m_sources;
+	private AtomicReferenceArray<Thread> m_threads;
+	private long[] m_times;
+	private Throwable[] m_errors;
+	private IOException[] m_writeErrors;
+	private TranslatingTypeLoader m_stubLoader;
+
+	public SourceWriter(List<ClassEntry> obfClassEntries, int maxSourcesInFlight) {
+	    m_obfClassEntries = obfClassEntries;
+	    m_classCacheVersion = m_translatedClassCache.getVersion();
+	    m_obfuscatingTranslator = getTranslator(TranslationDirection.Obfuscating);
+	    m_deobfuscatingTranslator = getTranslator(TranslationDirection.Deobfuscating);
+	    m_window = new Semaphore(maxSourcesInFlight);
+	    m_nextIndex = new AtomicInteger(0);
+	    m_finishedIndices = new LinkedBlockingQueue<Integer>();
+	    m_states = new AtomicIntegerArray(obfClassEntries.size());
+	    m_startTimes = new AtomicLongArray(obfClassEntries.size());
+	    m_sources = new AtomicReferenceArray<String>(obfClassEntries.size());
+	    m_threads = new AtomicReferenceArray<Thread>(obfClassEntries.size());
+	    m_times = new long[obfClassEntries.size()];
+	    m_errors = new Throwable[obfClassEntries.size()];
+	    m_writeErrors = new IOException[obfClassEntries.size()];
+	}
+
+	@Override
+	public void run() {
+	    SourceDecompiler decompiler = null;
+
+	    while (true) {
+		// sources are written in order, so don't get too far ahead of the slowest class
+		// otherwise, a huge jar could pile up a huge amount of source in memory
+		try {
+		    m_window.acquire();
+		} catch (InterruptedException ex) {
+		    return;
 		}
+		int index = m_nextIndex.getAndIncrement();
+		if (index >= m_obfClassEntries.size()) {
+		    m_window.release();
+		    break;
+		}
+
+		long startTime = System.currentTimeMillis();
+		m_startTimes.set(index, startTime);
+		m_threads.set(index, Thread.currentThread());
+		m_states.set(index, Running);
 
+		// get the source
+		String source = null;
+		Throwable error = null;
 		try {
-		    c = loader.transformClass(c);
-		    outJar.putNextEntry(new JarEntry(c.getName().replace('.', '/') + ".class"));
-		    outJar.write(c.toBytecode());
-		    outJar.closeEntry();
+		    if (decompiler == null) {
+			decompiler = new SourceDecompiler(m_obfuscatingTranslator, m_deobfuscatingTranslator,
+				m_classCacheVersion);
+		    }
+		    source = Deobfuscator.this.getSource(decompiler, m_obfClassEntries.get(index).getName());
 		} catch (Throwable t) {
-		    throw new Error("Unable to deobfuscate class " + c.getName(), t);
+		    error = t;
+		}
+		m_threads.set(index, null);
+
+		if (!m_states.compareAndSet(index, Running, Finished)) {
+		    // the watchdog already gave up on this class and started another worker in our place
+		    return;
+		}
+		m_sources.set(index, source);
+		m_times[index] = System.currentTimeMillis() - startTime;
+		m_errors[index] = error;
+
+		// the queue hands the source, time, and error over to the writing thread too
+		m_finishedIndices.add(index);
+	    }
+	}
+
+	public List<Integer> timeOut(long timeoutMillis) {
+	    List<Integer> indices = Lists.newArrayList();
+	    long now = System.currentTimeMillis();
+	    for (int i = 0; i < m_obfClassEntries.size(); i++) {
+		if (m_states.get(i) == Running && now - m_startTimes.get(i) >= timeoutMillis
+			&& m_states.compareAndSet(i, Running, TimedOut)) {
+		    m_times[i] = now - m_startTimes.get(i);
+		    indices.add(i);
+
+		    // worth a try, in case the class is stuck on something that does check for interrupts
+		    Thread thread = m_threads.get(i);
+		    if (thread != null) {
+			thread.interrupt();
+		    }
+		}
+	    }
+	    return indices;
+	}
+
+	public List<Integer> skipRemaining() {
+	    // any worker that asks for another class after this just stops
+	    List<Integer> indices = Lists.newArrayList();
+	    for (int i = m_nextIndex.getAndSet(m_obfClassEntries.size()); i < m_obfClassEntries.size(); i++) {
+		m_states.set(i, Skipped);
+		indices.add(i);
+	    }
+	    return indices;
+	}
+
+	public int getNumErrors() {
+	    int numErrors = 0;
+	    for (int i = 0; i < m_obfClassEntries.size(); i++) {
+		if (m_states.get(i) == TimedOut || m_states.get(i) == Skipped || m_errors[i] != null
+			|| m_writeErrors[i] != null) {
+		    numErrors++;
+		}
+	    }
+	    return numErrors;
+	}
+    }
+
+    public void writeJar(File out, ProgressListener progress) {
+	writeJar(out, progress, Runtime.getRuntime().availableProcessors());
+    }
+
+    public void writeJar(File out, ProgressListener progress, int numThreads) {
+	writeJar(out, progress, numThreads, Deflater.DEFAULT_COMPRESSION);
+    }
+
+    public void writeJar(File out, ProgressListener progress, int numThreads, final int compressionLevel) {
+	if (numThreads < 1) {
+	    throw new IllegalArgumentException("Need at least one thread to translate with, not " + numThreads);
+	}
+
+	// prep the loaders
+	// transforming a class only reads the index and the translators, but give each thread its own loader anyway
+	final Translator obfuscatingTranslator = getTranslator(TranslationDirection.Obfuscating);
+	final Translator deobfuscatingTranslator = getTranslator(TranslationDirection.Deobfuscating);
+	final ThreadLocal<TranslatingTypeLoader> loaders = new ThreadLocal<TranslatingTypeLoader>() {
+	    @Override
+	    protected TranslatingTypeLoader initialValue() {
+		return new TranslatingTypeLoader(m_classSource, m_jarIndex, obfuscatingTranslator,
+			deobfuscatingTranslator, null, 0);
+	    }
+	};
+
+	// any class that mentions one of these gets its method references rewritten
+	final Set<String> bridgeClassNames = Sets.newHashSet();
+	for (MethodEntry methodEntry : m_jarIndex.getBridgedMethods()) {
+	    bridgeClassNames.add(methodEntry.getClassName());
+	}
+
+	// if we exported this jar before, we can reuse the classes whose inputs didn't change
+	String inputJarHash;
+	try {
+	    inputJarHash = getJarHash(m_file);
+	} catch (IOException ex) {
+	    throw new Error("Unable to read Jar file!", ex);
+	}
+	final JarExportRecord oldRecord = readExportRecord(out, compressionLevel, inputJarHash);
+	JarExportRecord newRecord = new JarExportRecord(compressionLevel, inputJarHash);
+	int numReusedClasses = 0;
+
+	// don't let the translators get too far ahead of the writer
+	int maxNumPending = numThreads * 4;
+
+	// write next to the old jar, since we might be copying classes out of it
+	File tempFile;
+	try {
+	    tempFile = File.createTempFile("." + out.getName() + "-", ".tmp", out.getAbsoluteFile().getParentFile());
+	} catch (IOException ex) {
+	    throw new Error("Unable to write to Jar file!", ex);
+	}
+
+	ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+	try {
+	    try (RawZipFile inZip = new RawZipFile(m_file);
+		    final RawZipFile oldZip = oldRecord != null ? openOldJar(out) : null;
+		    RawZipWriter outZip = new RawZipWriter(tempFile)) {
+		List<RawZipFile.Entry> entries = Lists.newArrayList();
+		for (RawZipFile.Entry entry : inZip.entries()) {
+		    // the classes won't match the signatures anymore
+		    if (!isSignatureFile(entry.getName())) {
+			entries.add(entry);
+		    }
 		}
+
+		if (progress != null) {
+		    progress.init(entries.size(), "Translating classes...");
+		}
+
+		List<Future<TranslatedClass>> translatedClasses = Lists.newArrayList();
+		for (int i = 0; i < entries.size(); i++) {
+		    // keep the translators busy
+		    while (translatedClasses.size() < entries.size()
+			    && translatedClasses.size() <= i + maxNumPending) {
+			final RawZipFile.Entry entry = entries.get(translatedClasses.size());
+			if (entry.isDirectory() || !entry.getName().endsWith(".class")) {
+			    // resources get copied as-is
+			    translatedClasses.add(null);
+			    continue;
+			}
+			final ClassEntry classEntry = classEntry(entry);
+			translatedClasses.add(pool.submit(new Callable<TranslatedClass>() {
+			    @Override
+			    public TranslatedClass call() throws Exception {
+				return translateClass(classEntry, entry, oldRecord, oldZip, bridgeClassNames,
+					loaders.get(), compressionLevel);
+			    }
+			}));
+		    }
+
+		    // write the entries in jar order, no matter which ones finish first
+		    RawZipFile.Entry entry = entries.get(i);
+		    if (progress != null) {
+			progress.onProgress(i, entry.getName());
+		    }
+		    if (translatedClasses.get(i) == null) {
+			outZip.putRawEntry(inZip, entry);
+			continue;
+		    }
+		    TranslatedClass translatedClass;
+		    try {
+			translatedClass = translatedClasses.get(i).get();
+			translatedClasses.set(i, null);
+		    } catch (ExecutionException ex) {
+			throw new Error("Unable to deobfuscate class " + entry.getName(), ex.getCause());
+		    }
+
+		    String outputName;
+		    long outputCrc;
+		    if (translatedClass.m_data != null) {
+			// keep the original timestamp so the same jar and mappings always give the same bytes
+			outputName = translatedClass.m_name;
+			outputCrc = translatedClass.m_data.getCrc();
+			outZip.putEntry(outputName, translatedClass.m_data, entry.getDosTime(), entry.getDosDate());
+		    } else if (translatedClass.m_oldEntry != null) {
+			// we translated this class the same way last time, so just copy the old bytes
+			outputName = translatedClass.m_oldEntry.getName();
+			outputCrc = translatedClass.m_oldEntry.getCrc();
+			outZip.putRawEntry(oldZip, translatedClass.m_oldEntry);
+			numReusedClasses++;
+		    } else {
+			// nothing changed, so just copy the compressed bytes straight over
+			outputName = entry.getName();
+			outputCrc = entry.getCrc();
+			outZip.putRawEntry(inZip, entry);
+		    }
+		    newRecord.putClass(classEntry(entry).getName(), new JarExportRecord.ExportedClass(
+			    translatedClass.m_inputHash, translatedClass.m_dependencyHash,
+			    translatedClass.m_dependencies, outputName, outputCrc));
+		}
+		if (progress != null) {
+		    progress.onProgress(entries.size(), "Done!");
+		}
+	    }
+
+	    // the old jar is closed now, so we can replace it
+	    Files.move(tempFile.toPath(), out.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	    newRecord.write(JarExportRecord.getFile(out));
+	    m_numReusedExportClasses = numReusedClasses;
+	} catch (IOException ex) {
+	    throw new Error("Unable to write to Jar file!", ex);
+	} catch (InterruptedException ex) {
+	    throw new Error("Interrupted while translating classes!", ex);
+	} finally {
+	    pool.shutdownNow();
+	    tempFile.delete();
+	}
+    }
+
+    private static class TranslatedClass {
+	private long m_inputHash;
+	private Set<String> m_dependencies;
+	private String m_dependencyHash;
+
+	// set when the class got translated
+	private String m_name;
+	private RawZipWriter.CompressedData m_data;
+
+	// set when the last export can be reused
+	private RawZipFile.Entry m_oldEntry;
+
+	public TranslatedClass(long inputHash, Set<String> dependencies, String dependencyHash) {
+	    m_inputHash = inputHash;
+	    m_dependencies = dependencies;
+	    m_dependencyHash = dependencyHash;
+	}
+    }
+
+    private TranslatedClass translateClass(ClassEntry obfClassEntry, RawZipFile.Entry entry,
+	    JarExportRecord oldRecord, RawZipFile oldZip, Set<String> bridgeClassNames, TranslatingTypeLoader loader,
+	    int compressionLevel) throws IOException, NotFoundException, CannotCompileException {
+	long inputHash = IndexedClass.getHash(entry.getCrc(), entry.getSize());
+	JarExportRecord.ExportedClass oldClass = null;
+	if (oldRecord != null && oldZip != null) {
+	    oldClass = oldRecord.getClass(obfClassEntry.getName());
+	    if (oldClass != null && oldClass.getInputHash() != inputHash) {
+		oldClass = null;
 	    }
-	    if (progress != null) {
-		progress.onProgress(i, "Done!");
+	}
+	if (oldClass != null) {
+	    // the class didn't change, so we don't need to read it again to know what it mentions
+	    m_classDependencies.put(obfClassEntry.getName(), oldClass.getDependencies());
+	}
+
+	Set<String> dependencies = getClassDependencies(obfClassEntry);
+	TranslatedClass translatedClass = new TranslatedClass(inputHash, dependencies, getDependencyHash(
+		obfClassEntry, dependencies, bridgeClassNames));
+	if (isUntouchedClass(obfClassEntry, dependencies, bridgeClassNames)) {
+	    return translatedClass;
+	}
+
+	// if none of the mappings this class depends on changed, the last export is still good
+	if (oldClass != null && oldClass.getDependencyHash().equals(translatedClass.m_dependencyHash)) {
+	    RawZipFile.Entry oldEntry = oldZip.getEntry(oldClass.getOutputName());
+	    if (oldEntry != null && oldEntry.getCrc() == oldClass.getOutputCrc()) {
+		translatedClass.m_oldEntry = oldEntry;
+		return translatedClass;
 	    }
+	}
+
+	CtClass c = loader.transformClass(loader.readClass(obfClassEntry));
+	translatedClass.m_name = c.getName().replace('.', '/') + ".class";
+	translatedClass.m_data = RawZipWriter.compress(TranslatingTypeLoader.toBytecode(c), compressionLevel);
+	return translatedClass;
+    }
 
-	    outJar.close();
+    private JarExportRecord readExportRecord(File out, int compressionLevel, String inputJarHash) {
+	if (!out.exists()) {
+	    return null;
+	}
+	JarExportRecord record = JarExportRecord.read(JarExportRecord.getFile(out));
+	if (record == null || record.getCompressionLevel() != compressionLevel) {
+	    // the old bytes would be compressed differently
+	    return null;
+	}
+	if (!record.getInputJarHash().equals(inputJarHash)) {
+	    // translating a class also reads facts about other classes (outer methods of anonymous classes, bridges,
+	    // and so on) that the dependency hashes don't cover, so a different jar means starting over
+	    return null;
+	}
+	return record;
+    }
+
+    private static String getJarHash(File file) throws IOException {
+	// the central directory has a crc for every entry, so there's no need to read the entries themselves
+	Hasher hasher = Hashing.sha1().newHasher();
+	try (RawZipFile zip = new RawZipFile(file)) {
+	    for (RawZipFile.Entry entry : zip.entries()) {
+		hasher.putString(entry.getName(), Charsets.UTF_8);
+		hasher.putLong(entry.getCrc());
+		hasher.putLong(entry.getSize());
+	    }
+	}
+	return hasher.hash().toString();
+    }
+
+    private RawZipFile openOldJar(File out) {
+	try {
+	    return new RawZipFile(out);
 	} catch (IOException ex) {
-	    throw new Error("Unable to write to Jar file!");
+	    // we just won't reuse anything
+	    System.err.println("WARNING: Unable to read the last export " + out + ": " + ex);
+	    return null;
 	}
     }
 
+    private static ClassEntry classEntry(RawZipFile.Entry entry) {
+	return new ClassEntry(entry.getName().substring(0, entry.getName().length() - ".class".length()));
+    }
+
+    private boolean isSignatureFile(String name) {
+	String upperName = name.toUpperCase();
+	return upperName.startsWith("META-INF/") && upperName.indexOf('/', "META-INF/".length()) < 0
+		&& (upperName.endsWith(".SF") || upperName.endsWith(".RSA") || upperName.endsWith(".DSA")
+			|| upperName.endsWith(".EC"));
+    }
+
+    private boolean isUntouchedClass(ClassEntry obfClassEntry, Set<String> dependencies,
+	    Set<String> bridgeClassNames) {
+	// classes in the default package always get moved to the none package
+	if (obfClassEntry.isInDefaultPackage()) {
+	    return false;
+	}
+
+	// inner and outer classes get their attributes rebuilt
+	if (m_jarIndex.getOuterClass(obfClassEntry.getSimpleName()) != null) {
+	    return false;
+	}
+	Collection<String> obfInnerClassNames = m_jarIndex.getInnerClasses(obfClassEntry.getName());
+	if (obfInnerClassNames != null && !obfInnerClassNames.isEmpty()) {
+	    return false;
+	}
+
+	// otherwise, the translation only changes anything if a class this one mentions has mappings or bridges
+	// member references can be translated by the mappings of any superclass too
+	for (String className : dependencies) {
+	    if (new ClassEntry(className).isInDefaultPackage() || bridgeClassNames.contains(className)
+		    || hasClassMapping(className)) {
+		return false;
+	    }
+	    for (String ancestorName : m_jarIndex.getTranslationIndex().getAncestry(className)) {
+		if (hasClassMapping(ancestorName)) {
+		    return false;
+		}
+	    }
+	}
+
+	// the parameter names would all be blank, so leaving them out doesn't change anything
+	return true;
+    }
+
+    private boolean hasClassMapping(String obfClassName) {
+	return m_mappings.getClassByObf(new ClassEntry(obfClassName).getOuterClassName()) != null;
+    }
+
+    private Set<String> getClassDependencies(ClassEntry obfClassEntry) {
+	// the jar never changes, so we only need to read each class once
+	Set<String> classNames = m_classDependencies.get(obfClassEntry.getName());
+	if (classNames == null) {
+	    classNames = Sets.newHashSet();
+	    classNames.add(obfClassEntry.getName());
+	    CtClass c;
+	    try {
+		c = m_classSource.getClass(obfClassEntry.getName());
+	    } catch (IOException ex) {
+		throw new Error("Unable to load class: " + obfClassEntry.getName(), ex);
+	    }
+	    if (c == null) {
+		throw new Error("Unable to load class: " + obfClassEntry.getName());
+	    }
+	    for (ClassEntry classEntry : ClassRenamer.getAllClassEntries(c)) {
+		classNames.add(classEntry.getName());
+	    }
+	    m_classDependencies.put(obfClassEntry.getName(), classNames);
+	}
+	return classNames;
+    }
+
+    private String getDependencyHash(ClassEntry obfClassEntry, Set<String> dependencies,
+	    Set<String> bridgeClassNames) throws IOException {
+	// hash everything the translation reads besides the class itself
+	StringWriter buf = new StringWriter();
+	PrintWriter out = new PrintWriter(buf);
+
+	// the inner class attributes
+	String obfClassName = getCanonicalClassName(obfClassEntry.getName());
+	out.println(obfClassName);
+	Collection<String> obfInnerClassNames = m_jarIndex.getInnerClasses(obfClassName);
+	if (obfInnerClassNames != null) {
+	    List<String> sortedNames = Lists.newArrayList(obfInnerClassNames);
+	    Collections.sort(sortedNames);
+	    out.println(sortedNames);
+	}
+
+	// the mappings and bridges of everything this class mentions, and their superclasses
+	Set<String> classNames = Sets.newTreeSet();
+	for (String dependency : dependencies) {
+	    String className = getCanonicalClassName(dependency);
+	    classNames.add(className);
+	    classNames.addAll(m_jarIndex.getTranslationIndex().getAncestry(className));
+	}
+	MappingsWriter writer = new MappingsWriter();
+	for (String className : classNames) {
+	    out.println(className + (bridgeClassNames.contains(className) ? " bridged" : ""));
+	    ClassMapping classMapping = m_mappings.getClassByObf(new ClassEntry(className).getOuterClassName());
+	    if (classMapping != null) {
+		writer.write(out, classMapping);
+	    }
+	}
+
+	out.flush();
+	return Hashing.sha1().hashString(buf.toString(), Charsets.UTF_8).toString();
+    }
+
+    private String getCanonicalClassName(String obfClassName) {
+	// classes get the same names the translation gives them: out of the default package, and inner classes
+	// named by their outer class
+	ClassEntry obfClassEntry = new ClassEntry(obfClassName);
+	if (obfClassEntry.isInDefaultPackage()) {
+	    obfClassEntry = new ClassEntry(Constants.NonePackage + "/" + obfClassName);
+	}
+	String obfOuterClassName = m_jarIndex.getOuterClass(obfClassEntry.getSimpleName());
+	if (obfOuterClassName != null) {
+	    return obfOuterClassName + "$" + obfClassEntry.getSimpleName();
+	}
+	return obfClassEntry.getName();
+    }
+
     public <T extends Entry> T obfuscateEntry(T deobfEntry) {
 	if (deobfEntry == null) {
 	    return null;
@@ -483,60 +1329,96 @@ public class Deobfuscator {
 	}
     }
 
-    public void rename(Entry obfEntry, String newName) {
+    public Set<Entry> getAffectedEntries(Entry obfEntry) {
+	// which entries get new names when the mapping for this entry changes?
+	Set<Entry> obfEntries = Sets.newHashSet();
+	obfEntries.add(obfEntry);
 	if (obfEntry instanceof ClassEntry) {
-	    m_renamer.setClassName((ClassEntry) obfEntry, Descriptor.toJvmName(newName));
-	} else if (obfEntry instanceof FieldEntry) {
-	    m_renamer.setFieldName((FieldEntry) obfEntry, newName);
+	    // inner classes get their names from the outer class
+	    for (String innerClassName : m_jarIndex.getInnerClasses(obfEntry.getName())) {
+		obfEntries.add(new ClassEntry(obfEntry.getName() + "$" + innerClassName));
+	    }
 	} else if (obfEntry instanceof MethodEntry) {
-	    m_renamer.setMethodTreeName((MethodEntry) obfEntry, newName);
-	} else if (obfEntry instanceof ConstructorEntry) {
-	    throw new IllegalArgumentException("Cannot rename constructors");
-	} else if (obfEntry instanceof ArgumentEntry) {
-	    m_renamer.setArgumentName((ArgumentEntry) obfEntry, newName);
-	} else {
-	    throw new Error("Unknown entry type: " + obfEntry.getClass().getName());
+	    // methods get renamed as a tree
+	    obfEntries.addAll(m_jarIndex.getRelatedMethodImplementations((MethodEntry) obfEntry));
 	}
+	return obfEntries;
+    }
 
-	// clear caches
-	m_translatorCache.clear();
+    private void invalidateTranslatedClasses(Entry obfEntry) {
+	Set<ClassEntry> obfClassEntries = Sets.newHashSet();
+	for (Entry entry : getAffectedEntries(obfEntry)) {
+	    obfClassEntries.add(entry.getClassEntry());
+	}
+	m_translatedClassCache.invalidate(obfClassEntries);
     }
 
-    public void removeMapping(Entry obfEntry) {
-	if (obfEntry instanceof ClassEntry) {
-	    m_renamer.removeClassMapping((ClassEntry) obfEntry);
-	} else if (obfEntry instanceof FieldEntry) {
-	    m_renamer.removeFieldMapping((FieldEntry) obfEntry);
-	} else if (obfEntry instanceof MethodEntry) {
-	    m_renamer.removeMethodTreeMapping((MethodEntry) obfEntry);
-	} else if (obfEntry instanceof ConstructorEntry) {
-	    throw new IllegalArgumentException("Cannot rename constructors");
-	} else if (obfEntry instanceof ArgumentEntry) {
-	    m_renamer.removeArgumentMapping((ArgumentEntry) obfEntry);
-	} else {
-	    throw new Error("Unknown entry type: " + obfEntry);
+    public void rename(Entry obfEntry, String newName) {
+	synchronized (m_mappingsLock) {
+	    if (obfEntry instanceof ClassEntry) {
+		m_renamer.setClassName((ClassEntry) obfEntry, Descriptor.toJvmName(newName));
+	    } else if (obfEntry instanceof FieldEntry) {
+		m_renamer.setFieldName((FieldEntry) obfEntry, newName);
+	    } else if (obfEntry instanceof MethodEntry) {
+		m_renamer.setMethodTreeName((MethodEntry) obfEntry, newName);
+	    } else if (obfEntry instanceof ConstructorEntry) {
+		throw new IllegalArgumentException("Cannot rename constructors");
+	    } else if (obfEntry instanceof ArgumentEntry) {
+		m_renamer.setArgumentName((ArgumentEntry) obfEntry, newName);
+	    } else {
+		throw new Error("Unknown entry type: " + obfEntry.getClass().getName());
+	    }
+
+	    // clear caches
+	    m_translators = null;
 	}
+	m_metadataSystem = null;
+	invalidateTranslatedClasses(obfEntry);
+    }
 
-	// clear caches
-	m_translatorCache.clear();
+    public void removeMapping(Entry obfEntry) {
+	synchronized (m_mappingsLock) {
+	    if (obfEntry instanceof ClassEntry) {
+		m_renamer.removeClassMapping((ClassEntry) obfEntry);
+	    } else if (obfEntry instanceof FieldEntry) {
+		m_renamer.removeFieldMapping((FieldEntry) obfEntry);
+	    } else if (obfEntry instanceof MethodEntry) {
+		m_renamer.removeMethodTreeMapping((MethodEntry) obfEntry);
+	    } else if (obfEntry instanceof ConstructorEntry) {
+		throw new IllegalArgumentException("Cannot rename constructors");
+	    } else if (obfEntry instanceof ArgumentEntry) {
+		m_renamer.removeArgumentMapping((ArgumentEntry) obfEntry);
+	    } else {
+		throw new Error("Unknown entry type: " + obfEntry);
+	    }
+
+	    // clear caches
+	    m_translators = null;
+	}
+	m_metadataSystem = null;
+	invalidateTranslatedClasses(obfEntry);
     }
 
     public void markAsDeobfuscated(Entry obfEntry) {
-	if (obfEntry instanceof ClassEntry) {
-	    m_renamer.markClassAsDeobfuscated((ClassEntry) obfEntry);
-	} else if (obfEntry instanceof FieldEntry) {
-	    m_renamer.markFieldAsDeobfuscated((FieldEntry) obfEntry);
-	} else if (obfEntry instanceof MethodEntry) {
-	    m_renamer.markMethodTreeAsDeobfuscated((MethodEntry) obfEntry);
-	} else if (obfEntry instanceof ConstructorEntry) {
-	    throw new IllegalArgumentException("Cannot rename constructors");
-	} else if (obfEntry instanceof ArgumentEntry) {
-	    m_renamer.markArgumentAsDeobfuscated((ArgumentEntry) obfEntry);
-	} else {
-	    throw new Error("Unknown entry type: " + obfEntry);
-	}
+	synchronized (m_mappingsLock) {
+	    if (obfEntry instanceof ClassEntry) {
+		m_renamer.markClassAsDeobfuscated((ClassEntry) obfEntry);
+	    } else if (obfEntry instanceof FieldEntry) {
+		m_renamer.markFieldAsDeobfuscated((FieldEntry) obfEntry);
+	    } else if (obfEntry instanceof MethodEntry) {
+		m_renamer.markMethodTreeAsDeobfuscated((MethodEntry) obfEntry);
+	    } else if (obfEntry instanceof ConstructorEntry) {
+		throw new IllegalArgumentException("Cannot rename constructors");
+	    } else if (obfEntry instanceof ArgumentEntry) {
+		m_renamer.markArgumentAsDeobfuscated((ArgumentEntry) obfEntry);
+	    } else {
+		throw new Error("Unknown entry type: " + obfEntry);
+	    }
 
-	// clear caches
-	m_translatorCache.clear();
+	    // clear caches
+	    m_translators = null;
+	}
+	m_metadataSystem = null;
+	invalidateTranslatedClasses(obfEntry);
     }
 }
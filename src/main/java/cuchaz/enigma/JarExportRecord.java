@@ -0,0 +1,138 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+public class JarExportRecord {
+    // bump this whenever the translation changes, so old exports don't get reused
+    private static final String Header = "enigma jar export v2";
+
+    public static class ExportedClass {
+	private long m_inputHash;
+	private String m_dependencyHash;
+	private Set<String> m_dependencies;
+	private String m_outputName;
+	private long m_outputCrc;
+
+	public ExportedClass(long inputHash, String dependencyHash, Set<String> dependencies, String outputName,
+		long outputCrc) {
+	    m_inputHash = inputHash;
+	    m_dependencyHash = dependencyHash;
+	    m_dependencies = dependencies;
+	    m_outputName = outputName;
+	    m_outputCrc = outputCrc;
+	}
+
+	public long getInputHash() {
+	    return m_inputHash;
+	}
+
+	public String getDependencyHash() {
+	    return m_dependencyHash;
+	}
+
+	public Set<String> getDependencies() {
+	    return m_dependencies;
+	}
+
+	public String getOutputName() {
+	    return m_outputName;
+	}
+
+	public long getOutputCrc() {
+	    return m_outputCrc;
+	}
+    }
+
+    private int m_compressionLevel;
+    private String m_inputJarHash;
+    private Map<String, ExportedClass> m_classes;
+
+    public JarExportRecord(int compressionLevel, String inputJarHash) {
+	m_compressionLevel = compressionLevel;
+	m_inputJarHash = inputJarHash;
+	m_classes = Maps.newHashMap();
+    }
+
+    public static File getFile(File jarFile) {
+	return new File(jarFile.getPath() + ".exported");
+    }
+
+    public static JarExportRecord read(File file) {
+	if (!file.exists()) {
+	    return null;
+	}
+	try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+	    String[] header = in.readLine().split("\t");
+	    if (header.length != 3 || !header[0].equals(Header)) {
+		return null;
+	    }
+	    JarExportRecord record = new JarExportRecord(Integer.parseInt(header[1]), header[2]);
+	    String line;
+	    while ((line = in.readLine()) != null) {
+		// obf name, input hash, dependency hash, output name, output crc, dependencies
+		String[] parts = line.split("\t", -1);
+		Set<String> dependencies = Sets.newHashSet();
+		if (!parts[5].isEmpty()) {
+		    dependencies.addAll(Arrays.asList(parts[5].split(",")));
+		}
+		record.m_classes.put(parts[0], new ExportedClass(Long.parseLong(parts[1]), parts[2], dependencies,
+			parts[3], Long.parseLong(parts[4])));
+	    }
+	    return record;
+	} catch (IOException | RuntimeException ex) {
+	    // a broken record just means we translate everything again
+	    System.err.println("WARNING: Unable to read export record " + file + ": " + ex);
+	    return null;
+	}
+    }
+
+    public void write(File file) throws IOException {
+	try (PrintWriter out = new PrintWriter(new FileWriter(file))) {
+	    out.println(Header + "\t" + m_compressionLevel + "\t" + m_inputJarHash);
+	    for (Map.Entry<String, ExportedClass> entry : m_classes.entrySet()) {
+		ExportedClass exportedClass = entry.getValue();
+		out.println(Joiner.on('\t').join(entry.getKey(), exportedClass.m_inputHash,
+			exportedClass.m_dependencyHash, exportedClass.m_outputName, exportedClass.m_outputCrc,
+			Joiner.on(',').join(exportedClass.m_dependencies)));
+	    }
+	}
+    }
+
+    public int getCompressionLevel() {
+	return m_compressionLevel;
+    }
+
+    public String getInputJarHash() {
+	return m_inputJarHash;
+    }
+
+    public ExportedClass getClass(String obfClassName) {
+	return m_classes.get(obfClassName);
+    }
+
+    public void putClass(String obfClassName, ExportedClass exportedClass) {
+	m_classes.put(obfClassName, exportedClass);
+    }
+}
@@ -0,0 +1,62 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import com.strobel.assembler.metadata.Buffer;
+import com.strobel.assembler.metadata.ClasspathTypeLoader;
+import com.strobel.assembler.metadata.ITypeLoader;
+import com.strobel.assembler.metadata.MetadataSystem;
+import com.strobel.assembler.metadata.TypeDefinition;
+
+public class LayeredMetadataSystem extends MetadataSystem {
+    // procyon's resolvers keep a stack of generic contexts while they resolve, and nothing guards it, so threads
+    // can't share one. Each thread gets its own library layer instead, which still lasts across all its decompiles
+    private static final ThreadLocal<LayeredMetadataSystem> m_librarySystems =
+	    new ThreadLocal<LayeredMetadataSystem>() {
+		@Override
+		protected LayeredMetadataSystem initialValue() {
+		    return new LayeredMetadataSystem(new ClasspathTypeLoader(), false);
+		}
+	    };
+
+    private boolean m_isJarSystem;
+
+    private LayeredMetadataSystem(ITypeLoader typeLoader, boolean isJarSystem) {
+	super(typeLoader);
+	m_isJarSystem = isJarSystem;
+    }
+
+    public static LayeredMetadataSystem getLibrarySystem() {
+	// the JRE never changes, so every decompile on this thread can share the types we've already read from it
+	return m_librarySystems.get();
+    }
+
+    public static LayeredMetadataSystem newJarSystem(final TranslatingTypeLoader typeLoader) {
+	// jar types change with the mappings, so keep them out of the library layer
+	// like any procyon resolver, only one thread at a time can decompile with it
+	return new LayeredMetadataSystem(new ITypeLoader() {
+	    @Override
+	    public boolean tryLoadType(String deobfClassName, Buffer out) {
+		return typeLoader.tryLoadJarType(deobfClassName, out);
+	    }
+	}, true);
+    }
+
+    @Override
+    protected TypeDefinition resolveType(String descriptor, boolean mightBePrimitive) {
+	TypeDefinition type = super.resolveType(descriptor, mightBePrimitive);
+	if (type == null && m_isJarSystem) {
+	    // the jar layer might have been made on another thread, so use the library layer of the one decompiling
+	    return getLibrarySystem().resolveType(descriptor, mightBePrimitive);
+	}
+	return type;
+    }
+}
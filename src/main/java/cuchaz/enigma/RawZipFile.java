@@ -0,0 +1,234 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+public class RawZipFile implements Closeable {
+    // see the .ZIP File Format Specification (APPNOTE.TXT) for all of these
+    static final int LocalHeaderSignature = 0x04034b50;
+    static final int CentralHeaderSignature = 0x02014b50;
+    static final int EndSignature = 0x06054b50;
+    static final int LocalHeaderSize = 30;
+    static final int CentralHeaderSize = 46;
+    static final int EndSize = 22;
+    static final int MaxCommentSize = 0xffff;
+    static final int EncryptedFlag = 0x0001;
+    static final int Utf8Flag = 0x0800;
+
+    // names without the utf-8 flag are in the original IBM PC code page
+    private static final Charset Cp437 = Charset.forName("IBM437");
+
+    public static class Entry {
+	private String m_name;
+	private byte[] m_rawName;
+	private int m_flags;
+	private int m_method;
+	private int m_dosTime;
+	private int m_dosDate;
+	private long m_crc;
+	private long m_compressedSize;
+	private long m_size;
+	private long m_localHeaderOffset;
+
+	public String getName() {
+	    return m_name;
+	}
+
+	byte[] getRawName() {
+	    // the name as it's stored, so copies of the entry keep the same bytes and encoding
+	    return m_rawName;
+	}
+
+	public boolean isDirectory() {
+	    return m_name.endsWith("/");
+	}
+
+	public int getFlags() {
+	    return m_flags;
+	}
+
+	public int getMethod() {
+	    return m_method;
+	}
+
+	public int getDosTime() {
+	    return m_dosTime;
+	}
+
+	public int getDosDate() {
+	    return m_dosDate;
+	}
+
+	public long getCrc() {
+	    return m_crc;
+	}
+
+	public long getCompressedSize() {
+	    return m_compressedSize;
+	}
+
+	public long getSize() {
+	    return m_size;
+	}
+
+	public long getLocalHeaderOffset() {
+	    return m_localHeaderOffset;
+	}
+
+	@Override
+	public String toString() {
+	    return m_name;
+	}
+    }
+
+    private RandomAccessFile m_file;
+    private FileChannel m_channel;
+    private List<Entry> m_entries;
+    private Map<String, Entry> m_entriesByName;
+
+    public RawZipFile(File file) throws IOException {
+	m_file = new RandomAccessFile(file, "r");
+	m_channel = m_file.getChannel();
+	try {
+	    m_entries = readCentralDirectory();
+	} catch (IOException ex) {
+	    m_file.close();
+	    throw new IOException("Unable to read zip file " + file, ex);
+	}
+	m_entriesByName = Maps.newHashMap();
+	for (Entry entry : m_entries) {
+	    m_entriesByName.put(entry.m_name, entry);
+	}
+    }
+
+    public List<Entry> entries() {
+	return m_entries;
+    }
+
+    public Entry getEntry(String name) {
+	return m_entriesByName.get(name);
+    }
+
+    public synchronized void transferRawData(Entry entry, WritableByteChannel out) throws IOException {
+	// skip the local header, it might have different extra fields than the central one
+	ByteBuffer header = read(entry.m_localHeaderOffset, LocalHeaderSize);
+	if (header.getInt(0) != LocalHeaderSignature) {
+	    throw new IOException("Bad local header for " + entry.m_name);
+	}
+	long pos = entry.m_localHeaderOffset + LocalHeaderSize + (header.getShort(26) & 0xffff)
+		+ (header.getShort(28) & 0xffff);
+
+	// the data is already compressed, so let the OS copy it straight across
+	long numBytesLeft = entry.m_compressedSize;
+	while (numBytesLeft > 0) {
+	    long numBytesCopied = m_channel.transferTo(pos, numBytesLeft, out);
+	    if (numBytesCopied <= 0) {
+		throw new IOException("Unexpected end of data for " + entry.m_name);
+	    }
+	    pos += numBytesCopied;
+	    numBytesLeft -= numBytesCopied;
+	}
+    }
+
+    @Override
+    public void close() throws IOException {
+	m_file.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+	// the end record is at the end, but there could be a comment after it
+	long fileSize = m_channel.size();
+	int tailSize = (int) Math.min(fileSize, EndSize + MaxCommentSize);
+	ByteBuffer tail = read(fileSize - tailSize, tailSize);
+	int endPos = -1;
+	for (int i = tailSize - EndSize; i >= 0; i--) {
+	    if (tail.getInt(i) == EndSignature && i + EndSize + (tail.getShort(i + 20) & 0xffff) == tailSize) {
+		endPos = i;
+		break;
+	    }
+	}
+	if (endPos < 0) {
+	    throw new IOException("Missing end of central directory");
+	}
+
+	int numEntries = tail.getShort(endPos + 10) & 0xffff;
+	long directorySize = tail.getInt(endPos + 12) & 0xffffffffL;
+	long directoryOffset = tail.getInt(endPos + 16) & 0xffffffffL;
+	if (numEntries == 0xffff || directorySize == 0xffffffffL || directoryOffset == 0xffffffffL) {
+	    throw new IOException("Zip64 files aren't supported");
+	}
+
+	// read the whole directory in one go
+	ByteBuffer directory = read(directoryOffset, (int) directorySize);
+	List<Entry> entries = Lists.newArrayListWithCapacity(numEntries);
+	int pos = 0;
+	for (int i = 0; i < numEntries; i++) {
+	    if (directory.getInt(pos) != CentralHeaderSignature) {
+		throw new IOException("Bad central directory header at " + (directoryOffset + pos));
+	    }
+	    Entry entry = new Entry();
+	    entry.m_flags = directory.getShort(pos + 8) & 0xffff;
+	    entry.m_method = directory.getShort(pos + 10) & 0xffff;
+	    entry.m_dosTime = directory.getShort(pos + 12) & 0xffff;
+	    entry.m_dosDate = directory.getShort(pos + 14) & 0xffff;
+	    entry.m_crc = directory.getInt(pos + 16) & 0xffffffffL;
+	    entry.m_compressedSize = directory.getInt(pos + 20) & 0xffffffffL;
+	    entry.m_size = directory.getInt(pos + 24) & 0xffffffffL;
+	    int nameSize = directory.getShort(pos + 28) & 0xffff;
+	    int extraSize = directory.getShort(pos + 30) & 0xffff;
+	    int commentSize = directory.getShort(pos + 32) & 0xffff;
+	    entry.m_localHeaderOffset = directory.getInt(pos + 42) & 0xffffffffL;
+	    entry.m_rawName = new byte[nameSize];
+	    directory.position(pos + CentralHeaderSize);
+	    directory.get(entry.m_rawName);
+	    entry.m_name = new String(entry.m_rawName, (entry.m_flags & Utf8Flag) != 0 ? StandardCharsets.UTF_8 : Cp437);
+
+	    // we only copy raw data around, so refuse anything we'd copy wrong instead of passing it through
+	    if ((entry.m_flags & EncryptedFlag) != 0) {
+		throw new IOException("Encrypted entries aren't supported: " + entry.m_name);
+	    }
+	    if (entry.m_compressedSize == 0xffffffffL || entry.m_size == 0xffffffffL
+		    || entry.m_localHeaderOffset == 0xffffffffL) {
+		throw new IOException("Zip64 entries aren't supported: " + entry.m_name);
+	    }
+	    entries.add(entry);
+	    pos += CentralHeaderSize + nameSize + extraSize + commentSize;
+	}
+	return Collections.unmodifiableList(entries);
+    }
+
+    private ByteBuffer read(long pos, int size) throws IOException {
+	ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	while (buf.hasRemaining()) {
+	    if (m_channel.read(buf, pos + buf.position()) < 0) {
+		throw new IOException("Unexpected end of file");
+	    }
+	}
+	buf.flip();
+	return buf;
+    }
+}
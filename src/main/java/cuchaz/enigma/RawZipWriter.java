@@ -0,0 +1,215 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+
+import com.google.common.collect.Lists;
+
+public class RawZipWriter implements Closeable {
+    // use this instead of a compression level to store entries without compressing them
+    public static final int Stored = -2;
+
+    private static final int Version = 20;
+    private static final int DataDescriptorFlag = 0x0008;
+
+    public static class CompressedData {
+	private int m_method;
+	private long m_crc;
+	private long m_size;
+	private byte[] m_bytes;
+
+	public long getCrc() {
+	    return m_crc;
+	}
+    }
+
+    private static class CentralEntry {
+	private byte[] m_name;
+	private int m_flags;
+	private int m_method;
+	private int m_dosTime;
+	private int m_dosDate;
+	private long m_crc;
+	private long m_compressedSize;
+	private long m_size;
+	private long m_localHeaderOffset;
+    }
+
+    private FileOutputStream m_out;
+    private FileChannel m_channel;
+    private List<CentralEntry> m_entries;
+
+    public RawZipWriter(File file) throws IOException {
+	m_out = new FileOutputStream(file);
+	m_channel = m_out.getChannel();
+	m_entries = Lists.newArrayList();
+    }
+
+    public static CompressedData compress(byte[] data, int compressionLevel) {
+	CompressedData compressed = new CompressedData();
+	CRC32 crc = new CRC32();
+	crc.update(data);
+	compressed.m_crc = crc.getValue();
+	compressed.m_size = data.length;
+	if (compressionLevel == Stored) {
+	    compressed.m_method = ZipEntry.STORED;
+	    compressed.m_bytes = data;
+	    return compressed;
+	}
+
+	// zip entries use raw deflate streams, without the zlib wrapper
+	Deflater deflater = new Deflater(compressionLevel, true);
+	try {
+	    deflater.setInput(data);
+	    deflater.finish();
+	    ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+	    byte[] buf = new byte[Constants.KiB * 8];
+	    while (!deflater.finished()) {
+		out.write(buf, 0, deflater.deflate(buf));
+	    }
+	    compressed.m_method = ZipEntry.DEFLATED;
+	    compressed.m_bytes = out.toByteArray();
+	} finally {
+	    deflater.end();
+	}
+	return compressed;
+    }
+
+    public void putEntry(String name, CompressedData data, int dosTime, int dosDate) throws IOException {
+	CentralEntry entry = new CentralEntry();
+	entry.m_name = name.getBytes(StandardCharsets.UTF_8);
+	entry.m_flags = RawZipFile.Utf8Flag;
+	entry.m_method = data.m_method;
+	entry.m_dosTime = dosTime;
+	entry.m_dosDate = dosDate;
+	entry.m_crc = data.m_crc;
+	entry.m_compressedSize = data.m_bytes.length;
+	entry.m_size = data.m_size;
+	writeLocalHeader(entry);
+	write(ByteBuffer.wrap(data.m_bytes));
+    }
+
+    public void putRawEntry(RawZipFile zip, RawZipFile.Entry rawEntry) throws IOException {
+	CentralEntry entry = new CentralEntry();
+	// keep the name bytes and the utf-8 flag together, so the name reads back the same
+	entry.m_name = rawEntry.getRawName();
+
+	// the sizes go in our local header, so there won't be a data descriptor
+	entry.m_flags = rawEntry.getFlags() & ~DataDescriptorFlag;
+	entry.m_method = rawEntry.getMethod();
+	entry.m_dosTime = rawEntry.getDosTime();
+	entry.m_dosDate = rawEntry.getDosDate();
+	entry.m_crc = rawEntry.getCrc();
+	entry.m_compressedSize = rawEntry.getCompressedSize();
+	entry.m_size = rawEntry.getSize();
+	writeLocalHeader(entry);
+	zip.transferRawData(rawEntry, m_channel);
+    }
+
+    @Override
+    public void close() throws IOException {
+	try {
+	    // write the central directory
+	    long directoryOffset = m_channel.position();
+	    for (CentralEntry entry : m_entries) {
+		ByteBuffer buf = newBuffer(RawZipFile.CentralHeaderSize + entry.m_name.length);
+		buf.putInt(RawZipFile.CentralHeaderSignature);
+		buf.putShort((short) Version);
+		buf.putShort((short) Version);
+		putEntryFields(buf, entry);
+		buf.putShort((short) 0); // extra size
+		buf.putShort((short) 0); // comment size
+		buf.putShort((short) 0); // disk number
+		buf.putShort((short) 0); // internal attributes
+		buf.putInt(0); // external attributes
+		buf.putInt((int) entry.m_localHeaderOffset);
+		buf.put(entry.m_name);
+		buf.flip();
+		write(buf);
+	    }
+	    long directorySize = m_channel.position() - directoryOffset;
+	    checkLimit(directoryOffset + directorySize);
+
+	    ByteBuffer buf = newBuffer(RawZipFile.EndSize);
+	    buf.putInt(RawZipFile.EndSignature);
+	    buf.putShort((short) 0); // disk number
+	    buf.putShort((short) 0); // directory disk number
+	    buf.putShort((short) m_entries.size());
+	    buf.putShort((short) m_entries.size());
+	    buf.putInt((int) directorySize);
+	    buf.putInt((int) directoryOffset);
+	    buf.putShort((short) 0); // comment size
+	    buf.flip();
+	    write(buf);
+	} finally {
+	    m_out.close();
+	}
+    }
+
+    private void writeLocalHeader(CentralEntry entry) throws IOException {
+	entry.m_localHeaderOffset = m_channel.position();
+	checkLimit(entry.m_localHeaderOffset + entry.m_compressedSize);
+	if (m_entries.size() >= 0xffff) {
+	    throw new IOException("Too many entries for a zip file without zip64 extensions");
+	}
+	m_entries.add(entry);
+
+	ByteBuffer buf = newBuffer(RawZipFile.LocalHeaderSize + entry.m_name.length);
+	buf.putInt(RawZipFile.LocalHeaderSignature);
+	buf.putShort((short) Version);
+	putEntryFields(buf, entry);
+	buf.putShort((short) 0); // extra size
+	buf.put(entry.m_name);
+	buf.flip();
+	write(buf);
+    }
+
+    private void putEntryFields(ByteBuffer buf, CentralEntry entry) {
+	// these are the same in the local and central headers
+	buf.putShort((short) entry.m_flags);
+	buf.putShort((short) entry.m_method);
+	buf.putShort((short) entry.m_dosTime);
+	buf.putShort((short) entry.m_dosDate);
+	buf.putInt((int) entry.m_crc);
+	buf.putInt((int) entry.m_compressedSize);
+	buf.putInt((int) entry.m_size);
+	buf.putShort((short) entry.m_name.length);
+    }
+
+    private void checkLimit(long pos) throws IOException {
+	if (pos >= 0xffffffffL) {
+	    throw new IOException("Too big for a zip file without zip64 extensions");
+	}
+    }
+
+    private ByteBuffer newBuffer(int size) {
+	return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buf) throws IOException {
+	while (buf.hasRemaining()) {
+	    m_channel.write(buf);
+	}
+    }
+}
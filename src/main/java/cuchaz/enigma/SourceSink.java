@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.google.common.collect.Maps;
+import com.google.common.hash.Hashing;
+
+import cuchaz.enigma.mapping.ClassEntry;
+
+public abstract class SourceSink {
+    public abstract void writeSource(ClassEntry deobfClassEntry, String source) throws IOException;
+
+    public abstract void writeReport(String report) throws IOException;
+
+    public abstract void close() throws IOException;
+
+    protected static String getSourcePath(ClassEntry deobfClassEntry) {
+	return deobfClassEntry.getName().replace('.', '/') + ".java";
+    }
+
+    public static class DirectorySink extends SourceSink {
+	private File m_dirOut;
+
+	public DirectorySink(File dirOut) {
+	    m_dirOut = dirOut;
+	}
+
+	@Override
+	public void writeSource(ClassEntry deobfClassEntry, String source) throws IOException {
+	    File file = new File(m_dirOut, getSourcePath(deobfClassEntry));
+	    file.getParentFile().mkdirs();
+	    try (FileWriter out = new FileWriter(file)) {
+		out.write(source);
+	    }
+	}
+
+	@Override
+	public void writeReport(String report) throws IOException {
+	    File file = new File(m_dirOut, Deobfuscator.SourceReportFileName);
+	    if (report == null) {
+		// don't leave an old report lying around
+		file.delete();
+		return;
+	    }
+	    file.getParentFile().mkdirs();
+	    try (FileWriter out = new FileWriter(file)) {
+		out.write(report);
+	    }
+	}
+
+	@Override
+	public void close() {
+	    // nothing to do
+	}
+    }
+
+    public static class ArchiveSink extends SourceSink {
+	private ZipOutputStream m_out;
+	private long m_time;
+	private Map<String, String> m_hashes;
+
+	public ArchiveSink(File file, long time, boolean includeHashes) throws IOException {
+	    m_out = new ZipOutputStream(new FileOutputStream(file));
+	    m_time = time;
+	    m_hashes = includeHashes ? Maps.<String, String> newTreeMap() : null;
+	}
+
+	@Override
+	public void writeSource(ClassEntry deobfClassEntry, String source) throws IOException {
+	    String path = getSourcePath(deobfClassEntry);
+	    byte[] data = source.getBytes(StandardCharsets.UTF_8);
+	    writeEntry(path, data);
+	    if (m_hashes != null) {
+		m_hashes.put(path, Hashing.sha1().hashBytes(data).toString());
+	    }
+	}
+
+	@Override
+	public void writeReport(String report) throws IOException {
+	    if (report != null) {
+		writeEntry(Deobfuscator.SourceReportFileName, report.getBytes(StandardCharsets.UTF_8));
+	    }
+	}
+
+	@Override
+	public void close() throws IOException {
+	    try {
+		if (m_hashes != null) {
+		    // same format as sha1sum, so the usual tools can check it
+		    StringBuilder buf = new StringBuilder();
+		    for (Map.Entry<String, String> entry : m_hashes.entrySet()) {
+			buf.append(entry.getValue());
+			buf.append("  ");
+			buf.append(entry.getKey());
+			buf.append("\n");
+		    }
+		    writeEntry(Deobfuscator.SourceHashesFileName, buf.toString().getBytes(StandardCharsets.UTF_8));
+		}
+	    } finally {
+		m_out.close();
+	    }
+	}
+
+	private void writeEntry(String path, byte[] data) throws IOException {
+	    // the same jar should always make the same archive, byte for byte
+	    ZipEntry entry = new ZipEntry(path);
+	    entry.setTime(m_time);
+	    m_out.putNextEntry(entry);
+	    m_out.write(data);
+	    m_out.closeEntry();
+	}
+    }
+}
@@ -0,0 +1,144 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import javassist.CtBehavior;
+import javassist.CtClass;
+import javassist.CtConstructor;
+import javassist.CtField;
+import javassist.Modifier;
+import javassist.bytecode.AccessFlag;
+import javassist.bytecode.ClassFile;
+import javassist.bytecode.Descriptor;
+
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class SourceStub {
+    private static final int ClassModifiers = Modifier.PUBLIC | Modifier.PROTECTED | Modifier.PRIVATE
+	    | Modifier.STATIC | Modifier.FINAL | Modifier.ABSTRACT;
+    private static final int FieldModifiers = Modifier.PUBLIC | Modifier.PROTECTED | Modifier.PRIVATE
+	    | Modifier.STATIC | Modifier.FINAL | Modifier.VOLATILE | Modifier.TRANSIENT;
+    private static final int BehaviorModifiers = Modifier.PUBLIC | Modifier.PROTECTED | Modifier.PRIVATE
+	    | Modifier.STATIC | Modifier.FINAL | Modifier.ABSTRACT | Modifier.SYNCHRONIZED | Modifier.NATIVE
+	    | Modifier.STRICT;
+
+    public static String getSource(ClassEntry deobfClassEntry, CtClass c, String reason) {
+	StringBuilder buf = new StringBuilder();
+	buf.append("// ");
+	buf.append(reason);
+	buf.append("\n// Only the signatures are shown here, the bodies and inner classes were left out.\n");
+
+	if (!deobfClassEntry.isInDefaultPackage()) {
+	    buf.append("package ");
+	    buf.append(Descriptor.toJavaName(deobfClassEntry.getPackageName()));
+	    buf.append(";\n");
+	}
+	buf.append("\n");
+
+	String simpleName = deobfClassEntry.getSimpleName();
+	if (c == null) {
+	    // we couldn't even read the class, so the name is all we've got
+	    buf.append("class ");
+	    buf.append(simpleName);
+	    buf.append(" {\n}\n");
+	    return buf.toString();
+	}
+
+	// the class declaration
+	ClassFile classFile = c.getClassFile();
+	int accessFlags = classFile.getAccessFlags();
+	boolean isInterface = (accessFlags & AccessFlag.INTERFACE) != 0;
+	boolean isEnum = (accessFlags & AccessFlag.ENUM) != 0;
+	int classModifiers = c.getModifiers() & ClassModifiers;
+	if (isInterface) {
+	    classModifiers &= ~Modifier.ABSTRACT;
+	}
+	if (isEnum) {
+	    classModifiers &= ~(Modifier.FINAL | Modifier.ABSTRACT);
+	}
+	appendModifiers(buf, classModifiers);
+	if (isInterface) {
+	    buf.append("interface ");
+	} else if (isEnum) {
+	    buf.append("enum ");
+	} else {
+	    buf.append("class ");
+	}
+	buf.append(simpleName);
+	String superclassName = classFile.getSuperclass();
+	if (!isInterface && !isEnum && superclassName != null && !superclassName.equals("java.lang.Object")) {
+	    buf.append(" extends ");
+	    buf.append(superclassName);
+	}
+	String[] interfaceNames = classFile.getInterfaces();
+	if (interfaceNames.length > 0) {
+	    buf.append(isInterface ? " extends " : " implements ");
+	    for (int i = 0; i < interfaceNames.length; i++) {
+		if (i > 0) {
+		    buf.append(", ");
+		}
+		buf.append(interfaceNames[i]);
+	    }
+	}
+	buf.append(" {\n");
+
+	// fields
+	for (CtField field : c.getDeclaredFields()) {
+	    if (isSynthetic(field.getFieldInfo().getAccessFlags())) {
+		continue;
+	    }
+	    buf.append("\t");
+	    appendModifiers(buf, field.getModifiers() & FieldModifiers);
+	    buf.append(Descriptor.toClassName(field.getFieldInfo().getDescriptor()));
+	    buf.append(" ");
+	    buf.append(field.getName());
+	    buf.append(";\n");
+	}
+
+	// constructors and methods
+	for (CtBehavior behavior : c.getDeclaredBehaviors()) {
+	    if (isSynthetic(behavior.getMethodInfo().getAccessFlags())) {
+		continue;
+	    }
+	    if (behavior instanceof CtConstructor && ((CtConstructor) behavior).isClassInitializer()) {
+		continue;
+	    }
+	    String descriptor = behavior.getSignature();
+	    buf.append("\t");
+	    appendModifiers(buf, behavior.getModifiers() & BehaviorModifiers);
+	    if (behavior instanceof CtConstructor) {
+		buf.append(simpleName);
+	    } else {
+		buf.append(Descriptor.toClassName(descriptor.substring(descriptor.indexOf(')') + 1)));
+		buf.append(" ");
+		buf.append(behavior.getName());
+	    }
+	    buf.append(Descriptor.toString(descriptor));
+	    buf.append(";\n");
+	}
+
+	buf.append("}\n");
+	return buf.toString();
+    }
+
+    private static void appendModifiers(StringBuilder buf, int modifiers) {
+	String text = Modifier.toString(modifiers);
+	if (!text.isEmpty()) {
+	    buf.append(text);
+	    buf.append(" ");
+	}
+    }
+
+    private static boolean isSynthetic(int accessFlags) {
+	// bridges and other compiler glue would just be noise
+	return (accessFlags & (AccessFlag.SYNTHETIC | AccessFlag.BRIDGE)) != 0;
+    }
+}
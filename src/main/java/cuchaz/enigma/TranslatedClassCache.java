@@ -0,0 +1,119 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.util.Collection;
+import java.util.Set;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TranslatedClassCache {
+    private static class TranslatedClass {
+	private byte[] m_data;
+	private Set<String> m_dependencies;
+
+	public TranslatedClass(byte[] data, Set<String> dependencies) {
+	    m_data = data;
+	    m_dependencies = dependencies;
+	}
+    }
+
+    // translated classes, keyed by obf class name
+    private Cache<String, TranslatedClass> m_classes;
+
+    // obf class name -> obf names of the cached classes that were translated using its mappings
+    private Multimap<String, String> m_dependents;
+
+    // bumped whenever the mappings change, so translations that started before then don't get stored
+    private long m_version;
+
+    public TranslatedClassCache(long maxBytes) {
+	m_dependents = HashMultimap.create();
+	m_version = 0;
+	m_classes = CacheBuilder.newBuilder().maximumWeight(maxBytes).weigher(new Weigher<String, TranslatedClass>() {
+	    @Override
+	    public int weigh(String obfClassName, TranslatedClass translatedClass) {
+		return translatedClass.m_data.length;
+	    }
+	}).removalListener(new RemovalListener<String, TranslatedClass>() {
+	    @Override
+	    public void onRemoval(RemovalNotification<String, TranslatedClass> notification) {
+		// evictions don't come through any of our methods, so lock here too
+		synchronized (TranslatedClassCache.this) {
+		    for (String dependency : notification.getValue().m_dependencies) {
+			m_dependents.remove(dependency, notification.getKey());
+		    }
+		}
+	    }
+	}).build();
+    }
+
+    public synchronized byte[] get(String obfClassName) {
+	TranslatedClass translatedClass = m_classes.getIfPresent(obfClassName);
+	if (translatedClass == null) {
+	    return null;
+	}
+	return translatedClass.m_data;
+    }
+
+    public synchronized long getVersion() {
+	return m_version;
+    }
+
+    public synchronized void put(String obfClassName, byte[] data, Set<ClassEntry> obfDependencies, long version) {
+	// if the mappings changed while this class was being translated, it has the old names
+	if (version != m_version) {
+	    return;
+	}
+
+	Set<String> dependencies = Sets.newHashSet();
+	dependencies.add(obfClassName);
+	for (ClassEntry obfClassEntry : obfDependencies) {
+	    dependencies.add(obfClassEntry.getName());
+	}
+
+	// drop any old copy first, so its dependencies get cleaned up
+	m_classes.invalidate(obfClassName);
+	for (String dependency : dependencies) {
+	    m_dependents.put(dependency, obfClassName);
+	}
+	m_classes.put(obfClassName, new TranslatedClass(data, dependencies));
+    }
+
+    public synchronized void invalidate(Collection<ClassEntry> obfClassEntries) {
+	// the mappings for these classes changed, so anything translated with them is stale
+	Set<String> obfClassNames = Sets.newHashSet();
+	for (ClassEntry obfClassEntry : obfClassEntries) {
+	    obfClassNames.addAll(m_dependents.get(obfClassEntry.getName()));
+	}
+	m_classes.invalidateAll(obfClassNames);
+	m_version++;
+    }
+
+    public synchronized void clear() {
+	m_version++;
+	m_classes.invalidateAll();
+	m_dependents.clear();
+    }
+
+    public synchronized long size() {
+	return m_classes.size();
+    }
+}
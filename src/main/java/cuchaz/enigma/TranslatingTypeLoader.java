@@ -10,11 +10,10 @@
  ******************************************************************************/
 package cuchaz.enigma;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Map;
-import java.util.jar.JarEntry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.jar.JarFile;
 
 import javassist.ByteArrayClassPath;
@@ -25,6 +24,7 @@ import javassist.NotFoundException;
 import javassist.bytecode.Descriptor;
 
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.strobel.assembler.metadata.Buffer;
 import com.strobel.assembler.metadata.ClasspathTypeLoader;
 import com.strobel.assembler.metadata.ITypeLoader;
@@ -39,11 +39,28 @@ import cuchaz.enigma.mapping.ClassEntry;
 import cuchaz.enigma.mapping.Translator;
 
 public class TranslatingTypeLoader implements ITypeLoader {
-    private JarFile m_jar;
+    // the steps a class goes through on its way out of the jar, in order
+    public static enum Stage {
+	Read,
+	DefaultPackage,
+	InnerClasses,
+	Bridges,
+	Dependencies,
+	MethodParameters,
+	Translate,
+	Serialize;
+    }
+
+    // shared by all the loaders, since exports spread the work over many of them
+    private static final AtomicLongArray m_stageNanos = new AtomicLongArray(Stage.values().length);
+
+    private ClassSource m_classSource;
     private JarIndex m_jarIndex;
     private Translator m_obfuscatingTranslator;
     private Translator m_deobfuscatingTranslator;
     private Map<String, byte[]> m_cache;
+    private TranslatedClassCache m_classCache;
+    private long m_classCacheVersion;
     private ClasspathTypeLoader m_defaultTypeLoader;
 
     public TranslatingTypeLoader(JarFile jar, JarIndex jarIndex) {
@@ -52,11 +69,23 @@ public class TranslatingTypeLoader implements ITypeLoader {
 
     public TranslatingTypeLoader(JarFile jar, JarIndex jarIndex, Translator obfuscatingTranslator,
 	    Translator deobfuscatingTranslator) {
-	m_jar = jar;
+	this(ClassSource.forJar(jar), jarIndex, obfuscatingTranslator, deobfuscatingTranslator, null, 0);
+    }
+
+    public TranslatingTypeLoader(ClassSource classSource, JarIndex jarIndex) {
+	this(classSource, jarIndex, new Translator(), new Translator(), null, 0);
+    }
+
+    public TranslatingTypeLoader(ClassSource classSource, JarIndex jarIndex, Translator obfuscatingTranslator,
+	    Translator deobfuscatingTranslator, TranslatedClassCache classCache, long classCacheVersion) {
+	m_classSource = classSource;
 	m_jarIndex = jarIndex;
 	m_obfuscatingTranslator = obfuscatingTranslator;
 	m_deobfuscatingTranslator = deobfuscatingTranslator;
 	m_cache = Maps.newHashMap();
+	m_classCache = classCache;
+	// callers read the version before getting their translators, so a rename in between keeps us out of the cache
+	m_classCacheVersion = classCacheVersion;
 	m_defaultTypeLoader = new ClasspathTypeLoader();
     }
 
@@ -66,6 +95,15 @@ public class TranslatingTypeLoader implements ITypeLoader {
 
     @Override
     public boolean tryLoadType(String deobfClassName, Buffer out) {
+	if (tryLoadJarType(deobfClassName, out)) {
+	    return true;
+	}
+
+	// chain to default type loader
+	return m_defaultTypeLoader.tryLoadType(deobfClassName, out);
+    }
+
+    public boolean tryLoadJarType(String deobfClassName, Buffer out) {
 	// check the cache
 	byte[] data;
 	if (m_cache.containsKey(deobfClassName)) {
@@ -76,8 +114,7 @@ public class TranslatingTypeLoader implements ITypeLoader {
 	}
 
 	if (data == null) {
-	    // chain to default type loader
-	    return m_defaultTypeLoader.tryLoadType(deobfClassName, out);
+	    return false;
 	}
 
 	// send the class to the decompiler
@@ -139,34 +176,25 @@ public class TranslatingTypeLoader implements ITypeLoader {
 	    classFileName = obfClassEntry.getName();
 	}
 
-	JarEntry entry = m_jar.getJarEntry(classFileName + ".class");
-	if (entry == null) {
-	    return null;
+	// did we already translate this class with the same mappings?
+	if (m_classCache != null) {
+	    byte[] data = m_classCache.get(obfClassEntry.getName());
+	    if (data != null) {
+		return data;
+	    }
 	}
 
+	long startTime = System.nanoTime();
 	try {
-	    // read the class file into a buffer
-	    ByteArrayOutputStream data = new ByteArrayOutputStream();
-	    byte[] buf = new byte[1024 * 1024]; // 1 KiB
-	    InputStream in = m_jar.getInputStream(entry);
-	    while (true) {
-		int bytesRead = in.read(buf);
-		if (bytesRead <= 0) {
-		    break;
-		}
-		data.write(buf, 0, bytesRead);
+	    // load the javassist handle to the raw class, the class source keeps the bytes around
+	    CtClass c = m_classSource.getClass(classFileName);
+	    if (c == null) {
+		return null;
 	    }
-	    data.close();
-	    in.close();
-	    buf = data.toByteArray();
-
-	    // load the javassist handle to the raw class
-	    String javaClassFileName = Descriptor.toJavaName(classFileName);
-	    ClassPool classPool = new ClassPool();
-	    classPool.insertClassPath(new ByteArrayClassPath(javaClassFileName, buf));
-	    CtClass c = classPool.get(javaClassFileName);
+	    addStageTime(Stage.Read, startTime);
 
-	    c = transformClass(c);
+	    Set<ClassEntry> obfDependencies = Sets.newHashSet();
+	    c = transformClass(c, obfDependencies);
 
 	    // sanity checking
 	    assertClassName(c, deobfClassEntry);
@@ -175,40 +203,109 @@ public class TranslatingTypeLoader implements ITypeLoader {
 	    // Util.writeClass( c );
 
 	    // we have a transformed class!
-	    return c.toBytecode();
+	    byte[] translatedData = toBytecode(c);
+	    if (m_classCache != null) {
+		m_classCache.put(obfClassEntry.getName(), translatedData, obfDependencies, m_classCacheVersion);
+	    }
+	    return translatedData;
 	} catch (IOException | NotFoundException | CannotCompileException ex) {
 	    throw new Error(ex);
 	}
     }
 
-    public CtClass transformClass(CtClass c) throws IOException, NotFoundException, CannotCompileException {
+    public CtClass readClass(ClassEntry obfClassEntry) {
+	long startTime = System.nanoTime();
+	CtClass c;
+	try {
+	    c = m_classSource.getClass(obfClassEntry.getName());
+	} catch (IOException ex) {
+	    throw new Error("Unable to load class: " + obfClassEntry.getName(), ex);
+	}
+	if (c == null) {
+	    throw new Error("Unable to load class: " + obfClassEntry.getName());
+	}
+	addStageTime(Stage.Read, startTime);
+	return c;
+    }
+
+    public CtClass transformClass(CtClass c) throws NotFoundException, CannotCompileException {
+	return transformClass(c, null);
+    }
+
+    private CtClass transformClass(CtClass c, Set<ClassEntry> obfDependencies) throws NotFoundException,
+	    CannotCompileException {
+	// every stage edits the same class in place, javassist keeps the class pool in sync
+	// when the class gets renamed, so the bytecode only gets written out once at the very end
+
 	// we moved a lot of classes out of the default package into the none
 	// package
 	// make sure all the class references are consistent
+	long startTime = System.nanoTime();
 	ClassRenamer.moveAllClassesOutOfDefaultPackage(c, Constants.NonePackage);
+	startTime = addStageTime(Stage.DefaultPackage, startTime);
 
 	// reconstruct inner classes
 	new InnerClassWriter(m_jarIndex).write(c);
 
-	// re-get the javassist handle since we changed class names
-	ClassEntry obfClassEntry = new ClassEntry(Descriptor.toJvmName(c.getName()));
-	String javaClassReconstructedName = Descriptor.toJavaName(obfClassEntry.getName());
-	ClassPool classPool = new ClassPool();
-	classPool.insertClassPath(new ByteArrayClassPath(javaClassReconstructedName, c.toBytecode()));
-	c = classPool.get(javaClassReconstructedName);
-
-	// check that the file is correct after inner class reconstruction (ie
-	// cause Javassist to fail fast if something is wrong)
-	assertClassName(c, obfClassEntry);
+	// check that the class is correct after inner class reconstruction
+	assertClassName(c, new ClassEntry(Descriptor.toJvmName(c.getClassFile().getName())));
+	startTime = addStageTime(Stage.InnerClasses, startTime);
 
 	// do all kinds of deobfuscating transformations on the class
 	new BridgeFixer(m_jarIndex).fixBridges(c);
+	startTime = addStageTime(Stage.Bridges, startTime);
+
+	// the translation only depends on the mappings of the classes this one mentions
+	if (obfDependencies != null) {
+	    obfDependencies.addAll(ClassRenamer.getAllClassEntries(c));
+	    startTime = addStageTime(Stage.Dependencies, startTime);
+	}
 	new MethodParameterWriter(m_deobfuscatingTranslator).writeMethodArguments(c);
+	startTime = addStageTime(Stage.MethodParameters, startTime);
 	new ClassTranslator(m_deobfuscatingTranslator).translate(c);
+	addStageTime(Stage.Translate, startTime);
 
 	return c;
     }
 
+    public static byte[] toBytecode(CtClass c) throws IOException, CannotCompileException {
+	long startTime = System.nanoTime();
+	byte[] data = c.toBytecode();
+	addStageTime(Stage.Serialize, startTime);
+	return data;
+    }
+
+    public static long getStageNanos(Stage stage) {
+	return m_stageNanos.get(stage.ordinal());
+    }
+
+    public static void resetStageTimes() {
+	for (int i = 0; i < m_stageNanos.length(); i++) {
+	    m_stageNanos.set(i, 0);
+	}
+    }
+
+    public static String getStageTimes() {
+	long totalNanos = 0;
+	for (Stage stage : Stage.values()) {
+	    totalNanos += getStageNanos(stage);
+	}
+	StringBuilder buf = new StringBuilder();
+	for (Stage stage : Stage.values()) {
+	    long nanos = getStageNanos(stage);
+	    buf.append(String.format("%-16s %8d ms %5.1f%%\n", stage, nanos / 1000000,
+		    totalNanos > 0 ? 100.0 * nanos / totalNanos : 0.0));
+	}
+	return buf.toString();
+    }
+
+    private static long addStageTime(Stage stage, long startTime) {
+	// hand back the current time so the next stage can start from it
+	long time = System.nanoTime();
+	m_stageNanos.addAndGet(stage.ordinal(), time - startTime);
+	return time;
+    }
+
     private void assertClassName(CtClass c, ClassEntry obfClassEntry) {
 	String name1 = Descriptor.toJvmName(c.getName());
 	assert (name1.equals(obfClassEntry.getName())) : String.format("Looking for %s, instead found %s",
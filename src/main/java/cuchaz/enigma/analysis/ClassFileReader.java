@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import cuchaz.enigma.Constants;
+
+public class ClassFileReader {
+    // anything bigger than this isn't a class file we want to deal with
+    private static final int MaxClassSize = Constants.MiB;
+
+    // only used when the jar doesn't tell us how big a class is
+    private static final ThreadLocal<byte[]> m_buffers = new ThreadLocal<byte[]>() {
+	@Override
+	protected byte[] initialValue() {
+	    return new byte[Constants.KiB * 64];
+	}
+    };
+
+    public static byte[] read(JarFile jar, JarEntry entry) throws IOException {
+	// entries made up from just a name don't know their size, so ask the jar for the real one
+	if (entry.getSize() < 0) {
+	    JarEntry jarEntry = jar.getJarEntry(entry.getName());
+	    if (jarEntry == null) {
+		throw new IOException("Missing class file " + entry.getName());
+	    }
+	    entry = jarEntry;
+	}
+	if (entry.getSize() > MaxClassSize) {
+	    throw new IOException("Class file " + entry.getName() + " larger than 1 MiB! Something is wrong!");
+	}
+
+	try (InputStream in = jar.getInputStream(entry)) {
+	    if (entry.getSize() >= 0) {
+		// we know the size, so read straight into the array we hand out
+		byte[] data = new byte[(int) entry.getSize()];
+		int numBytesRead = readFully(in, data, 0, data.length);
+		if (numBytesRead != data.length || in.read() >= 0) {
+		    throw new IOException("Class file " + entry.getName() + " doesn't match its size in the jar");
+		}
+		return data;
+	    }
+
+	    // otherwise, read into this thread's buffer and copy out just the class
+	    byte[] buf = m_buffers.get();
+	    int size = 0;
+	    while (true) {
+		size += readFully(in, buf, size, buf.length - size);
+		if (size < buf.length) {
+		    break;
+		}
+		if (buf.length > MaxClassSize) {
+		    throw new IOException("Class file " + entry.getName() + " larger than 1 MiB! Something is wrong!");
+		}
+		buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MaxClassSize + 1));
+		m_buffers.set(buf);
+	    }
+	    return Arrays.copyOf(buf, size);
+	}
+    }
+
+    private static int readFully(InputStream in, byte[] buf, int offset, int length) throws IOException {
+	// returns fewer bytes than asked for only at the end of the stream
+	int numBytesRead = 0;
+	while (numBytesRead < length) {
+	    int n = in.read(buf, offset + numBytesRead, length - numBytesRead);
+	    if (n < 0) {
+		break;
+	    }
+	    numBytesRead += n;
+	}
+	return numBytesRead;
+    }
+}
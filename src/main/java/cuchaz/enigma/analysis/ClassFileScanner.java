@@ -0,0 +1,393 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import cuchaz.enigma.mapping.SignatureUpdater.ClassNameUpdater;
+
+public class ClassFileScanner {
+    // reads just enough of a class file to index it, without building a javassist model
+    // everything is read straight out of the byte array, and constant pool strings are decoded at most once
+
+    public static final int AccSynthetic = 0x1000;
+    public static final int AccAbstract = 0x0400;
+
+    public interface Visitor {
+	void visitClass(int access, String className, String superclassName, String[] interfaceNames);
+
+	void visitField(int access, String name, String descriptor);
+
+	void visitBehavior(int access, String name, String descriptor);
+
+	void visitMethodCall(String className, String name, String descriptor);
+
+	void visitConstructorCall(String className, String descriptor);
+
+	void visitNew(String className, String descriptor);
+
+	void visitFieldAccess(String className, String name, String descriptor, boolean isWrite);
+
+	void visitEnd();
+    }
+
+    private static final int Utf8Tag = 1;
+    private static final int LongTag = 5;
+    private static final int DoubleTag = 6;
+    private static final int ClassTag = 7;
+
+    private byte[] m_bytes;
+    private ClassNameUpdater m_classNameUpdater;
+    private int[] m_offsets;
+    private String[] m_strings;
+    private String[] m_classNames;
+    private String[] m_descriptors;
+    private int m_pos;
+
+    public ClassFileScanner(byte[] bytes, ClassNameUpdater classNameUpdater) {
+	m_bytes = bytes;
+	m_classNameUpdater = classNameUpdater;
+    }
+
+    public static boolean isSynthetic(int access) {
+	return (access & AccSynthetic) != 0;
+    }
+
+    public void scan(Visitor visitor) {
+	if (readInt(0) != 0xcafebabe) {
+	    throw new IllegalArgumentException("Not a class file!");
+	}
+	m_pos = 8;
+	readConstantPool();
+
+	int access = readU2();
+	String className = getClassName(readU2());
+	int superclassIndex = readU2();
+	String superclassName = superclassIndex != 0 ? getClassName(superclassIndex) : null;
+	String[] interfaceNames = new String[readU2()];
+	for (int i = 0; i < interfaceNames.length; i++) {
+	    interfaceNames[i] = getClassName(readU2());
+	}
+	visitor.visitClass(access, className, superclassName, interfaceNames);
+
+	int numFields = readU2();
+	for (int i = 0; i < numFields; i++) {
+	    int fieldAccess = readU2();
+	    String name = getString(readU2());
+	    String descriptor = getDescriptor(readU2());
+	    visitor.visitField(fieldAccess, name, descriptor);
+	    skipAttributes();
+	}
+
+	int numMethods = readU2();
+	for (int i = 0; i < numMethods; i++) {
+	    int methodAccess = readU2();
+	    String name = getString(readU2());
+	    String descriptor = getDescriptor(readU2());
+	    visitor.visitBehavior(methodAccess, name, descriptor);
+	    int numAttributes = readU2();
+	    for (int j = 0; j < numAttributes; j++) {
+		String attributeName = getString(readU2());
+		int length = readInt(m_pos);
+		m_pos += 4;
+		if (attributeName.equals("Code")) {
+		    // skip max_stack and max_locals
+		    int codeLength = readInt(m_pos + 4);
+		    scanCode(visitor, m_pos + 8, codeLength);
+		}
+		m_pos += length;
+	    }
+	}
+
+	visitor.visitEnd();
+    }
+
+    private void readConstantPool() {
+	int numEntries = readU2();
+	m_offsets = new int[numEntries];
+	m_strings = new String[numEntries];
+	m_classNames = new String[numEntries];
+	m_descriptors = new String[numEntries];
+	for (int i = 1; i < numEntries; i++) {
+	    int tag = m_bytes[m_pos] & 0xff;
+	    m_offsets[i] = m_pos + 1;
+	    switch (tag) {
+	    case Utf8Tag:
+		m_pos += 3 + readU2(m_pos + 1);
+		break;
+	    case 3: // integer
+	    case 4: // float
+	    case 9: // field ref
+	    case 10: // method ref
+	    case 11: // interface method ref
+	    case 12: // name and type
+	    case 17: // dynamic
+	    case 18: // invoke dynamic
+		m_pos += 5;
+		break;
+	    case LongTag:
+	    case DoubleTag:
+		// these take two slots
+		m_pos += 9;
+		i++;
+		break;
+	    case ClassTag:
+	    case 8: // string
+	    case 16: // method type
+	    case 19: // module
+	    case 20: // package
+		m_pos += 3;
+		break;
+	    case 15: // method handle
+		m_pos += 4;
+		break;
+	    default:
+		throw new IllegalArgumentException("Unknown constant pool tag: " + tag);
+	    }
+	}
+    }
+
+    private void scanCode(Visitor visitor, int start, int length) {
+	// the innermost pending new instruction, the way javassist matches new expressions to constructor calls
+	String[] newClassNames = new String[8];
+	int numNews = 0;
+
+	int pos = start;
+	int stop = start + length;
+	while (pos < stop) {
+	    int opcode = m_bytes[pos] & 0xff;
+	    switch (opcode) {
+	    case 0xb2: // getstatic
+	    case 0xb3: // putstatic
+	    case 0xb4: // getfield
+	    case 0xb5: // putfield
+	    {
+		int ref = readU2(pos + 1);
+		visitor.visitFieldAccess(getRefClassName(ref), getRefName(ref), getRefDescriptor(ref), opcode == 0xb3
+			|| opcode == 0xb5);
+		break;
+	    }
+	    case 0xb6: // invokevirtual
+	    case 0xb8: // invokestatic
+	    case 0xb9: // invokeinterface
+	    {
+		int ref = readU2(pos + 1);
+		visitor.visitMethodCall(getRefClassName(ref), getRefName(ref), getRefDescriptor(ref));
+		break;
+	    }
+	    case 0xb7: // invokespecial
+	    {
+		int ref = readU2(pos + 1);
+		String name = getRefName(ref);
+		String className = getRefClassName(ref);
+		if (name.equals("<init>")) {
+		    if (numNews > 0 && newClassNames[numNews - 1].equals(className)) {
+			visitor.visitNew(className, getRefDescriptor(ref));
+			numNews--;
+		    } else {
+			visitor.visitConstructorCall(className, getRefDescriptor(ref));
+		    }
+		} else {
+		    visitor.visitMethodCall(className, name, getRefDescriptor(ref));
+		}
+		break;
+	    }
+	    case 0xbb: // new
+		if (numNews == newClassNames.length) {
+		    String[] grown = new String[numNews * 2];
+		    System.arraycopy(newClassNames, 0, grown, 0, numNews);
+		    newClassNames = grown;
+		}
+		newClassNames[numNews++] = getClassName(readU2(pos + 1));
+		break;
+	    }
+	    pos += getInstructionLength(pos, start);
+	}
+    }
+
+    private int getInstructionLength(int pos, int codeStart) {
+	int opcode = m_bytes[pos] & 0xff;
+	switch (opcode) {
+	case 0x10: // bipush
+	case 0x12: // ldc
+	case 0xa9: // ret
+	case 0xbc: // newarray
+	    return 2;
+	case 0x11: // sipush
+	case 0x13: // ldc_w
+	case 0x14: // ldc2_w
+	case 0x84: // iinc
+	case 0xb2: // getstatic
+	case 0xb3: // putstatic
+	case 0xb4: // getfield
+	case 0xb5: // putfield
+	case 0xb6: // invokevirtual
+	case 0xb7: // invokespecial
+	case 0xb8: // invokestatic
+	case 0xbb: // new
+	case 0xbd: // anewarray
+	case 0xc0: // checkcast
+	case 0xc1: // instanceof
+	case 0xc6: // ifnull
+	case 0xc7: // ifnonnull
+	    return 3;
+	case 0xc5: // multianewarray
+	    return 4;
+	case 0xb9: // invokeinterface
+	case 0xba: // invokedynamic
+	case 0xc8: // goto_w
+	case 0xc9: // jsr_w
+	    return 5;
+	case 0xc4: // wide
+	    return (m_bytes[pos + 1] & 0xff) == 0x84 ? 6 : 4;
+	case 0xaa: // tableswitch
+	{
+	    int base = pos + 1 + getSwitchPadding(pos, codeStart);
+	    int low = readInt(base + 4);
+	    int high = readInt(base + 8);
+	    return base - pos + 12 + (high - low + 1) * 4;
+	}
+	case 0xab: // lookupswitch
+	{
+	    int base = pos + 1 + getSwitchPadding(pos, codeStart);
+	    int numPairs = readInt(base + 4);
+	    return base - pos + 8 + numPairs * 8;
+	}
+	default:
+	    if (opcode >= 0x15 && opcode <= 0x19 || opcode >= 0x36 && opcode <= 0x3a) {
+		// loads and stores with a local index
+		return 2;
+	    } else if (opcode >= 0x99 && opcode <= 0xa8) {
+		// branches
+		return 3;
+	    }
+	    return 1;
+	}
+    }
+
+    private int getSwitchPadding(int pos, int codeStart) {
+	// switch operands are aligned to 4 bytes from the start of the code
+	return (4 - (pos - codeStart + 1) % 4) % 4;
+    }
+
+    private void skipAttributes() {
+	int numAttributes = readU2();
+	for (int i = 0; i < numAttributes; i++) {
+	    m_pos += 2;
+	    m_pos += 4 + readInt(m_pos);
+	}
+    }
+
+    private String getRefClassName(int refIndex) {
+	return getClassName(readU2(m_offsets[refIndex]));
+    }
+
+    private String getRefName(int refIndex) {
+	int nameAndTypeIndex = readU2(m_offsets[refIndex] + 2);
+	return getString(readU2(m_offsets[nameAndTypeIndex]));
+    }
+
+    private String getRefDescriptor(int refIndex) {
+	int nameAndTypeIndex = readU2(m_offsets[refIndex] + 2);
+	return getDescriptor(readU2(m_offsets[nameAndTypeIndex] + 2));
+    }
+
+    private String getClassName(int classIndex) {
+	String className = m_classNames[classIndex];
+	if (className == null) {
+	    className = getString(readU2(m_offsets[classIndex]));
+	    if (className.startsWith("[")) {
+		// array classes are named by their descriptors
+		className = getDescriptor(readU2(m_offsets[classIndex]));
+	    } else {
+		className = m_classNameUpdater.update(className);
+	    }
+	    m_classNames[classIndex] = className;
+	}
+	return className;
+    }
+
+    private String getDescriptor(int utf8Index) {
+	String descriptor = m_descriptors[utf8Index];
+	if (descriptor == null) {
+	    descriptor = updateDescriptor(getString(utf8Index));
+	    m_descriptors[utf8Index] = descriptor;
+	}
+	return descriptor;
+    }
+
+    private String updateDescriptor(String descriptor) {
+	StringBuilder buf = null;
+	int copied = 0;
+	int pos = descriptor.indexOf('L');
+	while (pos >= 0) {
+	    int end = descriptor.indexOf(';', pos);
+	    String className = descriptor.substring(pos + 1, end);
+	    String newClassName = m_classNameUpdater.update(className);
+	    if (!newClassName.equals(className)) {
+		if (buf == null) {
+		    buf = new StringBuilder(descriptor.length() + 16);
+		}
+		buf.append(descriptor, copied, pos + 1);
+		buf.append(newClassName);
+		copied = end;
+	    }
+	    pos = descriptor.indexOf('L', end);
+	}
+	if (buf == null) {
+	    // nothing changed, so don't copy anything
+	    return descriptor;
+	}
+	buf.append(descriptor, copied, descriptor.length());
+	return buf.toString();
+    }
+
+    private String getString(int utf8Index) {
+	String string = m_strings[utf8Index];
+	if (string == null) {
+	    string = decodeUtf8(m_offsets[utf8Index] + 2, readU2(m_offsets[utf8Index]));
+	    m_strings[utf8Index] = string;
+	}
+	return string;
+    }
+
+    private String decodeUtf8(int start, int length) {
+	// class files use modified utf-8, which String(byte[], UTF_8) doesn't read correctly
+	char[] chars = new char[length];
+	int numChars = 0;
+	int pos = start;
+	int stop = start + length;
+	while (pos < stop) {
+	    int b = m_bytes[pos++] & 0xff;
+	    if (b < 0x80) {
+		chars[numChars++] = (char) b;
+	    } else if ((b & 0xe0) == 0xc0) {
+		chars[numChars++] = (char) ((b & 0x1f) << 6 | m_bytes[pos++] & 0x3f);
+	    } else {
+		chars[numChars++] = (char) ((b & 0x0f) << 12 | (m_bytes[pos++] & 0x3f) << 6 | m_bytes[pos++] & 0x3f);
+	    }
+	}
+	return new String(chars, 0, numChars);
+    }
+
+    private int readU2() {
+	int value = readU2(m_pos);
+	m_pos += 2;
+	return value;
+    }
+
+    private int readU2(int pos) {
+	return (m_bytes[pos] & 0xff) << 8 | m_bytes[pos + 1] & 0xff;
+    }
+
+    private int readInt(int pos) {
+	return (m_bytes[pos] & 0xff) << 24 | (m_bytes[pos + 1] & 0xff) << 16 | (m_bytes[pos + 2] & 0xff) << 8
+		| m_bytes[pos + 3] & 0xff;
+    }
+}
@@ -10,6 +10,7 @@
  ******************************************************************************/
 package cuchaz.enigma.analysis;
 
+import java.io.Serializable;
 import java.util.Arrays;
 import java.util.List;
 
@@ -18,7 +19,8 @@ import cuchaz.enigma.mapping.ClassEntry;
 import cuchaz.enigma.mapping.ConstructorEntry;
 import cuchaz.enigma.mapping.Entry;
 
-public class EntryReference<E extends Entry, C extends Entry> {
+public class EntryReference<E extends Entry, C extends Entry> implements Serializable {
+    private static final long serialVersionUID = 6402458812034591215L;
     private static final List<String> ConstructorNonNames = Arrays.asList("this", "super", "static");
     public E entry;
     public C context;
@@ -0,0 +1,56 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+public class IndexTask<T> extends RecursiveAction {
+    private static final long serialVersionUID = -3472938613740186452L;
+
+    // don't bother splitting the work any further than this
+    private static final int Threshold = 16;
+
+    public interface Visitor<T> {
+	void visit(int index, T item);
+    }
+
+    private List<T> m_items;
+    private Visitor<T> m_visitor;
+    private int m_start;
+    private int m_stop;
+
+    private IndexTask(List<T> items, Visitor<T> visitor, int start, int stop) {
+	m_items = items;
+	m_visitor = visitor;
+	m_start = start;
+	m_stop = stop;
+    }
+
+    public static <T> void run(ForkJoinPool pool, List<T> items, Visitor<T> visitor) {
+	pool.invoke(new IndexTask<T>(items, visitor, 0, items.size()));
+    }
+
+    @Override
+    protected void compute() {
+	if (m_stop - m_start <= Threshold) {
+	    for (int i = m_start; i < m_stop; i++) {
+		m_visitor.visit(i, m_items.get(i));
+	    }
+	} else {
+	    // split the work in half
+	    int mid = (m_start + m_stop) >>> 1;
+	    invokeAll(new IndexTask<T>(m_items, m_visitor, m_start, mid), new IndexTask<T>(m_items, m_visitor, mid,
+		    m_stop));
+	}
+    }
+}
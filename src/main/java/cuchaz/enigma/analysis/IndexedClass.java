@@ -0,0 +1,375 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.io.Serializable;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.Constants;
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.BehaviorEntryFactory;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ConstructorEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.MethodEntry;
+import cuchaz.enigma.mapping.SignatureUpdater.ClassNameUpdater;
+
+public class IndexedClass implements Serializable {
+    // cached classes are checked against JarIndexReader.Version, so bump that too when this changes
+    private static final long serialVersionUID = -2261527387015263862L;
+
+    private long m_hash;
+    private ClassEntry m_classEntry;
+    private boolean m_isAbstract;
+    private String m_superclassName;
+    private List<String> m_interfaceNames;
+    private Map<Entry, Access> m_access;
+    private Map<FieldEntry, String> m_fieldTypes;
+    private List<MethodEntry> m_methods;
+    private Map<MethodEntry, MethodEntry> m_bridgeMethods;
+    private List<EntryReference<BehaviorEntry, BehaviorEntry>> m_behaviorReferences;
+    private List<EntryReference<FieldEntry, BehaviorEntry>> m_fieldReferences;
+    private List<ConstructorEntry> m_constructors;
+    private Map<ConstructorEntry, Set<String>> m_illegalConstructors;
+
+    private IndexedClass() {
+	m_interfaceNames = Lists.newArrayList();
+	m_access = Maps.newLinkedHashMap();
+	m_fieldTypes = Maps.newLinkedHashMap();
+	m_methods = Lists.newArrayList();
+	m_bridgeMethods = Maps.newLinkedHashMap();
+	m_behaviorReferences = Lists.newArrayList();
+	m_fieldReferences = Lists.newArrayList();
+	m_constructors = Lists.newArrayList();
+	m_illegalConstructors = Maps.newLinkedHashMap();
+    }
+
+    public IndexedClass(IndexedClass other) {
+	// the references get resolved against the whole jar, so only those need copies
+	m_hash = other.m_hash;
+	m_classEntry = other.m_classEntry;
+	m_isAbstract = other.m_isAbstract;
+	m_superclassName = other.m_superclassName;
+	m_interfaceNames = other.m_interfaceNames;
+	m_access = other.m_access;
+	m_fieldTypes = other.m_fieldTypes;
+	m_methods = other.m_methods;
+	m_bridgeMethods = other.m_bridgeMethods;
+	m_behaviorReferences = Lists.newArrayList(other.m_behaviorReferences);
+	m_fieldReferences = Lists.newArrayList(other.m_fieldReferences);
+	m_constructors = other.m_constructors;
+	m_illegalConstructors = other.m_illegalConstructors;
+    }
+
+    public static IndexedClass index(byte[] classBytes) {
+	IndexedClass indexedClass = new IndexedClass();
+	indexedClass.m_hash = getHash(classBytes);
+	new ClassFileScanner(classBytes, DefaultPackageMover).scan(indexedClass.new Indexer());
+	return indexedClass;
+    }
+
+    public static long getHash(byte[] classBytes) {
+	// this is the same crc the jar keeps for each entry, so we can compare without reading the class
+	CRC32 crc = new CRC32();
+	crc.update(classBytes);
+	return getHash(crc.getValue(), classBytes.length);
+    }
+
+    public static long getHash(long crc, long size) {
+	return (size << 32) | crc;
+    }
+
+    public long getHash() {
+	return m_hash;
+    }
+
+    public ClassEntry getClassEntry() {
+	return m_classEntry;
+    }
+
+    public String getClassName() {
+	return m_classEntry.getName();
+    }
+
+    public boolean isAbstract() {
+	return m_isAbstract;
+    }
+
+    public String getSuperclassName() {
+	return m_superclassName;
+    }
+
+    public List<String> getInterfaceNames() {
+	return m_interfaceNames;
+    }
+
+    public Map<Entry, Access> getAccess() {
+	return m_access;
+    }
+
+    public Map<FieldEntry, String> getFieldTypes() {
+	return m_fieldTypes;
+    }
+
+    public List<MethodEntry> getMethods() {
+	return m_methods;
+    }
+
+    public Map<MethodEntry, MethodEntry> getBridgeMethods() {
+	return m_bridgeMethods;
+    }
+
+    public List<EntryReference<BehaviorEntry, BehaviorEntry>> getBehaviorReferences() {
+	return m_behaviorReferences;
+    }
+
+    public List<EntryReference<FieldEntry, BehaviorEntry>> getFieldReferences() {
+	return m_fieldReferences;
+    }
+
+    public List<ConstructorEntry> getConstructors() {
+	return m_constructors;
+    }
+
+    public Map<ConstructorEntry, Set<String>> getIllegalConstructors() {
+	return m_illegalConstructors;
+    }
+
+    private static final ClassNameUpdater DefaultPackageMover = new ClassNameUpdater() {
+	@Override
+	public String update(String className) {
+	    // move classes out of the default package
+	    if (className.indexOf('/') < 0) {
+		return Constants.NonePackage + "/" + className;
+	    }
+	    return className;
+	}
+    };
+
+    private class Indexer implements ClassFileScanner.Visitor {
+	private Map<String, Integer> m_fieldAccess;
+	private Set<String> m_methodKeys;
+	private Map<MethodEntry, String[]> m_bridgeCandidates;
+
+	// the behavior we're in now
+	private BehaviorEntry m_behaviorEntry;
+	private boolean m_isSynthetic;
+	private List<String[]> m_methodCalls;
+	private List<String[]> m_illegalFieldWrites;
+	private boolean m_hasConstructorCall;
+
+	public Indexer() {
+	    m_fieldAccess = Maps.newHashMap();
+	    m_methodKeys = Sets.newHashSet();
+	    m_bridgeCandidates = Maps.newLinkedHashMap();
+	    m_methodCalls = Lists.newArrayList();
+	    m_illegalFieldWrites = Lists.newArrayList();
+	}
+
+	@Override
+	public void visitClass(int access, String className, String superclassName, String[] interfaceNames) {
+	    m_classEntry = new ClassEntry(className);
+	    m_isAbstract = (access & ClassFileScanner.AccAbstract) != 0;
+	    m_superclassName = superclassName;
+	    for (String interfaceName : interfaceNames) {
+		m_interfaceNames.add(interfaceName);
+	    }
+	}
+
+	@Override
+	public void visitField(int access, String name, String descriptor) {
+	    FieldEntry fieldEntry = new FieldEntry(m_classEntry, name);
+	    m_access.put(fieldEntry, Access.get(access));
+	    m_fieldTypes.put(fieldEntry, descriptor);
+	    m_fieldAccess.put(name + descriptor, access);
+	}
+
+	@Override
+	public void visitBehavior(int access, String name, String descriptor) {
+	    endBehavior();
+
+	    m_behaviorEntry = BehaviorEntryFactory.create(m_classEntry, name, descriptor);
+	    m_isSynthetic = ClassFileScanner.isSynthetic(access);
+	    if (m_behaviorEntry instanceof MethodEntry) {
+		m_access.put(m_behaviorEntry, Access.get(access));
+		m_methods.add((MethodEntry) m_behaviorEntry);
+		m_methodKeys.add(name + descriptor);
+	    } else if (!((ConstructorEntry) m_behaviorEntry).isStatic()) {
+		m_access.put(m_behaviorEntry, Access.get(access));
+		m_constructors.add((ConstructorEntry) m_behaviorEntry);
+	    }
+	}
+
+	@Override
+	public void visitMethodCall(String className, String name, String descriptor) {
+	    // NOTE: the references are not resolved yet, since that needs the index of the whole jar
+	    MethodEntry calledMethodEntry = new MethodEntry(new ClassEntry(toClassName(className)), name, descriptor);
+	    m_behaviorReferences.add(new EntryReference<BehaviorEntry, BehaviorEntry>(calledMethodEntry, name,
+		    m_behaviorEntry));
+	    m_methodCalls.add(new String[] { className, name, descriptor });
+	}
+
+	@Override
+	public void visitConstructorCall(String className, String descriptor) {
+	    ConstructorEntry calledConstructorEntry = new ConstructorEntry(new ClassEntry(className), descriptor);
+	    String sourceName = className.equals(m_classEntry.getName()) ? "this" : "super";
+	    m_behaviorReferences.add(new EntryReference<BehaviorEntry, BehaviorEntry>(calledConstructorEntry,
+		    sourceName, m_behaviorEntry));
+	    m_hasConstructorCall = true;
+	}
+
+	@Override
+	public void visitNew(String className, String descriptor) {
+	    ConstructorEntry calledConstructorEntry = new ConstructorEntry(new ClassEntry(className), descriptor);
+	    m_behaviorReferences.add(new EntryReference<BehaviorEntry, BehaviorEntry>(calledConstructorEntry,
+		    className, m_behaviorEntry));
+	}
+
+	@Override
+	public void visitFieldAccess(String className, String name, String descriptor, boolean isWrite) {
+	    FieldEntry calledFieldEntry = new FieldEntry(new ClassEntry(className), name);
+	    m_fieldReferences.add(new EntryReference<FieldEntry, BehaviorEntry>(calledFieldEntry, name,
+		    m_behaviorEntry));
+	    if (isWrite && !m_hasConstructorCall) {
+		m_illegalFieldWrites.add(new String[] { className, name, descriptor });
+	    }
+	}
+
+	@Override
+	public void visitEnd() {
+	    endBehavior();
+
+	    // bridged methods are keyed by this class, so only calls to methods declared here count, and we know all
+	    // of those now. A bridge that calls an inherited method (javac calls the superclass directly) has no method
+	    // in this class to stand in for, so it's left alone
+	    for (Map.Entry<MethodEntry, String[]> entry : m_bridgeCandidates.entrySet()) {
+		String[] call = entry.getValue();
+		if (call[0].equals(m_classEntry.getName()) && m_methodKeys.contains(call[1] + call[2])) {
+		    m_bridgeMethods.put(new MethodEntry(m_classEntry, call[1], call[2]), entry.getKey());
+		}
+	    }
+	}
+
+	private void endBehavior() {
+	    if (m_behaviorEntry instanceof MethodEntry) {
+		// bridge methods are synthetic and just call one other method
+		if (m_isSynthetic && m_methodCalls.size() == 1) {
+		    m_bridgeCandidates.put((MethodEntry) m_behaviorEntry, m_methodCalls.get(0));
+		}
+	    } else if (m_behaviorEntry instanceof ConstructorEntry && !((ConstructorEntry) m_behaviorEntry).isStatic()) {
+		// collect the evidence needed to find inner and anonymous classes later
+		Set<String> syntheticFieldTypes = Sets.newHashSet();
+		if (isIllegalConstructor(syntheticFieldTypes)) {
+		    m_illegalConstructors.put((ConstructorEntry) m_behaviorEntry, syntheticFieldTypes);
+		}
+	    }
+
+	    m_behaviorEntry = null;
+	    m_methodCalls.clear();
+	    m_illegalFieldWrites.clear();
+	    m_hasConstructorCall = false;
+	}
+
+	private boolean isIllegalConstructor(Set<String> syntheticFieldTypes) {
+	    // illegal constructors only set synthetic member fields, then call
+	    // super()
+
+	    // are there any illegal field writes?
+	    if (m_illegalFieldWrites.isEmpty()) {
+		return false;
+	    }
+
+	    // are all the writes to synthetic fields?
+	    String className = m_classEntry.getName();
+	    for (String[] fieldWrite : m_illegalFieldWrites) {
+		// all illegal writes have to be to the local class
+		if (!fieldWrite[0].equals(className)) {
+		    System.err.println(String.format("WARNING: illegal write to non-member field %s.%s",
+			    fieldWrite[0], fieldWrite[1]));
+		    return false;
+		}
+
+		// find the field
+		Integer fieldAccess = m_fieldAccess.get(fieldWrite[1] + fieldWrite[2]);
+		if (fieldAccess == null) {
+		    // field is in a superclass or something, can't be a local
+		    // synthetic member
+		    return false;
+		}
+
+		// is this field synthetic?
+		if (ClassFileScanner.isSynthetic(fieldAccess)) {
+		    syntheticFieldTypes.add(fieldWrite[2]);
+		} else {
+		    System.err.println(String.format("WARNING: illegal write to non synthetic field %s %s.%s",
+			    fieldWrite[2], className, fieldWrite[1]));
+		    return false;
+		}
+	    }
+
+	    // we passed all the tests!
+	    return true;
+	}
+
+	private String toClassName(String className) {
+	    // calls on arrays are named like javassist names them, eg int[]
+	    if (!className.startsWith("[")) {
+		return className;
+	    }
+	    int dimensions = className.lastIndexOf('[') + 1;
+	    String elementType = className.substring(dimensions);
+	    StringBuilder buf = new StringBuilder();
+	    switch (elementType.charAt(0)) {
+	    case 'L':
+		buf.append(elementType, 1, elementType.length() - 1);
+		break;
+	    case 'Z':
+		buf.append("boolean");
+		break;
+	    case 'B':
+		buf.append("byte");
+		break;
+	    case 'C':
+		buf.append("char");
+		break;
+	    case 'S':
+		buf.append("short");
+		break;
+	    case 'I':
+		buf.append("int");
+		break;
+	    case 'J':
+		buf.append("long");
+		break;
+	    case 'F':
+		buf.append("float");
+		break;
+	    case 'D':
+		buf.append("double");
+		break;
+	    default:
+		throw new IllegalArgumentException("Bad array class: " + className);
+	    }
+	    for (int i = 0; i < dimensions; i++) {
+		buf.append("[]");
+	    }
+	    return buf.toString();
+	}
+    }
+}
@@ -0,0 +1,221 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ConstructorEntry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.SignatureUpdater;
+
+public class InnerClassFinder {
+    // this only needs what we read from each class, so it can run before the index is built
+    private Set<ClassEntry> m_obfClassEntries;
+    private Map<String, IndexedClass> m_classes;
+    private TranslationIndex m_translationIndex;
+    private Multimap<ConstructorEntry, BehaviorEntry> m_constructorCallers;
+
+    public InnerClassFinder(Set<ClassEntry> obfClassEntries, Collection<IndexedClass> classes) {
+	m_obfClassEntries = obfClassEntries;
+	m_classes = Maps.newHashMap();
+	m_translationIndex = new TranslationIndex();
+	m_constructorCallers = HashMultimap.create();
+
+	// only the constructors of classes that could be inner classes are interesting
+	Set<ConstructorEntry> constructorEntries = Sets.newHashSet();
+	for (IndexedClass c : classes) {
+	    m_classes.put(c.getClassName(), c);
+	    m_translationIndex.addSuperclass(c.getClassName(), c.getSuperclassName());
+	    if (!c.getIllegalConstructors().isEmpty()) {
+		constructorEntries.addAll(c.getIllegalConstructors().keySet());
+		constructorEntries.addAll(c.getConstructors());
+	    }
+	}
+
+	// constructors are never resolved, so the references are good as they are
+	for (IndexedClass c : classes) {
+	    for (EntryReference<BehaviorEntry, BehaviorEntry> reference : c.getBehaviorReferences()) {
+		if (reference.entry instanceof ConstructorEntry && constructorEntries.contains(reference.entry)) {
+		    m_constructorCallers.put((ConstructorEntry) reference.entry, reference.context);
+		}
+	    }
+	}
+    }
+
+    public String findOuterClass(IndexedClass c) {
+	// inner classes:
+	// have constructors that can (illegally) set synthetic fields
+	// the outer class is the only class that calls constructors
+
+	// use the synthetic fields to find the synthetic constructors
+	for (Map.Entry<ConstructorEntry, Set<String>> illegalConstructor : c.getIllegalConstructors().entrySet()) {
+	    ClassEntry classEntry = c.getClassEntry();
+	    ConstructorEntry constructorEntry = illegalConstructor.getKey();
+	    Set<String> syntheticFieldTypes = illegalConstructor.getValue();
+
+	    // gather the classes from the illegally-set synthetic fields
+	    Set<ClassEntry> illegallySetClasses = Sets.newHashSet();
+	    for (String type : syntheticFieldTypes) {
+		if (type.startsWith("L")) {
+		    ClassEntry outerClassEntry = new ClassEntry(type.substring(1, type.length() - 1));
+		    if (isSaneOuterClass(outerClassEntry, classEntry)) {
+			illegallySetClasses.add(outerClassEntry);
+		    }
+		}
+	    }
+
+	    // who calls this constructor?
+	    Set<ClassEntry> callerClasses = Sets.newHashSet();
+	    for (BehaviorEntry caller : m_constructorCallers.get(constructorEntry)) {
+		// make sure it's not a call to super
+		if (caller instanceof ConstructorEntry) {
+		    // is the entry a superclass of the context?
+		    String calledClassName = constructorEntry.getClassName();
+		    String callerSuperclassName = m_translationIndex.getSuperclassName(caller.getClassName());
+		    if (callerSuperclassName != null && callerSuperclassName.equals(calledClassName)) {
+			// it's a super call, skip
+			continue;
+		    }
+		}
+
+		if (isSaneOuterClass(caller.getClassEntry(), classEntry)) {
+		    callerClasses.add(caller.getClassEntry());
+		}
+	    }
+
+	    // do we have an answer yet?
+	    if (callerClasses.isEmpty()) {
+		if (illegallySetClasses.size() == 1) {
+		    return illegallySetClasses.iterator().next().getName();
+		} else {
+		    System.out
+			    .println(String
+				    .format("WARNING: Unable to find outer class for %s. No caller and no illegally set field classes.",
+					    classEntry));
+		}
+	    } else {
+		if (callerClasses.size() == 1) {
+		    return callerClasses.iterator().next().getName();
+		} else {
+		    // multiple callers, do the illegally set classes narrow it
+		    // down?
+		    Set<ClassEntry> intersection = Sets.newHashSet(callerClasses);
+		    intersection.retainAll(illegallySetClasses);
+		    if (intersection.size() == 1) {
+			return intersection.iterator().next().getName();
+		    } else {
+			System.out.println(String.format(
+				"WARNING: Unable to choose outer class for %s among options: %s", classEntry,
+				callerClasses));
+		    }
+		}
+	    }
+	}
+
+	return null;
+    }
+
+    private boolean isSaneOuterClass(ClassEntry outerClassEntry, ClassEntry innerClassEntry) {
+	// clearly this would be silly
+	if (outerClassEntry.equals(innerClassEntry)) {
+	    return false;
+	}
+
+	// is the outer class in the jar?
+	if (!m_obfClassEntries.contains(outerClassEntry)) {
+	    return false;
+	}
+
+	return true;
+    }
+
+    public BehaviorEntry findAnonymousClassCaller(IndexedClass c) {
+	ClassEntry innerClassEntry = c.getClassEntry();
+
+	// anonymous classes:
+	// can't be abstract
+	// have only one constructor
+	// it's called exactly once by the outer class
+	// the type the instance is assigned to can't be this type
+
+	// is abstract?
+	if (c.isAbstract()) {
+	    return null;
+	}
+
+	// is there exactly one constructor?
+	if (c.getConstructors().size() != 1) {
+	    return null;
+	}
+
+	// is this constructor called exactly once?
+	Collection<BehaviorEntry> callers = m_constructorCallers.get(c.getConstructors().get(0));
+	if (callers.size() != 1) {
+	    return null;
+	}
+
+	// does the caller use this type?
+	BehaviorEntry caller = callers.iterator().next();
+	IndexedClass callerClass = m_classes.get(caller.getClassName());
+	for (EntryReference<FieldEntry, BehaviorEntry> reference : callerClass.getFieldReferences()) {
+	    if (reference.context.equals(caller)) {
+		ClassEntry fieldClass = getFieldClass(reference.entry);
+		if (fieldClass != null && fieldClass.equals(innerClassEntry)) {
+		    // caller references this type, so it can't be anonymous
+		    return null;
+		}
+	    }
+	}
+	for (EntryReference<BehaviorEntry, BehaviorEntry> reference : callerClass.getBehaviorReferences()) {
+	    if (reference.context.equals(caller)) {
+		// get the class types from the signature
+		for (String className : SignatureUpdater.getClasses(reference.entry.getSignature())) {
+		    if (className.equals(innerClassEntry.getName())) {
+			// caller references this type, so it can't be anonymous
+			return null;
+		    }
+		}
+	    }
+	}
+
+	return caller;
+    }
+
+    private ClassEntry getFieldClass(FieldEntry fieldEntry) {
+	// find the class that actually declares the field
+	while (true) {
+	    IndexedClass c = m_classes.get(fieldEntry.getClassName());
+	    String fieldType = c != null ? c.getFieldTypes().get(fieldEntry) : null;
+	    if (fieldType != null) {
+		// is the field a class type?
+		if (fieldType.startsWith("L")) {
+		    return new ClassEntry(fieldType.substring(1, fieldType.length() - 1));
+		}
+		return null;
+	    }
+
+	    String superclassName = m_translationIndex.getSuperclassName(fieldEntry.getClassName());
+	    if (superclassName == null) {
+		return null;
+	    }
+	    fieldEntry = new FieldEntry(new ClassEntry(superclassName), fieldEntry.getName());
+	}
+    }
+}
@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.util.Arrays;
+
+public class IntMultimap {
+    // compressed sparse rows: the values for row r are m_values[m_offsets[r]] to m_values[m_offsets[r + 1] - 1]
+    // when most keys have no values, only the rows for m_keys are kept and the row for m_keys[r] is r
+    protected int m_numKeys;
+    protected int[] m_keys;
+    protected int[] m_offsets;
+    protected int[] m_values;
+
+    public IntMultimap() {
+	this(new int[] { 0 }, new int[0]);
+    }
+
+    public IntMultimap(int[] offsets, int[] values) {
+	this(offsets.length - 1, null, offsets, values);
+    }
+
+    public IntMultimap(int numKeys, int[] keys, int[] offsets, int[] values) {
+	m_numKeys = numKeys;
+	m_keys = keys;
+	m_offsets = offsets;
+	m_values = values;
+    }
+
+    public int numKeys() {
+	return m_numKeys;
+    }
+
+    public int size() {
+	return m_values.length;
+    }
+
+    public int count(int key) {
+	int row = getRow(key);
+	if (row < 0) {
+	    return 0;
+	}
+	return m_offsets[row + 1] - m_offsets[row];
+    }
+
+    public boolean containsKey(int key) {
+	return count(key) > 0;
+    }
+
+    public int get(int key, int i) {
+	return m_values[m_offsets[getRow(key)] + i];
+    }
+
+    public boolean containsEntry(int key, int value) {
+	int row = getRow(key);
+	if (row < 0) {
+	    return false;
+	}
+	// rows are sorted
+	return Arrays.binarySearch(m_values, m_offsets[row], m_offsets[row + 1], value) >= 0;
+    }
+
+    private int getRow(int key) {
+	if (key < 0 || key >= m_numKeys) {
+	    return -1;
+	}
+	if (m_keys == null) {
+	    return key;
+	}
+	int row = Arrays.binarySearch(m_keys, key);
+	return row >= 0 ? row : -1;
+    }
+
+    public IntMultimap remap(int[] remap, int numKeys, int valueShift) {
+	// values can carry flags in their low bits, only the rest of the value is an id
+	int flagMask = (1 << valueShift) - 1;
+	Builder builder = new Builder();
+	for (int row = 0; row < m_offsets.length - 1; row++) {
+	    int key = m_keys == null ? row : m_keys[row];
+	    for (int i = m_offsets[row]; i < m_offsets[row + 1]; i++) {
+		int value = m_values[i];
+		builder.put(remap[key], (remap[value >>> valueShift] << valueShift) | (value & flagMask));
+	    }
+	}
+	return builder.build(numKeys);
+    }
+
+    public static class Builder {
+	private int[] m_keys;
+	private int[] m_values;
+	private int m_size;
+
+	public Builder() {
+	    m_keys = new int[16];
+	    m_values = new int[16];
+	    m_size = 0;
+	}
+
+	public void put(int key, int value) {
+	    if (m_size == m_keys.length) {
+		m_keys = Arrays.copyOf(m_keys, m_size * 2);
+		m_values = Arrays.copyOf(m_values, m_size * 2);
+	    }
+	    m_keys[m_size] = key;
+	    m_values[m_size] = value;
+	    m_size++;
+	}
+
+	public IntMultimap build(int numKeys) {
+	    return build(m_keys, m_values, m_size, numKeys);
+	}
+
+	public IntMultimap buildInverse(int numKeys) {
+	    return build(m_values, m_keys, m_size, numKeys);
+	}
+
+	private static IntMultimap build(int[] keys, int[] vals, int n, int numKeys) {
+	    // counting sort by key
+	    int[] offsets = new int[numKeys + 1];
+	    for (int i = 0; i < n; i++) {
+		offsets[keys[i] + 1]++;
+	    }
+	    for (int key = 0; key < numKeys; key++) {
+		offsets[key + 1] += offsets[key];
+	    }
+	    int[] next = Arrays.copyOf(offsets, numKeys);
+	    int[] values = new int[n];
+	    for (int i = 0; i < n; i++) {
+		values[next[keys[i]]++] = vals[i];
+	    }
+
+	    // sort each row and drop duplicates, the rows are sets
+	    int size = 0;
+	    for (int key = 0; key < numKeys; key++) {
+		int start = offsets[key];
+		int stop = offsets[key + 1];
+		Arrays.sort(values, start, stop);
+		offsets[key] = size;
+		for (int i = start; i < stop; i++) {
+		    if (i == start || values[i] != values[i - 1]) {
+			values[size++] = values[i];
+		    }
+		}
+	    }
+	    offsets[numKeys] = size;
+	    if (size != values.length) {
+		values = Arrays.copyOf(values, size);
+	    }
+
+	    // a row costs a key and an offset when sparse, but only an offset when dense
+	    int numRows = 0;
+	    for (int key = 0; key < numKeys; key++) {
+		if (offsets[key + 1] > offsets[key]) {
+		    numRows++;
+		}
+	    }
+	    if (numRows * 2 >= numKeys) {
+		return new IntMultimap(offsets, values);
+	    }
+	    int[] sparseKeys = new int[numRows];
+	    int[] sparseOffsets = new int[numRows + 1];
+	    int row = 0;
+	    for (int key = 0; key < numKeys; key++) {
+		if (offsets[key + 1] > offsets[key]) {
+		    sparseKeys[row] = key;
+		    sparseOffsets[row] = offsets[key];
+		    row++;
+		}
+	    }
+	    sparseOffsets[numRows] = size;
+	    return new IntMultimap(numKeys, sparseKeys, sparseOffsets, values);
+	}
+    }
+}
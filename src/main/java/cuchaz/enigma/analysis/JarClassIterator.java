@@ -10,9 +10,7 @@
  ******************************************************************************/
 package cuchaz.enigma.analysis;
 
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.List;
@@ -27,7 +25,6 @@ import javassist.bytecode.Descriptor;
 
 import com.google.common.collect.Lists;
 
-import cuchaz.enigma.Constants;
 import cuchaz.enigma.mapping.ClassEntry;
 
 public class JarClassIterator implements Iterator<CtClass> {
@@ -102,33 +99,35 @@ public class JarClassIterator implements Iterator<CtClass> {
 	}
     }
 
-    private static CtClass getClass(JarFile jar, JarEntry entry) throws IOException, NotFoundException {
-	// read the class into a buffer
-	ByteArrayOutputStream bos = new ByteArrayOutputStream();
-	byte[] buf = new byte[Constants.KiB];
-	int totalNumBytesRead = 0;
-	InputStream in = jar.getInputStream(entry);
-	while (in.available() > 0) {
-	    int numBytesRead = in.read(buf);
-	    if (numBytesRead < 0) {
-		break;
-	    }
-	    bos.write(buf, 0, numBytesRead);
+    public static byte[] getClassBytes(JarFile jar, ClassEntry classEntry) {
+	try {
+	    return getClassBytes(jar, new JarEntry(classEntry.getName() + ".class"));
+	} catch (IOException ex) {
+	    throw new Error("Unable to load class: " + classEntry.getName(), ex);
+	}
+    }
 
-	    // sanity checking
-	    totalNumBytesRead += numBytesRead;
-	    if (totalNumBytesRead > Constants.MiB) {
-		throw new Error("Class file " + entry.getName() + " larger than 1 MiB! Something is wrong!");
-	    }
+    public static long getClassHash(JarFile jar, ClassEntry classEntry) {
+	// the jar already knows the crc and size of each class, so this doesn't need to read it
+	JarEntry entry = jar.getJarEntry(classEntry.getName() + ".class");
+	if (entry == null || entry.getCrc() < 0 || entry.getSize() < 0) {
+	    return -1;
 	}
+	return IndexedClass.getHash(entry.getCrc(), entry.getSize());
+    }
 
+    private static CtClass getClass(JarFile jar, JarEntry entry) throws IOException, NotFoundException {
 	// get a javassist handle for the class
 	String className = Descriptor.toJavaName(getClassEntry(entry).getName());
 	ClassPool classPool = new ClassPool();
-	classPool.insertClassPath(new ByteArrayClassPath(className, bos.toByteArray()));
+	classPool.insertClassPath(new ByteArrayClassPath(className, getClassBytes(jar, entry)));
 	return classPool.get(className);
     }
 
+    private static byte[] getClassBytes(JarFile jar, JarEntry entry) throws IOException {
+	return ClassFileReader.read(jar, entry);
+    }
+
     private static ClassEntry getClassEntry(JarEntry entry) {
 	return new ClassEntry(entry.getName().substring(0, entry.getName().length() - ".class".length()));
     }
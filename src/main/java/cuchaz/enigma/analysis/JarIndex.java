@@ -10,548 +10,653 @@
  ******************************************************************************/
 package cuchaz.enigma.analysis;
 
-import java.lang.reflect.Modifier;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarFile;
 
-import javassist.CannotCompileException;
-import javassist.CtBehavior;
-import javassist.CtClass;
-import javassist.CtConstructor;
-import javassist.CtField;
-import javassist.CtMethod;
-import javassist.NotFoundException;
-import javassist.bytecode.AccessFlag;
 import javassist.bytecode.Descriptor;
-import javassist.bytecode.FieldInfo;
-import javassist.expr.ConstructorCall;
-import javassist.expr.ExprEditor;
-import javassist.expr.FieldAccess;
-import javassist.expr.MethodCall;
-import javassist.expr.NewExpr;
 
+import com.google.common.base.Optional;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
 import cuchaz.enigma.Constants;
-import cuchaz.enigma.bytecode.ClassRenamer;
 import cuchaz.enigma.mapping.ArgumentEntry;
 import cuchaz.enigma.mapping.BehaviorEntry;
-import cuchaz.enigma.mapping.BehaviorEntryFactory;
 import cuchaz.enigma.mapping.ClassEntry;
-import cuchaz.enigma.mapping.ConstructorEntry;
 import cuchaz.enigma.mapping.Entry;
 import cuchaz.enigma.mapping.FieldEntry;
 import cuchaz.enigma.mapping.MethodEntry;
-import cuchaz.enigma.mapping.SignatureUpdater;
 import cuchaz.enigma.mapping.Translator;
 
 public class JarIndex {
-    private Set<ClassEntry> m_obfClassEntries;
-    private TranslationIndex m_translationIndex;
-    private Multimap<String, String> m_interfaces;
-    private Map<Entry, Access> m_access;
-    private Map<FieldEntry, ClassEntry> m_fieldClasses;
-    private Multimap<String, MethodEntry> m_methodImplementations;
-    private Multimap<BehaviorEntry, EntryReference<BehaviorEntry, BehaviorEntry>> m_behaviorReferences;
-    private Multimap<FieldEntry, EntryReference<FieldEntry, BehaviorEntry>> m_fieldReferences;
-    private Multimap<String, String> m_innerClasses;
-    private Map<String, String> m_outerClasses;
-    private Map<String, BehaviorEntry> m_anonymousClasses;
-    private Map<MethodEntry, MethodEntry> m_bridgeMethods;
+    private static final Access[] AccessValues = Access.values();
+
+    // enough for the members on screen and their ancestors, without holding an entry for every reference in the jar
+    private static final int ResolvedClassCacheSize = 2048;
+
+    // what m_resolvedClassIds holds for members that don't resolve, or that indexing never asked about
+    static final int LibraryClassId = -1;
+    static final int UnknownClassId = -2;
+
+    // most of the index is stored as int ids from the symbol table, in compressed rows keyed by symbol id
+    protected Set<ClassEntry> m_obfClassEntries;
+    protected TranslationIndex m_translationIndex;
+    protected SymbolTable m_symbols;
+    protected IntMultimap m_interfaces;
+    protected IntMultimap m_implementingClasses;
+    protected byte[] m_access;
+    protected int[] m_fieldClasses;
+    protected IntMultimap m_methodImplementations;
+    protected IntMultimap m_behaviorReferences;
+    protected IntMultimap m_fieldReferences;
+    protected IntMultimap m_referencedFields;
+    protected IntMultimap m_referencedBehaviors;
+    protected Multimap<String, String> m_innerClasses;
+    protected Map<String, String> m_outerClasses;
+    protected Map<String, BehaviorEntry> m_anonymousClasses;
+    protected Map<MethodEntry, MethodEntry> m_bridgeMethods;
+    private Map<String, String> m_canonicalClassNames;
+    protected int[] m_methodFamilies;
+    protected IntMultimap m_methodFamilyMembers;
+    protected int[] m_resolvedClassIds;
+    private Map<String, Set<String>> m_interfacesCache;
+    private Map<String, Set<String>> m_implementingClassesCache;
+    private Map<Entry, Optional<ClassEntry>> m_resolvedClasses;
+    private AtomicLong m_resolvedClassHits;
+    private AtomicLong m_resolvedClassMisses;
+    private AtomicLong m_numReusedClasses;
+    private AtomicLong m_numReadClasses;
 
     public JarIndex() {
 	m_obfClassEntries = Sets.newHashSet();
 	m_translationIndex = new TranslationIndex();
-	m_interfaces = HashMultimap.create();
-	m_access = Maps.newHashMap();
-	m_fieldClasses = Maps.newHashMap();
-	m_methodImplementations = HashMultimap.create();
-	m_behaviorReferences = HashMultimap.create();
-	m_fieldReferences = HashMultimap.create();
+	m_symbols = new SymbolTable();
+	m_interfaces = new IntMultimap();
+	m_implementingClasses = new IntMultimap();
+	m_access = new byte[0];
+	m_fieldClasses = new int[0];
+	m_methodImplementations = new IntMultimap();
+	m_behaviorReferences = new IntMultimap();
+	m_fieldReferences = new IntMultimap();
+	m_referencedFields = new IntMultimap();
+	m_referencedBehaviors = new IntMultimap();
 	m_innerClasses = HashMultimap.create();
 	m_outerClasses = Maps.newHashMap();
 	m_anonymousClasses = Maps.newHashMap();
 	m_bridgeMethods = Maps.newHashMap();
+	m_canonicalClassNames = Maps.newHashMap();
+	m_methodFamilies = new int[0];
+	m_methodFamilyMembers = new IntMultimap();
+	m_resolvedClassIds = new int[0];
+	m_interfacesCache = Maps.newConcurrentMap();
+	m_implementingClassesCache = Maps.newConcurrentMap();
+	m_resolvedClasses = newResolvedClassCache();
+	m_resolvedClassHits = new AtomicLong();
+	m_resolvedClassMisses = new AtomicLong();
+	m_numReusedClasses = new AtomicLong();
+	m_numReadClasses = new AtomicLong();
     }
 
     public void indexJar(JarFile jar, boolean buildInnerClasses) {
+	indexJar(jar, buildInnerClasses, null);
+    }
+
+    public Map<String, IndexedClass> indexJar(JarFile jar, boolean buildInnerClasses,
+	    Map<String, IndexedClass> previousClasses) {
 	// step 1: read the class names
-	for (ClassEntry classEntry : JarClassIterator.getClassEntries(jar)) {
+	List<ClassEntry> jarClassEntries = JarClassIterator.getClassEntries(jar);
+	Set<ClassEntry> obfClassEntries = Sets.newHashSet();
+	for (ClassEntry classEntry : jarClassEntries) {
 	    if (classEntry.isInDefaultPackage()) {
 		// move out of default package
 		classEntry = new ClassEntry(Constants.NonePackage + "/" + classEntry.getName());
 	    }
-	    m_obfClassEntries.add(classEntry);
+	    obfClassEntries.add(classEntry);
 	}
 
-	// step 2: index field/method/constructor access
-	for (CtClass c : JarClassIterator.classes(jar)) {
-	    ClassRenamer.moveAllClassesOutOfDefaultPackage(c, Constants.NonePackage);
-	    ClassEntry classEntry = new ClassEntry(Descriptor.toJvmName(c.getName()));
-	    for (CtField field : c.getDeclaredFields()) {
-		FieldEntry fieldEntry = new FieldEntry(classEntry, field.getName());
-		m_access.put(fieldEntry, Access.get(field));
+	// indexing resolves every reference in the jar, so remember everything until it's done
+	m_resolvedClassIds = new int[0];
+	m_resolvedClasses = Maps.newConcurrentMap();
+
+	ForkJoinPool pool = new ForkJoinPool();
+	List<IndexedClass> classes;
+	try {
+	    // step 2: read each class once and pull everything we need out of the bytecode
+	    // if we indexed an earlier version of this jar, only the classes that changed need another look
+	    classes = readClasses(pool, jar, jarClassEntries, previousClasses);
+
+	    if (buildInnerClasses) {
+		// step 3: index inner classes and anonymous classes
+		// this only needs what we read from the classes, so we know the final class names before indexing anything
+		InnerClassFinder innerClassFinder = new InnerClassFinder(obfClassEntries, classes);
+		for (IndexedClass c : classes) {
+		    String outerClassName = innerClassFinder.findOuterClass(c);
+		    if (outerClassName != null) {
+			String innerClassName = c.getClassEntry().getSimpleName();
+			m_innerClasses.put(outerClassName, innerClassName);
+			boolean innerWasAdded = m_outerClasses.put(innerClassName, outerClassName) == null;
+			assert (innerWasAdded);
+
+			BehaviorEntry enclosingBehavior = innerClassFinder.findAnonymousClassCaller(c);
+			if (enclosingBehavior != null) {
+			    m_anonymousClasses.put(innerClassName, enclosingBehavior);
+
+			    // DEBUG
+			    // System.out.println( "ANONYMOUS: " + outerClassName +
+			    // "$" + innerClassName );
+			} else {
+			    // DEBUG
+			    // System.out.println( "INNER: " + outerClassName + "$"
+			    // + innerClassName );
+			}
+		    }
+		}
+
+		// inner classes get renamed to outer$inner everywhere else in the index
+		for (Map.Entry<String, String> entry : m_outerClasses.entrySet()) {
+		    m_canonicalClassNames.put(Constants.NonePackage + "/" + entry.getKey(),
+			    entry.getValue() + "$" + entry.getKey());
+		}
 	    }
-	    for (CtMethod method : c.getDeclaredMethods()) {
-		MethodEntry methodEntry = new MethodEntry(classEntry, method.getName(), method.getSignature());
-		m_access.put(methodEntry, Access.get(method));
+	    for (ClassEntry classEntry : obfClassEntries) {
+		m_obfClassEntries.add(canonicalize(classEntry));
 	    }
-	    for (CtConstructor constructor : c.getDeclaredConstructors()) {
-		ConstructorEntry constructorEntry = new ConstructorEntry(classEntry, constructor.getSignature());
-		m_access.put(constructorEntry, Access.get(constructor));
+
+	    // step 4: index field/method/constructor access, extends, implements, fields, and methods
+	    IntMultimap.Builder interfaces = new IntMultimap.Builder();
+	    IntMultimap.Builder methodImplementations = new IntMultimap.Builder();
+	    for (IndexedClass c : classes) {
+		indexClass(c, interfaces, methodImplementations);
 	    }
+
+	    // step 5: index field, method, constructor references
+	    IntMultimap.Builder behaviorReferences = new IntMultimap.Builder();
+	    IntMultimap.Builder fieldReferences = new IntMultimap.Builder();
+	    IntMultimap.Builder referencedBehaviors = new IntMultimap.Builder();
+	    IntMultimap.Builder referencedFields = new IntMultimap.Builder();
+	    for (IndexedClass c : resolveReferences(pool, classes)) {
+		for (EntryReference<BehaviorEntry, BehaviorEntry> reference : c.getBehaviorReferences()) {
+		    addReference(reference, behaviorReferences, referencedBehaviors);
+		}
+		for (EntryReference<FieldEntry, BehaviorEntry> reference : c.getFieldReferences()) {
+		    addReference(reference, fieldReferences, referencedFields);
+		}
+	    }
+
+	    // the symbol table is complete now, so pack everything
+	    int numSymbols = m_symbols.size();
+	    m_interfaces = interfaces.build(numSymbols);
+	    m_implementingClasses = interfaces.buildInverse(numSymbols);
+	    m_methodImplementations = methodImplementations.build(numSymbols);
+	    m_behaviorReferences = behaviorReferences.build(numSymbols);
+	    m_fieldReferences = fieldReferences.build(numSymbols);
+	    m_referencedBehaviors = referencedBehaviors.build(numSymbols);
+	    m_referencedFields = referencedFields.build(numSymbols);
+	    m_access = resize(m_access, numSymbols);
+	    m_fieldClasses = resize(m_fieldClasses, numSymbols);
+	} finally {
+	    pool.shutdown();
 	}
 
-	// step 3: index extends, implements, fields, and methods
-	for (CtClass c : JarClassIterator.classes(jar)) {
-	    ClassRenamer.moveAllClassesOutOfDefaultPackage(c, Constants.NonePackage);
-	    String className = Descriptor.toJvmName(c.getName());
-	    m_translationIndex.addSuperclass(className, Descriptor.toJvmName(c.getClassFile().getSuperclass()));
-	    for (String interfaceName : c.getClassFile().getInterfaces()) {
-		className = Descriptor.toJvmName(className);
-		interfaceName = Descriptor.toJvmName(interfaceName);
-		if (className.equals(interfaceName)) {
-		    throw new IllegalArgumentException("Class cannot be its own interface! " + className);
+	// step 6: update other indices with bridge method info
+	// references resolve against the original method names, so this can't happen any earlier
+	remapSymbols(m_symbols.renameMethods(m_bridgeMethods));
+	forgetResolvedMethods(m_bridgeMethods);
+
+	// the hierarchy changed, so forget anything we worked out from it
+	m_interfacesCache.clear();
+	m_implementingClassesCache.clear();
+
+	// step 7: group methods that have to be renamed together
+	indexMethodFamilies();
+
+	// source indexing asks about the same references again, so keep the answers, but as symbol ids instead of
+	// entries. Anything else gets a small cache for lookups from the gui
+	m_resolvedClassIds = getResolvedClassIds(m_resolvedClasses);
+	m_resolvedClasses = newResolvedClassCache();
+	compact();
+
+	// hang on to what we read from each class so the next version of the jar can reuse it
+	Map<String, IndexedClass> indexedClasses = Maps.newLinkedHashMap();
+	for (int i = 0; i < jarClassEntries.size(); i++) {
+	    indexedClasses.put(jarClassEntries.get(i).getName(), classes.get(i));
+	}
+	return indexedClasses;
+    }
+
+    private List<IndexedClass> readClasses(ForkJoinPool pool, final JarFile jar, List<ClassEntry> classEntries,
+	    final Map<String, IndexedClass> previousClasses) {
+	// decode the classes in parallel, but keep them in jar order
+	final IndexedClass[] classes = new IndexedClass[classEntries.size()];
+	IndexTask.run(pool, classEntries, new IndexTask.Visitor<ClassEntry>() {
+	    @Override
+	    public void visit(int index, ClassEntry classEntry) {
+		// the analysis only depends on the class bytes, so an unchanged class gives the same answer
+		if (previousClasses != null) {
+		    IndexedClass previousClass = previousClasses.get(classEntry.getName());
+		    if (previousClass != null
+			    && previousClass.getHash() == JarClassIterator.getClassHash(jar, classEntry)) {
+			classes[index] = previousClass;
+			m_numReusedClasses.incrementAndGet();
+			return;
+		    }
 		}
-		m_interfaces.put(className, interfaceName);
+		classes[index] = IndexedClass.index(JarClassIterator.getClassBytes(jar, classEntry));
+		m_numReadClasses.incrementAndGet();
 	    }
-	    for (CtField field : c.getDeclaredFields()) {
-		indexField(field);
+	});
+	return Arrays.asList(classes);
+    }
+
+    private void indexClass(IndexedClass c, IntMultimap.Builder interfaces, IntMultimap.Builder methodImplementations) {
+	for (Map.Entry<Entry, Access> entry : c.getAccess().entrySet()) {
+	    int id = m_symbols.intern(canonicalize(entry.getKey()));
+	    m_access = grow(m_access, id);
+	    m_access[id] = (byte) entry.getValue().ordinal();
+	}
+
+	// extends, implements
+	ClassEntry classEntry = canonicalize(c.getClassEntry());
+	String className = classEntry.getName();
+	int classId = m_symbols.intern(classEntry);
+	String superclassName = getCanonicalClassName(c.getSuperclassName());
+	m_translationIndex.addSuperclass(m_symbols.intern(className),
+		superclassName != null ? m_symbols.intern(superclassName) : null);
+	for (String interfaceName : c.getInterfaceNames()) {
+	    if (c.getClassName().equals(interfaceName)) {
+		throw new IllegalArgumentException("Class cannot be its own interface! " + className);
 	    }
-	    for (CtBehavior behavior : c.getDeclaredBehaviors()) {
-		indexBehavior(behavior);
+	    interfaces.put(classId, m_symbols.intern(new ClassEntry(getCanonicalClassName(interfaceName))));
+	}
+
+	// fields
+	for (Map.Entry<FieldEntry, String> entry : c.getFieldTypes().entrySet()) {
+	    FieldEntry fieldEntry = canonicalize(entry.getKey());
+	    String fieldType = entry.getValue();
+	    m_translationIndex.addField(m_symbols.intern(className), m_symbols.intern(fieldEntry.getName()));
+
+	    // is the field a class type?
+	    // both the field and its type use the canonical names, like the rest of the index, so fields of inner classes
+	    // are found by their outer$inner names
+	    if (fieldType.startsWith("L")) {
+		ClassEntry fieldTypeEntry = new ClassEntry(getCanonicalClassName(fieldType.substring(1,
+			fieldType.length() - 1)));
+		int fieldId = m_symbols.intern(fieldEntry);
+		m_fieldClasses = grow(m_fieldClasses, fieldId);
+		m_fieldClasses[fieldId] = m_symbols.intern(fieldTypeEntry);
 	    }
 	}
 
-	// step 4: index field, method, constructor references
-	for (CtClass c : JarClassIterator.classes(jar)) {
-	    ClassRenamer.moveAllClassesOutOfDefaultPackage(c, Constants.NonePackage);
-	    for (CtBehavior behavior : c.getDeclaredBehaviors()) {
-		indexBehaviorReferences(behavior);
-	    }
+	// methods
+	for (MethodEntry methodEntry : c.getMethods()) {
+	    methodImplementations.put(classId, m_symbols.intern(canonicalize(methodEntry)));
+	}
+	for (Map.Entry<MethodEntry, MethodEntry> entry : c.getBridgeMethods().entrySet()) {
+	    m_bridgeMethods.put(canonicalize(entry.getKey()), canonicalize(entry.getValue()));
 	}
+	// looks like we don't care about constructors here
+    }
 
-	if (buildInnerClasses) {
-	    // step 5: index inner classes and anonymous classes
-	    for (CtClass c : JarClassIterator.classes(jar)) {
-		ClassRenamer.moveAllClassesOutOfDefaultPackage(c, Constants.NonePackage);
-		String outerClassName = findOuterClass(c);
-		if (outerClassName != null) {
-		    String innerClassName = c.getSimpleName();
-		    m_innerClasses.put(outerClassName, innerClassName);
-		    boolean innerWasAdded = m_outerClasses.put(innerClassName, outerClassName) == null;
-		    assert (innerWasAdded);
-
-		    BehaviorEntry enclosingBehavior = isAnonymousClass(c, outerClassName);
-		    if (enclosingBehavior != null) {
-			m_anonymousClasses.put(innerClassName, enclosingBehavior);
-
-			// DEBUG
-			// System.out.println( "ANONYMOUS: " + outerClassName +
-			// "$" + innerClassName );
-		    } else {
-			// DEBUG
-			// System.out.println( "INNER: " + outerClassName + "$"
-			// + innerClassName );
+    private List<IndexedClass> resolveReferences(ForkJoinPool pool, List<IndexedClass> classes) {
+	// the rest of the index is read-only by now, so it's safe to resolve in parallel
+	// resolve into copies though, since how a reference resolves depends on the rest of the jar
+	final IndexedClass[] resolvedClasses = new IndexedClass[classes.size()];
+	IndexTask.run(pool, classes, new IndexTask.Visitor<IndexedClass>() {
+	    @Override
+	    public void visit(int index, IndexedClass c) {
+		c = new IndexedClass(c);
+		resolvedClasses[index] = c;
+		List<EntryReference<BehaviorEntry, BehaviorEntry>> behaviorReferences = c.getBehaviorReferences();
+		for (int i = 0; i < behaviorReferences.size(); i++) {
+		    EntryReference<BehaviorEntry, BehaviorEntry> reference = canonicalize(behaviorReferences.get(i));
+		    if (reference.entry instanceof MethodEntry) {
+			reference = resolveReference(reference);
 		    }
+		    behaviorReferences.set(i, reference);
+		}
+		List<EntryReference<FieldEntry, BehaviorEntry>> fieldReferences = c.getFieldReferences();
+		for (int i = 0; i < fieldReferences.size(); i++) {
+		    fieldReferences.set(i, resolveReference(canonicalize(fieldReferences.get(i))));
 		}
 	    }
+	});
+	return Arrays.asList(resolvedClasses);
+    }
 
-	    // step 6: update other indices with inner class info
-	    Map<String, String> renames = Maps.newHashMap();
-	    for (Map.Entry<String, String> entry : m_outerClasses.entrySet()) {
-		renames.put(Constants.NonePackage + "/" + entry.getKey(), entry.getValue() + "$" + entry.getKey());
-	    }
-	    EntryRenamer.renameClassesInSet(renames, m_obfClassEntries);
-	    m_translationIndex.renameClasses(renames);
-	    EntryRenamer.renameClassesInMultimap(renames, m_interfaces);
-	    EntryRenamer.renameClassesInMultimap(renames, m_methodImplementations);
-	    EntryRenamer.renameClassesInMultimap(renames, m_behaviorReferences);
-	    EntryRenamer.renameClassesInMultimap(renames, m_fieldReferences);
-	    EntryRenamer.renameClassesInMap(renames, m_bridgeMethods);
-	    EntryRenamer.renameClassesInMap(renames, m_access);
+    private <E extends Entry> EntryReference<E, BehaviorEntry> resolveReference(
+	    EntryReference<E, BehaviorEntry> reference) {
+	ClassEntry resolvedClassEntry = resolveEntryClass(reference.entry);
+	if (resolvedClassEntry != null && !resolvedClassEntry.equals(reference.entry.getClassEntry())) {
+	    @SuppressWarnings("unchecked")
+	    E resolvedEntry = (E) reference.entry.cloneToNewClass(resolvedClassEntry);
+	    return new EntryReference<E, BehaviorEntry>(resolvedEntry, reference.context, reference);
 	}
-
-	// step 6: update other indices with bridge method info
-	EntryRenamer.renameMethodsInMultimap(m_bridgeMethods, m_methodImplementations);
-	EntryRenamer.renameMethodsInMultimap(m_bridgeMethods, m_behaviorReferences);
-	EntryRenamer.renameMethodsInMultimap(m_bridgeMethods, m_fieldReferences);
-	EntryRenamer.renameMethodsInMap(m_bridgeMethods, m_access);
+	return reference;
     }
 
-    private void indexField(CtField field) {
-	// get the field entry
-	String className = Descriptor.toJvmName(field.getDeclaringClass().getName());
-	FieldEntry fieldEntry = new FieldEntry(new ClassEntry(className), field.getName());
-
-	m_translationIndex.addField(className, field.getName());
-
-	// is the field a class type?
-	if (field.getSignature().startsWith("L")) {
-	    ClassEntry fieldTypeEntry = new ClassEntry(field.getSignature().substring(1,
-		    field.getSignature().length() - 1));
-	    m_fieldClasses.put(fieldEntry, fieldTypeEntry);
+    private String getCanonicalClassName(String className) {
+	if (className == null) {
+	    return null;
+	}
+	String canonicalClassName = m_canonicalClassNames.get(className);
+	if (canonicalClassName != null) {
+	    return canonicalClassName;
 	}
+	return className;
     }
 
-    private void indexBehavior(CtBehavior behavior) {
-	// get the behavior entry
-	final BehaviorEntry behaviorEntry = BehaviorEntryFactory.create(behavior);
-	if (behaviorEntry instanceof MethodEntry) {
-	    MethodEntry methodEntry = (MethodEntry) behaviorEntry;
-
-	    // index implementation
-	    m_methodImplementations.put(behaviorEntry.getClassName(), methodEntry);
+    @SuppressWarnings("unchecked")
+    private <T extends Entry> T canonicalize(T entry) {
+	String canonicalClassName = m_canonicalClassNames.get(entry.getClassName());
+	if (canonicalClassName == null) {
+	    return entry;
+	}
+	return (T) entry.cloneToNewClass(new ClassEntry(canonicalClassName));
+    }
 
-	    // look for bridge methods
-	    CtMethod bridgedMethod = getBridgedMethod((CtMethod) behavior);
-	    if (bridgedMethod != null) {
-		MethodEntry bridgedMethodEntry = new MethodEntry(behaviorEntry.getClassEntry(),
-			bridgedMethod.getName(), bridgedMethod.getSignature());
-		m_bridgeMethods.put(bridgedMethodEntry, methodEntry);
-	    }
+    private <E extends Entry> EntryReference<E, BehaviorEntry> canonicalize(EntryReference<E, BehaviorEntry> reference) {
+	E entry = canonicalize(reference.entry);
+	BehaviorEntry context = canonicalize(reference.context);
+	if (entry == reference.entry && context == reference.context) {
+	    return reference;
 	}
-	// looks like we don't care about constructors here
+	return new EntryReference<E, BehaviorEntry>(entry, context, reference);
     }
 
-    private void indexBehaviorReferences(CtBehavior behavior) {
-	// index method calls
-	final BehaviorEntry behaviorEntry = BehaviorEntryFactory.create(behavior);
-	try {
-	    behavior.instrument(new ExprEditor() {
-		@Override
-		public void edit(MethodCall call) {
-		    String className = Descriptor.toJvmName(call.getClassName());
-		    MethodEntry calledMethodEntry = new MethodEntry(new ClassEntry(className), call.getMethodName(),
-			    call.getSignature());
-		    ClassEntry resolvedClassEntry = resolveEntryClass(calledMethodEntry);
-		    if (resolvedClassEntry != null && !resolvedClassEntry.equals(calledMethodEntry.getClassEntry())) {
-			calledMethodEntry = new MethodEntry(resolvedClassEntry, call.getMethodName(), call
-				.getSignature());
-		    }
-		    EntryReference<BehaviorEntry, BehaviorEntry> reference = new EntryReference<BehaviorEntry, BehaviorEntry>(
-			    calledMethodEntry, call.getMethodName(), behaviorEntry);
-		    m_behaviorReferences.put(calledMethodEntry, reference);
-		}
+    private void addReference(EntryReference<? extends Entry, BehaviorEntry> reference,
+	    IntMultimap.Builder references, IntMultimap.Builder referenced) {
+	int entryId = m_symbols.intern(reference.entry);
+	int contextId = m_symbols.intern(reference.context);
+	// the low bit of the caller id says whether the reference is named
+	references.put(entryId, (contextId << 1) | (reference.isNamed() ? 1 : 0));
+	referenced.put(contextId, entryId);
+    }
 
-		@Override
-		public void edit(FieldAccess call) {
-		    String className = Descriptor.toJvmName(call.getClassName());
-		    FieldEntry calledFieldEntry = new FieldEntry(new ClassEntry(className), call.getFieldName());
-		    ClassEntry resolvedClassEntry = resolveEntryClass(calledFieldEntry);
-		    if (resolvedClassEntry != null && !resolvedClassEntry.equals(calledFieldEntry.getClassEntry())) {
-			calledFieldEntry = new FieldEntry(resolvedClassEntry, call.getFieldName());
-		    }
-		    EntryReference<FieldEntry, BehaviorEntry> reference = new EntryReference<FieldEntry, BehaviorEntry>(
-			    calledFieldEntry, call.getFieldName(), behaviorEntry);
-		    m_fieldReferences.put(calledFieldEntry, reference);
-		}
+    protected void compact() {
+	// nothing gets added once the index is built, so trim the tables and share one copy of each name
+	Map<MethodEntry, MethodEntry> bridgeMethods = Maps.newHashMapWithExpectedSize(m_bridgeMethods.size());
+	for (Map.Entry<MethodEntry, MethodEntry> entry : m_bridgeMethods.entrySet()) {
+	    bridgeMethods.put(share(entry.getKey()), share(entry.getValue()));
+	}
+	m_bridgeMethods = bridgeMethods;
+	m_symbols.compact();
+	ImmutableSet.Builder<ClassEntry> obfClassEntries = ImmutableSet.builder();
+	for (ClassEntry obfClassEntry : m_obfClassEntries) {
+	    int id = m_symbols.getClassId(obfClassEntry.getName());
+	    obfClassEntries.add(id >= 0 ? m_symbols.getClassEntry(id) : obfClassEntry);
+	}
+	m_obfClassEntries = obfClassEntries.build();
+    }
 
-		@Override
-		public void edit(ConstructorCall call) {
-		    String className = Descriptor.toJvmName(call.getClassName());
-		    ConstructorEntry calledConstructorEntry = new ConstructorEntry(new ClassEntry(className), call
-			    .getSignature());
-		    EntryReference<BehaviorEntry, BehaviorEntry> reference = new EntryReference<BehaviorEntry, BehaviorEntry>(
-			    calledConstructorEntry, call.getMethodName(), behaviorEntry);
-		    m_behaviorReferences.put(calledConstructorEntry, reference);
-		}
+    private MethodEntry share(MethodEntry methodEntry) {
+	return new MethodEntry(new ClassEntry(m_symbols.intern(methodEntry.getClassName())),
+		m_symbols.intern(methodEntry.getName()), m_symbols.intern(methodEntry.getSignature()));
+    }
 
-		@Override
-		public void edit(NewExpr call) {
-		    String className = Descriptor.toJvmName(call.getClassName());
-		    ConstructorEntry calledConstructorEntry = new ConstructorEntry(new ClassEntry(className), call
-			    .getSignature());
-		    EntryReference<BehaviorEntry, BehaviorEntry> reference = new EntryReference<BehaviorEntry, BehaviorEntry>(
-			    calledConstructorEntry, call.getClassName(), behaviorEntry);
-		    m_behaviorReferences.put(calledConstructorEntry, reference);
-		}
-	    });
-	} catch (CannotCompileException ex) {
-	    throw new Error(ex);
+    private void remapSymbols(int[] remap) {
+	if (remap == null) {
+	    // the renames didn't merge any symbols, so the ids are still good
+	    return;
 	}
-    }
+	int numSymbols = m_symbols.size();
+	m_interfaces = m_interfaces.remap(remap, numSymbols, 0);
+	m_implementingClasses = m_implementingClasses.remap(remap, numSymbols, 0);
+	m_methodImplementations = m_methodImplementations.remap(remap, numSymbols, 0);
+	m_behaviorReferences = m_behaviorReferences.remap(remap, numSymbols, 1);
+	m_fieldReferences = m_fieldReferences.remap(remap, numSymbols, 1);
+	m_referencedBehaviors = m_referencedBehaviors.remap(remap, numSymbols, 0);
+	m_referencedFields = m_referencedFields.remap(remap, numSymbols, 0);
 
-    public ClassEntry resolveEntryClass(Entry obfEntry) {
-	// this entry could refer to a method on a class where the method is not
-	// actually implemented
-	// travel up the inheritance tree to find the closest implementation
-	while (!containsObfEntry(obfEntry)) {
-	    // is there a parent class?
-	    String superclassName = m_translationIndex.getSuperclassName(obfEntry.getClassName());
-	    if (superclassName == null) {
-		// this is probably a method from a class in a library
-		// we can't trace the implementation up any higher unless we
-		// index the library
-		return null;
+	byte[] access = resize(new byte[0], numSymbols);
+	int[] fieldClasses = resize(new int[0], numSymbols);
+	for (int id = 0; id < remap.length; id++) {
+	    if (m_access[id] >= 0) {
+		access[remap[id]] = m_access[id];
+	    }
+	    if (m_fieldClasses[id] >= 0) {
+		fieldClasses[remap[id]] = remap[m_fieldClasses[id]];
 	    }
-
-	    // move up to the parent class
-	    obfEntry = obfEntry.cloneToNewClass(new ClassEntry(superclassName));
 	}
-	return obfEntry.getClassEntry();
+	m_access = access;
+	m_fieldClasses = fieldClasses;
     }
 
-    private CtMethod getBridgedMethod(CtMethod method) {
-	// bridge methods just call another method, cast it to the return type,
-	// and return the result
-	// let's see if we can detect this scenario
-
-	// skip non-synthetic methods
-	if ((method.getModifiers() & AccessFlag.SYNTHETIC) == 0) {
-	    return null;
+    private static byte[] grow(byte[] array, int id) {
+	if (id < array.length) {
+	    return array;
 	}
+	return resize(array, Math.max(id + 1, array.length * 2));
+    }
 
-	// get all the called methods
-	final List<MethodCall> methodCalls = Lists.newArrayList();
-	try {
-	    method.instrument(new ExprEditor() {
-		@Override
-		public void edit(MethodCall call) {
-		    methodCalls.add(call);
-		}
-	    });
-	} catch (CannotCompileException ex) {
-	    // this is stupid... we're not even compiling anything
-	    throw new Error(ex);
+    private static int[] grow(int[] array, int id) {
+	if (id < array.length) {
+	    return array;
 	}
+	return resize(array, Math.max(id + 1, array.length * 2));
+    }
 
-	// is there just one?
-	if (methodCalls.size() != 1) {
-	    return null;
+    private static byte[] resize(byte[] array, int size) {
+	byte[] resized = Arrays.copyOf(array, size);
+	if (size > array.length) {
+	    Arrays.fill(resized, array.length, size, (byte) -1);
 	}
-	MethodCall call = methodCalls.get(0);
+	return resized;
+    }
 
-	try {
-	    // we have a bridge method!
-	    return call.getMethod();
-	} catch (NotFoundException ex) {
-	    // can't find the type? not a bridge method
-	    return null;
+    private static int[] resize(int[] array, int size) {
+	int[] resized = Arrays.copyOf(array, size);
+	if (size > array.length) {
+	    Arrays.fill(resized, array.length, size, -1);
 	}
+	return resized;
     }
 
-    private String findOuterClass(CtClass c) {
-	// inner classes:
-	// have constructors that can (illegally) set synthetic fields
-	// the outer class is the only class that calls constructors
+    private void indexMethodFamilies() {
+	// union-find over the method ids
+	int numSymbols = m_symbols.size();
+	int[] parents = new int[numSymbols];
+	for (int id = 0; id < numSymbols; id++) {
+	    parents[id] = id;
+	}
 
-	// use the synthetic fields to find the synthetic constructors
-	for (CtConstructor constructor : c.getDeclaredConstructors()) {
-	    Set<String> syntheticFieldTypes = Sets.newHashSet();
-	    if (!isIllegalConstructor(syntheticFieldTypes, constructor)) {
-		continue;
-	    }
+	for (int classId = 0; classId < m_methodImplementations.numKeys(); classId++) {
+	    boolean isInterface = m_implementingClasses.containsKey(classId);
+	    for (int i = 0; i < m_methodImplementations.count(classId); i++) {
+		int methodId = m_methodImplementations.get(classId, i);
+		MethodEntry methodEntry = (MethodEntry) m_symbols.get(methodId);
 
-	    ClassEntry classEntry = new ClassEntry(Descriptor.toJvmName(c.getName()));
-	    ConstructorEntry constructorEntry = new ConstructorEntry(classEntry, constructor.getMethodInfo()
-		    .getDescriptor());
-
-	    // gather the classes from the illegally-set synthetic fields
-	    Set<ClassEntry> illegallySetClasses = Sets.newHashSet();
-	    for (String type : syntheticFieldTypes) {
-		if (type.startsWith("L")) {
-		    ClassEntry outerClassEntry = new ClassEntry(type.substring(1, type.length() - 1));
-		    if (isSaneOuterClass(outerClassEntry, classEntry)) {
-			illegallySetClasses.add(outerClassEntry);
-		    }
+		// join overrides with the closest ancestor that has the method
+		String superclassName = m_translationIndex.getSuperclassName(methodEntry.getClassName());
+		if (superclassName != null) {
+		    joinMethodFamilies(parents, methodId, methodEntry, superclassName);
 		}
-	    }
 
-	    // who calls this constructor?
-	    Set<ClassEntry> callerClasses = Sets.newHashSet();
-	    for (EntryReference<BehaviorEntry, BehaviorEntry> reference : getBehaviorReferences(constructorEntry)) {
-		// make sure it's not a call to super
-		if (reference.entry instanceof ConstructorEntry && reference.context instanceof ConstructorEntry) {
-		    // is the entry a superclass of the context?
-		    String calledClassName = reference.entry.getClassName();
-		    String callerSuperclassName = m_translationIndex
-			    .getSuperclassName(reference.context.getClassName());
-		    if (callerSuperclassName != null && callerSuperclassName.equals(calledClassName)) {
-			// it's a super call, skip
-			continue;
+		// join interface methods with whatever each implementing class uses for the method
+		if (isInterface) {
+		    for (String implementingClassName : getImplementingClasses(methodEntry.getClassName())) {
+			joinMethodFamilies(parents, methodId, methodEntry, implementingClassName);
 		    }
 		}
-
-		if (isSaneOuterClass(reference.context.getClassEntry(), classEntry)) {
-		    callerClasses.add(reference.context.getClassEntry());
-		}
 	    }
+	}
 
-	    // do we have an answer yet?
-	    if (callerClasses.isEmpty()) {
-		if (illegallySetClasses.size() == 1) {
-		    return illegallySetClasses.iterator().next().getName();
-		} else {
-		    System.out
-			    .println(String
-				    .format("WARNING: Unable to find outer class for %s. No caller and no illegally set field classes.",
-					    classEntry));
-		}
-	    } else {
-		if (callerClasses.size() == 1) {
-		    return callerClasses.iterator().next().getName();
-		} else {
-		    // multiple callers, do the illegally set classes narrow it
-		    // down?
-		    Set<ClassEntry> intersection = Sets.newHashSet(callerClasses);
-		    intersection.retainAll(illegallySetClasses);
-		    if (intersection.size() == 1) {
-			return intersection.iterator().next().getName();
-		    } else {
-			System.out.println(String.format(
-				"WARNING: Unable to choose outer class for %s among options: %s", classEntry,
-				callerClasses));
-		    }
-		}
+	// point every method at the root of its family, and list the members of each family
+	int[] families = resize(new int[0], numSymbols);
+	IntMultimap.Builder members = new IntMultimap.Builder();
+	for (int classId = 0; classId < m_methodImplementations.numKeys(); classId++) {
+	    for (int i = 0; i < m_methodImplementations.count(classId); i++) {
+		int methodId = m_methodImplementations.get(classId, i);
+		families[methodId] = findMethodFamily(parents, methodId);
+		members.put(families[methodId], methodId);
 	    }
 	}
-
-	return null;
+	m_methodFamilies = families;
+	m_methodFamilyMembers = members.build(numSymbols);
     }
 
-    private boolean isSaneOuterClass(ClassEntry outerClassEntry, ClassEntry innerClassEntry) {
-	// clearly this would be silly
-	if (outerClassEntry.equals(innerClassEntry)) {
-	    return false;
+    private void joinMethodFamilies(int[] parents, int methodId, MethodEntry methodEntry, String className) {
+	ClassEntry resolvedClassEntry = resolveEntryClass(new MethodEntry(new ClassEntry(className),
+		methodEntry.getName(), methodEntry.getSignature()));
+	if (resolvedClassEntry != null) {
+	    int otherMethodId = m_symbols.getId(methodEntry.cloneToNewClass(resolvedClassEntry));
+	    parents[findMethodFamily(parents, methodId)] = findMethodFamily(parents, otherMethodId);
 	}
+    }
 
-	// is the outer class in the jar?
-	if (!m_obfClassEntries.contains(outerClassEntry)) {
-	    return false;
+    private static int findMethodFamily(int[] parents, int id) {
+	while (parents[id] != id) {
+	    parents[id] = parents[parents[id]];
+	    id = parents[id];
 	}
-
-	return true;
+	return id;
     }
 
-    @SuppressWarnings("unchecked")
-    private boolean isIllegalConstructor(Set<String> syntheticFieldTypes, CtConstructor constructor) {
-	// illegal constructors only set synthetic member fields, then call
-	// super()
-	String className = constructor.getDeclaringClass().getName();
-
-	// collect all the field accesses, constructor calls, and method calls
-	final List<FieldAccess> illegalFieldWrites = Lists.newArrayList();
-	final List<ConstructorCall> constructorCalls = Lists.newArrayList();
-	try {
-	    constructor.instrument(new ExprEditor() {
-		@Override
-		public void edit(FieldAccess fieldAccess) {
-		    if (fieldAccess.isWriter() && constructorCalls.isEmpty()) {
-			illegalFieldWrites.add(fieldAccess);
-		    }
-		}
-
-		@Override
-		public void edit(ConstructorCall constructorCall) {
-		    constructorCalls.add(constructorCall);
+    private void forgetResolvedMethods(Map<MethodEntry, MethodEntry> renames) {
+	// method renames do change which classes have a method, so forget anything we know about those methods
+	Set<String> methodKeys = Sets.newHashSet();
+	for (Map.Entry<MethodEntry, MethodEntry> entry : renames.entrySet()) {
+	    methodKeys.add(entry.getKey().getName() + entry.getKey().getSignature());
+	    methodKeys.add(entry.getValue().getName() + entry.getKey().getSignature());
+	}
+	Iterator<Entry> iter = m_resolvedClasses.keySet().iterator();
+	while (iter.hasNext()) {
+	    Entry entry = iter.next();
+	    if (entry instanceof MethodEntry) {
+		MethodEntry methodEntry = (MethodEntry) entry;
+		if (methodKeys.contains(methodEntry.getName() + methodEntry.getSignature())) {
+		    iter.remove();
 		}
-	    });
-	} catch (CannotCompileException ex) {
-	    // we're not compiling anything... this is stupid
-	    throw new Error(ex);
+	    }
 	}
+    }
 
-	// are there any illegal field writes?
-	if (illegalFieldWrites.isEmpty()) {
-	    return false;
+    private int[] getResolvedClassIds(Map<Entry, Optional<ClassEntry>> resolvedClasses) {
+	// the references are indexed by the members they resolve to, so the members they name might not be symbols
+	// yet. Add them, a symbol is a lot smaller than an entry
+	for (Entry obfEntry : resolvedClasses.keySet()) {
+	    m_symbols.intern(obfEntry);
 	}
 
-	// are all the writes to synthetic fields?
-	for (FieldAccess fieldWrite : illegalFieldWrites) {
-	    // all illegal writes have to be to the local class
-	    if (!fieldWrite.getClassName().equals(className)) {
-		System.err.println(String.format("WARNING: illegal write to non-member field %s.%s",
-			fieldWrite.getClassName(), fieldWrite.getFieldName()));
-		return false;
-	    }
-
-	    // find the field
-	    FieldInfo fieldInfo = null;
-	    for (FieldInfo info : (List<FieldInfo>) constructor.getDeclaringClass().getClassFile().getFields()) {
-		if (info.getName().equals(fieldWrite.getFieldName())
-			&& info.getDescriptor().equals(fieldWrite.getSignature())) {
-		    fieldInfo = info;
-		    break;
+	int[] resolvedClassIds = new int[m_symbols.size()];
+	Arrays.fill(resolvedClassIds, UnknownClassId);
+	for (Map.Entry<Entry, Optional<ClassEntry>> entry : resolvedClasses.entrySet()) {
+	    int id = m_symbols.getId(entry.getKey());
+	    if (!entry.getValue().isPresent()) {
+		resolvedClassIds[id] = LibraryClassId;
+	    } else {
+		int classId = m_symbols.getClassId(entry.getValue().get().getName());
+		if (classId >= 0) {
+		    resolvedClassIds[id] = classId;
 		}
 	    }
-	    if (fieldInfo == null) {
-		// field is in a superclass or something, can't be a local
-		// synthetic member
-		return false;
-	    }
+	}
 
-	    // is this field synthetic?
-	    boolean isSynthetic = (fieldInfo.getAccessFlags() & AccessFlag.SYNTHETIC) != 0;
-	    if (isSynthetic) {
-		syntheticFieldTypes.add(fieldInfo.getDescriptor());
-	    } else {
-		System.err.println(String.format("WARNING: illegal write to non synthetic field %s %s.%s",
-			fieldInfo.getDescriptor(), className, fieldInfo.getName()));
-		return false;
+	// members nothing refers to still show up in the source, and declared members resolve to their own class
+	for (int id = 0; id < resolvedClassIds.length; id++) {
+	    if (resolvedClassIds[id] == UnknownClassId && m_symbols.getKind(id) != SymbolTable.ClassKind
+		    && id < m_access.length && m_access[id] >= 0) {
+		resolvedClassIds[id] = m_symbols.getClassId(id);
 	    }
 	}
-
-	// we passed all the tests!
-	return true;
+	return resolvedClassIds;
     }
 
-    private BehaviorEntry isAnonymousClass(CtClass c, String outerClassName) {
-	ClassEntry innerClassEntry = new ClassEntry(Descriptor.toJvmName(c.getName()));
-
-	// anonymous classes:
-	// can't be abstract
-	// have only one constructor
-	// it's called exactly once by the outer class
-	// the type the instance is assigned to can't be this type
+    private static Map<Entry, Optional<ClassEntry>> newResolvedClassCache() {
+	return CacheBuilder.newBuilder().maximumSize(ResolvedClassCacheSize)
+		.<Entry, Optional<ClassEntry>> build().asMap();
+    }
 
-	// is abstract?
-	if (Modifier.isAbstract(c.getModifiers())) {
-	    return null;
+    public ClassEntry resolveEntryClass(Entry obfEntry) {
+	if (obfEntry instanceof FieldEntry || obfEntry instanceof BehaviorEntry) {
+	    // members get resolved a lot, for every reference in the jar and every token in the source
+	    // the ids are only there once indexing is done, the symbol table is still changing before that
+	    if (m_resolvedClassIds.length > 0) {
+		int id = m_symbols.getId(obfEntry);
+		if (id >= 0 && id < m_resolvedClassIds.length && m_resolvedClassIds[id] != UnknownClassId) {
+		    m_resolvedClassHits.incrementAndGet();
+		    int classId = m_resolvedClassIds[id];
+		    return classId == LibraryClassId ? null : m_symbols.getClassEntry(classId);
+		}
+	    }
+	    Optional<ClassEntry> resolvedClassEntry = m_resolvedClasses.get(obfEntry);
+	    if (resolvedClassEntry != null) {
+		m_resolvedClassHits.incrementAndGet();
+		return resolvedClassEntry.orNull();
+	    }
+	    m_resolvedClassMisses.incrementAndGet();
+	    return resolveMemberClass(obfEntry);
 	}
 
-	// is there exactly one constructor?
-	if (c.getDeclaredConstructors().length != 1) {
-	    return null;
-	}
-	CtConstructor constructor = c.getDeclaredConstructors()[0];
+	// this entry could refer to a method on a class where the method is not
+	// actually implemented
+	// travel up the inheritance tree to find the closest implementation
+	while (!containsObfEntry(obfEntry)) {
+	    // is there a parent class?
+	    String superclassName = m_translationIndex.getSuperclassName(obfEntry.getClassName());
+	    if (superclassName == null) {
+		// this is probably a method from a class in a library
+		// we can't trace the implementation up any higher unless we
+		// index the library
+		return null;
+	    }
 
-	// is this constructor called exactly once?
-	ConstructorEntry constructorEntry = new ConstructorEntry(innerClassEntry, constructor.getMethodInfo()
-		.getDescriptor());
-	Collection<EntryReference<BehaviorEntry, BehaviorEntry>> references = getBehaviorReferences(constructorEntry);
-	if (references.size() != 1) {
-	    return null;
+	    // move up to the parent class
+	    obfEntry = obfEntry.cloneToNewClass(new ClassEntry(superclassName));
 	}
+	return obfEntry.getClassEntry();
+    }
 
-	// does the caller use this type?
-	BehaviorEntry caller = references.iterator().next().context;
-	for (FieldEntry fieldEntry : getReferencedFields(caller)) {
-	    ClassEntry fieldClass = getFieldClass(fieldEntry);
-	    if (fieldClass != null && fieldClass.equals(innerClassEntry)) {
-		// caller references this type, so it can't be anonymous
-		return null;
-	    }
+    private ClassEntry resolveMemberClass(Entry obfEntry) {
+	Optional<ClassEntry> cachedClassEntry = m_resolvedClasses.get(obfEntry);
+	if (cachedClassEntry != null) {
+	    return cachedClassEntry.orNull();
 	}
-	for (BehaviorEntry behaviorEntry : getReferencedBehaviors(caller)) {
-	    // get the class types from the signature
-	    for (String className : SignatureUpdater.getClasses(behaviorEntry.getSignature())) {
-		if (className.equals(innerClassEntry.getName())) {
-		    // caller references this type, so it can't be anonymous
-		    return null;
-		}
+
+	// same as above, but remember the answer for every class on the way up
+	// so other subclasses of the same ancestors can stop early
+	ClassEntry resolvedClassEntry = null;
+	if (containsObfEntry(obfEntry)) {
+	    resolvedClassEntry = obfEntry.getClassEntry();
+	} else {
+	    String superclassName = m_translationIndex.getSuperclassName(obfEntry.getClassName());
+	    if (superclassName != null) {
+		resolvedClassEntry = resolveMemberClass(obfEntry.cloneToNewClass(new ClassEntry(superclassName)));
 	    }
 	}
 
-	return caller;
+	// library members never resolve, so remember that too
+	m_resolvedClasses.put(obfEntry, Optional.fromNullable(resolvedClassEntry));
+	return resolvedClassEntry;
+    }
+
+    public long getResolvedClassHits() {
+	return m_resolvedClassHits.get();
+    }
+
+    public long getResolvedClassMisses() {
+	return m_resolvedClassMisses.get();
+    }
+
+    public long getNumReusedClasses() {
+	return m_numReusedClasses.get();
+    }
+
+    public long getNumReadClasses() {
+	return m_numReadClasses.get();
     }
 
     public Set<ClassEntry> getObfClassEntries() {
@@ -563,11 +668,19 @@ public class JarIndex {
     }
 
     public Access getAccess(Entry entry) {
-	return m_access.get(entry);
+	int id = m_symbols.getId(entry);
+	if (id < 0 || id >= m_access.length || m_access[id] < 0) {
+	    return null;
+	}
+	return AccessValues[m_access[id]];
     }
 
     public ClassEntry getFieldClass(FieldEntry fieldEntry) {
-	return m_fieldClasses.get(fieldEntry);
+	int id = m_symbols.getId(fieldEntry);
+	if (id < 0 || id >= m_fieldClasses.length || m_fieldClasses[id] < 0) {
+	    return null;
+	}
+	return m_symbols.getClassEntry(m_fieldClasses[id]);
     }
 
     public ClassInheritanceTreeNode getClassInheritance(Translator deobfuscatingTranslator, ClassEntry obfClassEntry) {
@@ -653,70 +766,82 @@ public class JarIndex {
 
     public Set<MethodEntry> getRelatedMethodImplementations(MethodEntry obfMethodEntry) {
 	Set<MethodEntry> methodEntries = Sets.newHashSet();
-	getRelatedMethodImplementations(methodEntries, getMethodInheritance(null, obfMethodEntry));
-	return methodEntries;
-    }
-
-    private void getRelatedMethodImplementations(Set<MethodEntry> methodEntries, MethodInheritanceTreeNode node) {
-	MethodEntry methodEntry = node.getMethodEntry();
-	if (containsObfBehavior(methodEntry)) {
-	    // collect the entry
-	    methodEntries.add(methodEntry);
-	}
-
-	// look at interface methods too
-	MethodImplementationsTreeNode implementations = getMethodImplementations(null, methodEntry);
-	if (implementations != null) {
-	    getRelatedMethodImplementations(methodEntries, implementations);
-	}
-
-	// recurse
-	for (int i = 0; i < node.getChildCount(); i++) {
-	    getRelatedMethodImplementations(methodEntries, (MethodInheritanceTreeNode) node.getChildAt(i));
+	ClassEntry resolvedClassEntry = resolveEntryClass(obfMethodEntry);
+	if (resolvedClassEntry != null) {
+	    // the family already has all the overrides and interface implementations
+	    addMethodFamily(methodEntries, obfMethodEntry.cloneToNewClass(resolvedClassEntry));
+	} else {
+	    // this class and its ancestors don't have the method, but subclasses and interfaces still could
+	    Set<String> classNames = Sets.newHashSet(obfMethodEntry.getClassName());
+	    m_translationIndex.getSubclassNamesRecursively(classNames, obfMethodEntry.getClassName());
+	    for (String className : classNames) {
+		addMethodFamily(methodEntries, new MethodEntry(new ClassEntry(className), obfMethodEntry.getName(),
+			obfMethodEntry.getSignature()));
+		for (String interfaceName : getInterfaces(className)) {
+		    addMethodFamily(methodEntries, new MethodEntry(new ClassEntry(interfaceName),
+			    obfMethodEntry.getName(), obfMethodEntry.getSignature()));
+		}
+		for (String implementingClassName : getImplementingClasses(className)) {
+		    addMethodFamily(methodEntries, new MethodEntry(new ClassEntry(implementingClassName),
+			    obfMethodEntry.getName(), obfMethodEntry.getSignature()));
+		}
+	    }
 	}
+	return methodEntries;
     }
 
-    private void getRelatedMethodImplementations(Set<MethodEntry> methodEntries, MethodImplementationsTreeNode node) {
-	MethodEntry methodEntry = node.getMethodEntry();
-	if (containsObfBehavior(methodEntry)) {
-	    // collect the entry
-	    methodEntries.add(methodEntry);
+    private void addMethodFamily(Set<MethodEntry> methodEntries, MethodEntry methodEntry) {
+	int id = m_symbols.getId(methodEntry);
+	if (id < 0 || id >= m_methodFamilies.length || m_methodFamilies[id] < 0) {
+	    return;
 	}
-
-	// recurse
-	for (int i = 0; i < node.getChildCount(); i++) {
-	    getRelatedMethodImplementations(methodEntries, (MethodImplementationsTreeNode) node.getChildAt(i));
+	int familyId = m_methodFamilies[id];
+	for (int i = 0; i < m_methodFamilyMembers.count(familyId); i++) {
+	    methodEntries.add((MethodEntry) m_symbols.get(m_methodFamilyMembers.get(familyId, i)));
 	}
     }
 
     public Collection<EntryReference<FieldEntry, BehaviorEntry>> getFieldReferences(FieldEntry fieldEntry) {
-	return m_fieldReferences.get(fieldEntry);
+	return getReferences(m_fieldReferences, fieldEntry);
     }
 
     public Collection<FieldEntry> getReferencedFields(BehaviorEntry behaviorEntry) {
-	// linear search is fast enough for now
-	Set<FieldEntry> fieldEntries = Sets.newHashSet();
-	for (EntryReference<FieldEntry, BehaviorEntry> reference : m_fieldReferences.values()) {
-	    if (reference.context == behaviorEntry) {
-		fieldEntries.add(reference.entry);
-	    }
-	}
-	return fieldEntries;
+	return getEntries(m_referencedFields, behaviorEntry, FieldEntry.class);
     }
 
     public Collection<EntryReference<BehaviorEntry, BehaviorEntry>> getBehaviorReferences(BehaviorEntry behaviorEntry) {
-	return m_behaviorReferences.get(behaviorEntry);
+	return getReferences(m_behaviorReferences, behaviorEntry);
     }
 
     public Collection<BehaviorEntry> getReferencedBehaviors(BehaviorEntry behaviorEntry) {
-	// linear search is fast enough for now
-	Set<BehaviorEntry> behaviorEntries = Sets.newHashSet();
-	for (EntryReference<BehaviorEntry, BehaviorEntry> reference : m_behaviorReferences.values()) {
-	    if (reference.context == behaviorEntry) {
-		behaviorEntries.add(reference.entry);
+	return getEntries(m_referencedBehaviors, behaviorEntry, BehaviorEntry.class);
+    }
+
+    private <E extends Entry> List<EntryReference<E, BehaviorEntry>> getReferences(IntMultimap references, E entry) {
+	List<EntryReference<E, BehaviorEntry>> out = Lists.newArrayList();
+	int id = m_symbols.getId(entry);
+	int count = references.count(id);
+	for (int i = 0; i < count; i++) {
+	    int value = references.get(id, i);
+	    if (i + 1 < count && references.get(id, i + 1) >>> 1 == value >>> 1) {
+		// the same caller has a named reference too, keep that one instead
+		continue;
 	    }
+	    BehaviorEntry context = (BehaviorEntry) m_symbols.get(value >>> 1);
+	    String sourceName = (value & 1) != 0 ? entry.getName() : null;
+	    out.add(new EntryReference<E, BehaviorEntry>(entry, sourceName, context));
+	}
+	return out;
+    }
+
+    private <E extends Entry> List<E> getEntries(IntMultimap map, Entry entry, Class<E> type) {
+	List<E> out = Lists.newArrayList();
+	int id = m_symbols.getId(entry);
+	int count = map.count(id);
+	for (int i = 0; i < count; i++) {
+	    out.add(type.cast(m_symbols.get(map.get(id, i))));
 	}
-	return behaviorEntries;
+	return out;
     }
 
     public Collection<String> getInnerClasses(String obfOuterClassName) {
@@ -741,46 +866,64 @@ public class JarIndex {
     }
 
     public Set<String> getInterfaces(String className) {
-	Set<String> interfaceNames = new HashSet<String>();
-	interfaceNames.addAll(m_interfaces.get(className));
-	for (String ancestor : m_translationIndex.getAncestry(className)) {
-	    interfaceNames.addAll(m_interfaces.get(ancestor));
+	Set<String> interfaceNames = m_interfacesCache.get(className);
+	if (interfaceNames == null) {
+	    interfaceNames = new HashSet<String>();
+	    addClassNames(interfaceNames, m_interfaces, className);
+	    for (String ancestor : m_translationIndex.getAncestry(className)) {
+		addClassNames(interfaceNames, m_interfaces, ancestor);
+	    }
+	    interfaceNames = Collections.unmodifiableSet(interfaceNames);
+	    m_interfacesCache.put(className, interfaceNames);
 	}
 	return interfaceNames;
     }
 
     public Set<String> getImplementingClasses(String targetInterfaceName) {
-	// linear search is fast enough for now
-	Set<String> classNames = Sets.newHashSet();
-	for (Map.Entry<String, String> entry : m_interfaces.entries()) {
-	    String className = entry.getKey();
-	    String interfaceName = entry.getValue();
-	    if (interfaceName.equals(targetInterfaceName)) {
+	Set<String> classNames = m_implementingClassesCache.get(targetInterfaceName);
+	if (classNames == null) {
+	    classNames = Sets.newHashSet();
+	    int interfaceId = m_symbols.getClassId(targetInterfaceName);
+	    for (int i = 0; i < m_implementingClasses.count(interfaceId); i++) {
+		String className = m_symbols.getClassName(m_implementingClasses.get(interfaceId, i));
 		classNames.add(className);
 		m_translationIndex.getSubclassNamesRecursively(classNames, className);
 	    }
+	    classNames = Collections.unmodifiableSet(classNames);
+	    m_implementingClassesCache.put(targetInterfaceName, classNames);
 	}
 	return classNames;
     }
 
     public boolean isInterface(String className) {
-	return m_interfaces.containsValue(className);
+	return m_implementingClasses.containsKey(m_symbols.getClassId(className));
+    }
+
+    private void addClassNames(Set<String> out, IntMultimap map, String className) {
+	int classId = m_symbols.getClassId(className);
+	for (int i = 0; i < map.count(classId); i++) {
+	    out.add(m_symbols.getClassName(map.get(classId, i)));
+	}
     }
 
     public MethodEntry getBridgeMethod(MethodEntry methodEntry) {
 	return m_bridgeMethods.get(methodEntry);
     }
 
+    public Set<MethodEntry> getBridgedMethods() {
+	return Collections.unmodifiableSet(m_bridgeMethods.keySet());
+    }
+
     public boolean containsObfClass(ClassEntry obfClassEntry) {
 	return m_obfClassEntries.contains(obfClassEntry);
     }
 
     public boolean containsObfField(FieldEntry obfFieldEntry) {
-	return m_access.containsKey(obfFieldEntry);
+	return getAccess(obfFieldEntry) != null;
     }
 
     public boolean containsObfBehavior(BehaviorEntry obfBehaviorEntry) {
-	return m_access.containsKey(obfBehaviorEntry);
+	return getAccess(obfBehaviorEntry) != null;
     }
 
     public boolean containsObfArgument(ArgumentEntry obfArgumentEntry) {
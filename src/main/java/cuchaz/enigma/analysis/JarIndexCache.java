@@ -0,0 +1,222 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InvalidClassException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+public class JarIndexCache {
+    private static final int ClassesMagic = 0x454e4943; // "ENIC"
+
+    private File m_dir;
+
+    public JarIndexCache() {
+	// keep the index files next to the jars
+	this(null);
+    }
+
+    public JarIndexCache(File dir) {
+	m_dir = dir;
+    }
+
+    public static File getDefaultDir() {
+	return new File(System.getProperty("user.home"), ".enigma/indices");
+    }
+
+    public JarIndex getIndex(File jarFile, JarFile jar, boolean buildInnerClasses) throws IOException {
+	String jarHash = hashJar(jarFile);
+	File indexFile = getIndexFile(jarFile, jarHash, buildInnerClasses);
+
+	// try the cache first
+	if (indexFile.exists()) {
+	    try {
+		JarIndex index = read(indexFile, jarHash);
+		if (index != null) {
+		    return index;
+		}
+	    } catch (IOException ex) {
+		System.err.println("WARNING: unable to read cached jar index " + indexFile + ": " + ex.getMessage());
+	    }
+	}
+
+	// otherwise, index the jar and save it for next time
+	// if we've seen an earlier version of this jar, only the classes that changed need to be read again
+	File classesFile = getClassesFile(jarFile);
+	Map<String, IndexedClass> previousClasses = null;
+	if (classesFile.exists()) {
+	    try {
+		previousClasses = readClasses(classesFile);
+	    } catch (IOException ex) {
+		System.err.println("WARNING: unable to read cached classes " + classesFile + ": " + ex.getMessage());
+	    }
+	}
+	JarIndex index = new JarIndex();
+	Map<String, IndexedClass> classes = index.indexJar(jar, buildInnerClasses, previousClasses);
+	try {
+	    write(indexFile, index, jarHash);
+	} catch (IOException ex) {
+	    System.err.println("WARNING: unable to write cached jar index " + indexFile + ": " + ex.getMessage());
+	}
+	try {
+	    writeClasses(classesFile, classes);
+	} catch (IOException ex) {
+	    System.err.println("WARNING: unable to write cached classes " + classesFile + ": " + ex.getMessage());
+	}
+	return index;
+    }
+
+    public static String hashJar(File jarFile) throws IOException {
+	return Files.hash(jarFile, Hashing.sha1()).toString();
+    }
+
+    private File getIndexFile(File jarFile, String jarHash, boolean buildInnerClasses) {
+	String suffix = buildInnerClasses ? ".index" : ".outer.index";
+	if (m_dir == null) {
+	    // jars can change in place, so the hash in the file header has to guard this one
+	    return new File(jarFile.getPath() + suffix);
+	}
+	return new File(m_dir, jarHash + suffix);
+    }
+
+    private File getClassesFile(File jarFile) {
+	// the next build of a jar has a different hash, so key these by where the jar lives instead
+	if (m_dir == null) {
+	    return new File(jarFile.getPath() + ".classes");
+	}
+	String pathHash = Hashing.sha1().hashString(jarFile.getAbsolutePath(), Charsets.UTF_8).toString();
+	return new File(m_dir, pathHash + ".classes");
+    }
+
+    private JarIndex read(File indexFile, String jarHash) throws IOException {
+	try (RandomAccessFile in = new RandomAccessFile(indexFile, "r")) {
+	    FileChannel channel = in.getChannel();
+	    MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+	    // is the cached index stale?
+	    if (!jarHash.equals(JarIndexReader.readJarHash(buf.duplicate()))) {
+		return null;
+	    }
+	    return new JarIndexReader(buf).read();
+	}
+    }
+
+    private void write(File indexFile, JarIndex index, String jarHash) throws IOException {
+	File dir = indexFile.getAbsoluteFile().getParentFile();
+	dir.mkdirs();
+
+	// write to a temp file first so readers never see a half-written index
+	File tempFile = File.createTempFile(indexFile.getName(), ".tmp", dir);
+	try {
+	    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+		new JarIndexWriter().write(out, index, jarHash);
+	    }
+	    replace(indexFile, tempFile);
+	} finally {
+	    tempFile.delete();
+	}
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, IndexedClass> readClasses(File classesFile) throws IOException {
+	try (InputStream in = new BufferedInputStream(new FileInputStream(classesFile))) {
+	    InputStream gzipin = new GZIPInputStream(in);
+
+	    // check the header before deserializing anything, the file could be left over from anything
+	    DataInputStream dataIn = new DataInputStream(gzipin);
+	    if (dataIn.readInt() != ClassesMagic) {
+		throw new IOException("Not a cached classes file");
+	    }
+	    if (dataIn.readInt() != JarIndexReader.Version) {
+		// written by a different version of enigma, so just index everything again
+		return null;
+	    }
+	    return (Map<String, IndexedClass>) new ClassesInputStream(gzipin).readObject();
+	} catch (ClassNotFoundException | ClassCastException ex) {
+	    throw new IOException(ex);
+	}
+    }
+
+    private void writeClasses(File classesFile, Map<String, IndexedClass> classes) throws IOException {
+	File dir = classesFile.getAbsoluteFile().getParentFile();
+	dir.mkdirs();
+
+	File tempFile = File.createTempFile(classesFile.getName(), ".tmp", dir);
+	try {
+	    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(tempFile))) {
+		GZIPOutputStream gzipout = new GZIPOutputStream(out);
+		DataOutputStream dataOut = new DataOutputStream(gzipout);
+		dataOut.writeInt(ClassesMagic);
+		dataOut.writeInt(JarIndexReader.Version);
+		dataOut.flush();
+		ObjectOutputStream oout = new ObjectOutputStream(gzipout);
+		oout.writeObject(classes);
+		oout.flush();
+		gzipout.finish();
+	    }
+	    replace(classesFile, tempFile);
+	} finally {
+	    tempFile.delete();
+	}
+    }
+
+    private static class ClassesInputStream extends ObjectInputStream {
+	public ClassesInputStream(InputStream in) throws IOException {
+	    super(in);
+	}
+
+	@Override
+	protected Class<?> resolveClass(ObjectStreamClass desc) throws IOException, ClassNotFoundException {
+	    // the cached classes are only entries, strings, and collections, so don't build anything else
+	    String name = desc.getName();
+	    while (name.startsWith("[")) {
+		name = name.substring(1);
+	    }
+	    if (name.length() > 1 && !name.startsWith("Lcuchaz.enigma.") && !name.startsWith("Ljava.lang.")
+		    && !name.startsWith("Ljava.util.") && !name.startsWith("cuchaz.enigma.")
+		    && !name.startsWith("java.lang.") && !name.startsWith("java.util.")) {
+		throw new InvalidClassException(desc.getName(), "Not allowed in a cached classes file");
+	    }
+	    return super.resolveClass(desc);
+	}
+    }
+
+    private void replace(File file, File tempFile) throws IOException {
+	if (file.exists() && !file.delete()) {
+	    throw new IOException("Unable to replace " + file);
+	}
+	if (!tempFile.renameTo(file)) {
+	    throw new IOException("Unable to move " + tempFile + " to " + file);
+	}
+    }
+}
@@ -0,0 +1,217 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Multimaps;
+
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ConstructorEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.MethodEntry;
+
+public class JarIndexReader {
+    public static final int Magic = 0x454e4958; // "ENIX"
+    public static final int Version = 5;
+
+    public static final int ClassEntryType = 0;
+    public static final int FieldEntryType = 1;
+    public static final int MethodEntryType = 2;
+    public static final int ConstructorEntryType = 3;
+    public static final int StaticInitializerEntryType = 4;
+
+    private ByteBuffer m_in;
+    private String[] m_strings;
+    private Entry[] m_entries;
+
+    public JarIndexReader(ByteBuffer in) {
+	m_in = in;
+    }
+
+    public static String readJarHash(ByteBuffer in) throws IOException {
+	// check the header before trusting anything else in the file
+	try {
+	    if (in.getInt() != Magic) {
+		throw new IOException("Not a jar index file");
+	    }
+	    if (in.getInt() != Version) {
+		return null;
+	    }
+	    return readString(in);
+	} catch (BufferUnderflowException ex) {
+	    throw new IOException("Jar index file is truncated", ex);
+	}
+    }
+
+    public JarIndex read() throws IOException {
+	try {
+	    if (readJarHash(m_in) == null) {
+		throw new IOException("Jar index file has the wrong format version");
+	    }
+	    readStringTable();
+	    readEntryTable();
+	    return readBody();
+	} catch (BufferUnderflowException | ArrayIndexOutOfBoundsException | NegativeArraySizeException
+		| ClassCastException ex) {
+	    throw new IOException("Jar index file is corrupt", ex);
+	}
+    }
+
+    private void readStringTable() {
+	m_strings = new String[m_in.getInt()];
+	for (int i = 0; i < m_strings.length; i++) {
+	    m_strings[i] = readString(m_in);
+	}
+    }
+
+    private void readEntryTable() throws IOException {
+	m_entries = new Entry[m_in.getInt()];
+	for (int i = 0; i < m_entries.length; i++) {
+	    int type = m_in.get();
+	    switch (type) {
+	    case ClassEntryType:
+		m_entries[i] = new ClassEntry(readString());
+		break;
+	    case FieldEntryType:
+		m_entries[i] = new FieldEntry(readEntry(ClassEntry.class), readString());
+		break;
+	    case MethodEntryType:
+		m_entries[i] = new MethodEntry(readEntry(ClassEntry.class), readString(), readString());
+		break;
+	    case ConstructorEntryType:
+		m_entries[i] = new ConstructorEntry(readEntry(ClassEntry.class), readString());
+		break;
+	    case StaticInitializerEntryType:
+		m_entries[i] = new ConstructorEntry(readEntry(ClassEntry.class));
+		break;
+	    default:
+		throw new IOException("Unknown entry type: " + type);
+	    }
+	}
+    }
+
+    private JarIndex readBody() throws IOException {
+	JarIndex index = new JarIndex();
+
+	// the first entries in the table are the symbols, in id order
+	int numSymbols = m_in.getInt();
+	for (int id = 0; id < numSymbols; id++) {
+	    if (index.m_symbols.intern(m_entries[id]) != id) {
+		throw new IOException("Jar index file has duplicate symbols");
+	    }
+	}
+
+	int numClasses = m_in.getInt();
+	for (int i = 0; i < numClasses; i++) {
+	    index.m_obfClassEntries.add(readEntry(ClassEntry.class));
+	}
+
+	TranslationIndex translationIndex = index.m_translationIndex;
+	readStringMap(translationIndex.m_superclasses);
+	readStringMultimap(translationIndex.m_fields);
+
+	// the subclass edges aren't stored
+	Multimaps.invertFrom(Multimaps.forMap(translationIndex.m_superclasses), translationIndex.m_subclasses);
+
+	index.m_access = new byte[m_in.getInt()];
+	m_in.get(index.m_access);
+	index.m_fieldClasses = readInts();
+
+	index.m_interfaces = readIntMultimap();
+	index.m_implementingClasses = readIntMultimap();
+	index.m_methodImplementations = readIntMultimap();
+	index.m_behaviorReferences = readIntMultimap();
+	index.m_fieldReferences = readIntMultimap();
+	index.m_referencedBehaviors = readIntMultimap();
+	index.m_referencedFields = readIntMultimap();
+
+	readStringMultimap(index.m_innerClasses);
+	readStringMap(index.m_outerClasses);
+
+	int numAnonymousClasses = m_in.getInt();
+	for (int i = 0; i < numAnonymousClasses; i++) {
+	    index.m_anonymousClasses.put(readString(), readEntry(BehaviorEntry.class));
+	}
+
+	int numBridgeMethods = m_in.getInt();
+	for (int i = 0; i < numBridgeMethods; i++) {
+	    index.m_bridgeMethods.put(readEntry(MethodEntry.class), readEntry(MethodEntry.class));
+	}
+
+	index.m_methodFamilies = readInts();
+	index.m_methodFamilyMembers = readIntMultimap();
+	index.m_resolvedClassIds = readInts();
+	for (int classId : index.m_resolvedClassIds) {
+	    if (classId < JarIndex.UnknownClassId || classId >= index.m_symbols.size()) {
+		throw new IOException("Jar index file is corrupt");
+	    }
+	}
+
+	index.compact();
+	return index;
+    }
+
+    private IntMultimap readIntMultimap() throws IOException {
+	int numKeys = m_in.getInt();
+	int[] keys = m_in.get() != 0 ? readInts() : null;
+	int[] offsets = readInts();
+	int[] values = readInts();
+	int numRows = keys != null ? keys.length : numKeys;
+	if (offsets.length != numRows + 1 || offsets[numRows] != values.length) {
+	    throw new IOException("Jar index file is corrupt");
+	}
+	return new IntMultimap(numKeys, keys, offsets, values);
+    }
+
+    private int[] readInts() {
+	// copy straight out of the mapped file
+	int[] ints = new int[m_in.getInt()];
+	m_in.asIntBuffer().get(ints);
+	m_in.position(m_in.position() + ints.length * 4);
+	return ints;
+    }
+
+    private void readStringMap(Map<String, String> map) {
+	int numEntries = m_in.getInt();
+	for (int i = 0; i < numEntries; i++) {
+	    map.put(readString(), readString());
+	}
+    }
+
+    private void readStringMultimap(Multimap<String, String> map) {
+	int numEntries = m_in.getInt();
+	for (int i = 0; i < numEntries; i++) {
+	    map.put(readString(), readString());
+	}
+    }
+
+    private String readString() {
+	return m_strings[m_in.getInt()];
+    }
+
+    private <T extends Entry> T readEntry(Class<T> type) {
+	return type.cast(m_entries[m_in.getInt()]);
+    }
+
+    private static String readString(ByteBuffer in) {
+	byte[] bytes = new byte[in.getInt()];
+	in.get(bytes);
+	return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ConstructorEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.MethodEntry;
+
+public class JarIndexWriter {
+    // the string and entry tables are written before the body, so build the body in memory first
+    private Map<String, Integer> m_strings;
+    private List<String> m_stringTable;
+    private Map<Entry, Integer> m_entries;
+    private List<Entry> m_entryTable;
+    private ByteArrayOutputStream m_buf;
+    private DataOutputStream m_body;
+
+    public JarIndexWriter() {
+	m_strings = Maps.newHashMap();
+	m_stringTable = Lists.newArrayList();
+	m_entries = Maps.newHashMap();
+	m_entryTable = Lists.newArrayList();
+	m_buf = new ByteArrayOutputStream();
+	m_body = new DataOutputStream(m_buf);
+    }
+
+    public void write(OutputStream out, JarIndex index, String jarHash) throws IOException {
+	writeBody(index);
+	m_body.flush();
+
+	DataOutputStream dataOut = new DataOutputStream(out);
+	dataOut.writeInt(JarIndexReader.Magic);
+	dataOut.writeInt(JarIndexReader.Version);
+	writeString(dataOut, jarHash);
+
+	// string table
+	dataOut.writeInt(m_stringTable.size());
+	for (String string : m_stringTable) {
+	    writeString(dataOut, string);
+	}
+
+	// entry table
+	dataOut.writeInt(m_entryTable.size());
+	for (Entry entry : m_entryTable) {
+	    writeEntry(dataOut, entry);
+	}
+
+	m_buf.writeTo(dataOut);
+	dataOut.flush();
+    }
+
+    private void writeBody(JarIndex index) throws IOException {
+	// the symbols go first in the entry table, so entry indices and symbol ids are the same
+	SymbolTable symbols = index.m_symbols;
+	for (int id = 0; id < symbols.size(); id++) {
+	    if (getEntryIndex(symbols.get(id)) != id) {
+		throw new Error("Symbol table has duplicate symbols!");
+	    }
+	}
+	m_body.writeInt(symbols.size());
+
+	m_body.writeInt(index.m_obfClassEntries.size());
+	for (ClassEntry classEntry : index.m_obfClassEntries) {
+	    writeEntryIndex(classEntry);
+	}
+
+	TranslationIndex translationIndex = index.m_translationIndex;
+	writeStringMap(translationIndex.m_superclasses);
+	writeStringMultimap(translationIndex.m_fields);
+
+	m_body.writeInt(index.m_access.length);
+	m_body.write(index.m_access);
+	writeInts(index.m_fieldClasses);
+
+	writeIntMultimap(index.m_interfaces);
+	writeIntMultimap(index.m_implementingClasses);
+	writeIntMultimap(index.m_methodImplementations);
+	writeIntMultimap(index.m_behaviorReferences);
+	writeIntMultimap(index.m_fieldReferences);
+	writeIntMultimap(index.m_referencedBehaviors);
+	writeIntMultimap(index.m_referencedFields);
+
+	writeStringMultimap(index.m_innerClasses);
+	writeStringMap(index.m_outerClasses);
+
+	m_body.writeInt(index.m_anonymousClasses.size());
+	for (Map.Entry<String, BehaviorEntry> entry : index.m_anonymousClasses.entrySet()) {
+	    writeStringIndex(entry.getKey());
+	    writeEntryIndex(entry.getValue());
+	}
+
+	m_body.writeInt(index.m_bridgeMethods.size());
+	for (Map.Entry<MethodEntry, MethodEntry> entry : index.m_bridgeMethods.entrySet()) {
+	    writeEntryIndex(entry.getKey());
+	    writeEntryIndex(entry.getValue());
+	}
+
+	writeInts(index.m_methodFamilies);
+	writeIntMultimap(index.m_methodFamilyMembers);
+	writeInts(index.m_resolvedClassIds);
+    }
+
+    private void writeIntMultimap(IntMultimap map) throws IOException {
+	m_body.writeInt(map.m_numKeys);
+	m_body.writeBoolean(map.m_keys != null);
+	if (map.m_keys != null) {
+	    writeInts(map.m_keys);
+	}
+	writeInts(map.m_offsets);
+	writeInts(map.m_values);
+    }
+
+    private void writeInts(int[] ints) throws IOException {
+	m_body.writeInt(ints.length);
+	for (int i : ints) {
+	    m_body.writeInt(i);
+	}
+    }
+
+    private void writeStringMap(Map<String, String> map) throws IOException {
+	m_body.writeInt(map.size());
+	for (Map.Entry<String, String> entry : map.entrySet()) {
+	    writeStringIndex(entry.getKey());
+	    writeStringIndex(entry.getValue());
+	}
+    }
+
+    private void writeStringMultimap(Multimap<String, String> map) throws IOException {
+	m_body.writeInt(map.size());
+	for (Map.Entry<String, String> entry : map.entries()) {
+	    writeStringIndex(entry.getKey());
+	    writeStringIndex(entry.getValue());
+	}
+    }
+
+    private void writeStringIndex(String string) throws IOException {
+	m_body.writeInt(getStringIndex(string));
+    }
+
+    private void writeEntryIndex(Entry entry) throws IOException {
+	m_body.writeInt(getEntryIndex(entry));
+    }
+
+    private int getStringIndex(String string) {
+	Integer index = m_strings.get(string);
+	if (index == null) {
+	    index = m_stringTable.size();
+	    m_strings.put(string, index);
+	    m_stringTable.add(string);
+	}
+	return index;
+    }
+
+    private int getEntryIndex(Entry entry) {
+	Integer index = m_entries.get(entry);
+	if (index == null) {
+	    // make sure the strings and the class entry are in the tables before this entry
+	    getStringIndex(entry.getName());
+	    if (!(entry instanceof ClassEntry)) {
+		getEntryIndex(entry.getClassEntry());
+	    }
+	    if (entry instanceof MethodEntry) {
+		getStringIndex(((MethodEntry) entry).getSignature());
+	    } else if (entry instanceof ConstructorEntry && !((ConstructorEntry) entry).isStatic()) {
+		getStringIndex(((ConstructorEntry) entry).getSignature());
+	    }
+
+	    index = m_entryTable.size();
+	    m_entries.put(entry, index);
+	    m_entryTable.add(entry);
+	}
+	return index;
+    }
+
+    private void writeEntry(DataOutputStream out, Entry entry) throws IOException {
+	if (entry instanceof ClassEntry) {
+	    out.writeByte(JarIndexReader.ClassEntryType);
+	    out.writeInt(m_strings.get(entry.getName()));
+	} else if (entry instanceof FieldEntry) {
+	    out.writeByte(JarIndexReader.FieldEntryType);
+	    out.writeInt(m_entries.get(entry.getClassEntry()));
+	    out.writeInt(m_strings.get(entry.getName()));
+	} else if (entry instanceof MethodEntry) {
+	    MethodEntry methodEntry = (MethodEntry) entry;
+	    out.writeByte(JarIndexReader.MethodEntryType);
+	    out.writeInt(m_entries.get(methodEntry.getClassEntry()));
+	    out.writeInt(m_strings.get(methodEntry.getName()));
+	    out.writeInt(m_strings.get(methodEntry.getSignature()));
+	} else if (entry instanceof ConstructorEntry) {
+	    ConstructorEntry constructorEntry = (ConstructorEntry) entry;
+	    if (constructorEntry.isStatic()) {
+		out.writeByte(JarIndexReader.StaticInitializerEntryType);
+		out.writeInt(m_entries.get(constructorEntry.getClassEntry()));
+	    } else {
+		out.writeByte(JarIndexReader.ConstructorEntryType);
+		out.writeInt(m_entries.get(constructorEntry.getClassEntry()));
+		out.writeInt(m_strings.get(constructorEntry.getSignature()));
+	    }
+	} else {
+	    throw new Error("Entry type not supported: " + entry.getClass().getName());
+	}
+    }
+
+    private static void writeString(DataOutputStream out, String string) throws IOException {
+	byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+	out.writeInt(bytes.length);
+	out.write(bytes);
+    }
+}
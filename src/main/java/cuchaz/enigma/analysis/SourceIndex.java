@@ -137,6 +137,48 @@ public class SourceIndex {
 	m_referenceToTokens.putAll(newDeobfReference, tokens);
     }
 
+    public SourceIndex replaceTokens(Map<Token, String> newTexts,
+	    Map<Token, EntryReference<Entry, Entry>> newDeobfReferences) {
+	// splice the new text into the source, moving every later token along with it
+	// returns null if the tokens overlap, since then there's no telling what the new source should be
+	StringBuilder buf = new StringBuilder();
+	Map<Token, Token> newTokens = Maps.newHashMap();
+	int pos = 0;
+	for (Token token : m_tokenToReference.keySet()) {
+	    if (token.start < pos) {
+		return null;
+	    }
+	    buf.append(m_source, pos, token.start);
+	    int start = buf.length();
+	    String newText = newTexts.get(token);
+	    if (newText != null) {
+		buf.append(newText);
+	    } else {
+		buf.append(m_source, token.start, token.end);
+	    }
+	    newTokens.put(token, new Token(start, buf.length()));
+	    pos = token.end;
+	}
+	buf.append(m_source, pos, m_source.length());
+
+	SourceIndex index = new SourceIndex(buf.toString());
+	for (Map.Entry<Token, EntryReference<Entry, Entry>> entry : m_tokenToReference.entrySet()) {
+	    Token newToken = newTokens.get(entry.getKey());
+	    newToken.text = index.m_source.substring(newToken.start, newToken.end);
+	    EntryReference<Entry, Entry> newDeobfReference = newDeobfReferences.get(entry.getKey());
+	    if (newDeobfReference == null) {
+		newDeobfReference = entry.getValue();
+	    }
+	    index.m_tokenToReference.put(newToken, newDeobfReference);
+	    index.m_referenceToTokens.put(newDeobfReference, newToken);
+	}
+	for (Token token : m_declarationToToken.values()) {
+	    Token newToken = newTokens.get(token);
+	    index.m_declarationToToken.put(index.m_tokenToReference.get(newToken).entry, newToken);
+	}
+	return index;
+    }
+
     public Iterable<Token> referenceTokens() {
 	return m_tokenToReference.keySet();
     }
@@ -0,0 +1,354 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.analysis;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.Lists;
+
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.ConstructorEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.MethodEntry;
+
+public class SymbolTable {
+    public static final byte ClassKind = 0;
+    public static final byte FieldKind = 1;
+    public static final byte MethodKind = 2;
+    public static final byte ConstructorKind = 3;
+    public static final byte StaticInitializerKind = 4;
+
+    // symbols are stored as (kind, class id, name id, signature id) tuples instead of entry objects
+    // every string is stored once, and every member shares its class symbol
+    private String[] m_strings;
+    private int m_numStrings;
+    private int[] m_stringSlots;
+
+    private byte[] m_kinds;
+    private int[] m_classes;
+    private int[] m_names;
+    private int[] m_signatures;
+    private int m_numSymbols;
+    private int[] m_symbolSlots;
+
+    public SymbolTable() {
+	m_strings = new String[16];
+	m_numStrings = 0;
+	m_stringSlots = newSlots(32);
+
+	m_kinds = new byte[16];
+	m_classes = new int[16];
+	m_names = new int[16];
+	m_signatures = new int[16];
+	m_numSymbols = 0;
+	m_symbolSlots = newSlots(32);
+    }
+
+    public int size() {
+	return m_numSymbols;
+    }
+
+    public int getId(Entry entry) {
+	if (entry instanceof ClassEntry) {
+	    return getClassId(entry.getName());
+	}
+	int classId = getClassId(entry.getClassName());
+	if (classId < 0) {
+	    return -1;
+	}
+	if (entry instanceof FieldEntry) {
+	    int nameId = findString(entry.getName());
+	    if (nameId < 0) {
+		return -1;
+	    }
+	    return findSymbol(FieldKind, classId, nameId, -1);
+	} else if (entry instanceof MethodEntry) {
+	    int nameId = findString(entry.getName());
+	    int signatureId = findString(((MethodEntry) entry).getSignature());
+	    if (nameId < 0 || signatureId < 0) {
+		return -1;
+	    }
+	    return findSymbol(MethodKind, classId, nameId, signatureId);
+	} else if (entry instanceof ConstructorEntry) {
+	    ConstructorEntry constructorEntry = (ConstructorEntry) entry;
+	    if (constructorEntry.isStatic()) {
+		return findSymbol(StaticInitializerKind, classId, -1, -1);
+	    }
+	    int signatureId = findString(constructorEntry.getSignature());
+	    if (signatureId < 0) {
+		return -1;
+	    }
+	    return findSymbol(ConstructorKind, classId, -1, signatureId);
+	}
+	// arguments aren't symbols
+	return -1;
+    }
+
+    public int getClassId(String className) {
+	int nameId = findString(className);
+	if (nameId < 0) {
+	    return -1;
+	}
+	return findSymbol(ClassKind, -1, nameId, -1);
+    }
+
+    public String intern(String string) {
+	// hands out the table's copy, so other indices don't keep one of their own
+	return m_strings[internString(string)];
+    }
+
+    public int intern(Entry entry) {
+	if (entry instanceof ClassEntry) {
+	    return internSymbol(ClassKind, -1, internString(entry.getName()), -1);
+	}
+	int classId = internSymbol(ClassKind, -1, internString(entry.getClassName()), -1);
+	if (entry instanceof FieldEntry) {
+	    return internSymbol(FieldKind, classId, internString(entry.getName()), -1);
+	} else if (entry instanceof MethodEntry) {
+	    return internSymbol(MethodKind, classId, internString(entry.getName()),
+		    internString(((MethodEntry) entry).getSignature()));
+	} else if (entry instanceof ConstructorEntry) {
+	    ConstructorEntry constructorEntry = (ConstructorEntry) entry;
+	    if (constructorEntry.isStatic()) {
+		return internSymbol(StaticInitializerKind, classId, -1, -1);
+	    }
+	    return internSymbol(ConstructorKind, classId, -1, internString(constructorEntry.getSignature()));
+	}
+	throw new Error("Entry type not supported: " + entry.getClass().getName());
+    }
+
+    public Entry get(int id) {
+	switch (m_kinds[id]) {
+	case ClassKind:
+	    return new ClassEntry(m_strings[m_names[id]]);
+	case FieldKind:
+	    return new FieldEntry(getClassEntry(id), m_strings[m_names[id]]);
+	case MethodKind:
+	    return new MethodEntry(getClassEntry(id), m_strings[m_names[id]], m_strings[m_signatures[id]]);
+	case ConstructorKind:
+	    return new ConstructorEntry(getClassEntry(id), m_strings[m_signatures[id]]);
+	case StaticInitializerKind:
+	    return new ConstructorEntry(getClassEntry(id));
+	default:
+	    throw new Error("Unknown symbol kind: " + m_kinds[id]);
+	}
+    }
+
+    public byte getKind(int id) {
+	return m_kinds[id];
+    }
+
+    public int getClassId(int id) {
+	if (m_kinds[id] == ClassKind) {
+	    return id;
+	}
+	return m_classes[id];
+    }
+
+    public String getClassName(int id) {
+	return m_strings[m_names[getClassId(id)]];
+    }
+
+    public ClassEntry getClassEntry(int id) {
+	return new ClassEntry(getClassName(id));
+    }
+
+    public int[] renameMethods(Map<MethodEntry, MethodEntry> renames) {
+	List<Integer> ids = Lists.newArrayList();
+	List<String> newNames = Lists.newArrayList();
+	for (Map.Entry<MethodEntry, MethodEntry> entry : renames.entrySet()) {
+	    int id = getId(entry.getKey());
+	    if (id >= 0) {
+		ids.add(id);
+		newNames.add(entry.getValue().getName());
+	    }
+	}
+	for (int i = 0; i < ids.size(); i++) {
+	    m_names[ids.get(i)] = internString(newNames.get(i));
+	}
+	return rehash();
+    }
+
+    private int[] rehash() {
+	// renames can make two symbols equal, so merge them and pack the ids
+	// returns the old id -> new id mapping, or null if no ids changed
+	int[] remap = new int[m_numSymbols];
+	boolean merged = false;
+	int numSymbols = 0;
+	m_symbolSlots = newSlots(m_symbolSlots.length);
+	for (int id = 0; id < m_numSymbols; id++) {
+	    byte kind = m_kinds[id];
+	    int classId = kind == ClassKind ? -1 : remap[m_classes[id]];
+	    int nameId = m_names[id];
+	    int signatureId = m_signatures[id];
+	    int slot = findSlot(kind, classId, nameId, signatureId);
+	    if (m_symbolSlots[slot] >= 0) {
+		remap[id] = m_symbolSlots[slot];
+		merged = true;
+	    } else {
+		m_kinds[numSymbols] = kind;
+		m_classes[numSymbols] = classId;
+		m_names[numSymbols] = nameId;
+		m_signatures[numSymbols] = signatureId;
+		m_symbolSlots[slot] = numSymbols;
+		remap[id] = numSymbols;
+		numSymbols++;
+	    }
+	}
+	m_numSymbols = numSymbols;
+	return merged ? remap : null;
+    }
+
+    private int findString(String string) {
+	int mask = m_stringSlots.length - 1;
+	for (int slot = mix(string.hashCode()) & mask;; slot = (slot + 1) & mask) {
+	    int id = m_stringSlots[slot];
+	    if (id < 0) {
+		return -1;
+	    } else if (m_strings[id].equals(string)) {
+		return id;
+	    }
+	}
+    }
+
+    private int internString(String string) {
+	int id = findString(string);
+	if (id >= 0) {
+	    return id;
+	}
+	if (m_numStrings == m_strings.length) {
+	    m_strings = Arrays.copyOf(m_strings, m_numStrings * 2);
+	}
+	id = m_numStrings++;
+	m_strings[id] = string;
+	if (isOverloaded(m_numStrings, m_stringSlots)) {
+	    rehashStrings(m_stringSlots.length * 2);
+	} else {
+	    insertString(id);
+	}
+	return id;
+    }
+
+    private void insertString(int id) {
+	int mask = m_stringSlots.length - 1;
+	int slot = mix(m_strings[id].hashCode()) & mask;
+	while (m_stringSlots[slot] >= 0) {
+	    slot = (slot + 1) & mask;
+	}
+	m_stringSlots[slot] = id;
+    }
+
+    private int findSymbol(byte kind, int classId, int nameId, int signatureId) {
+	return m_symbolSlots[findSlot(kind, classId, nameId, signatureId)];
+    }
+
+    private int findSlot(byte kind, int classId, int nameId, int signatureId) {
+	// returns the slot holding the symbol, or the empty slot where it should go
+	int mask = m_symbolSlots.length - 1;
+	int slot = hash(kind, classId, nameId, signatureId) & mask;
+	while (true) {
+	    int id = m_symbolSlots[slot];
+	    if (id < 0 || (m_kinds[id] == kind && m_classes[id] == classId && m_names[id] == nameId
+		    && m_signatures[id] == signatureId)) {
+		return slot;
+	    }
+	    slot = (slot + 1) & mask;
+	}
+    }
+
+    private int internSymbol(byte kind, int classId, int nameId, int signatureId) {
+	int slot = findSlot(kind, classId, nameId, signatureId);
+	if (m_symbolSlots[slot] >= 0) {
+	    return m_symbolSlots[slot];
+	}
+	if (m_numSymbols == m_kinds.length) {
+	    resizeSymbols(Math.max(16, m_numSymbols * 2));
+	}
+	int id = m_numSymbols++;
+	m_kinds[id] = kind;
+	m_classes[id] = classId;
+	m_names[id] = nameId;
+	m_signatures[id] = signatureId;
+	if (isOverloaded(m_numSymbols, m_symbolSlots)) {
+	    rehashSymbols(m_symbolSlots.length * 2);
+	} else {
+	    m_symbolSlots[slot] = id;
+	}
+	return id;
+    }
+
+    public void compact() {
+	// once the jar is indexed, nothing much gets added, so drop the room left for growing
+	m_strings = Arrays.copyOf(m_strings, Math.max(16, m_numStrings));
+	rehashStrings(getNumSlots(m_numStrings));
+	resizeSymbols(Math.max(16, m_numSymbols));
+	rehashSymbols(getNumSlots(m_numSymbols));
+    }
+
+    private void resizeSymbols(int capacity) {
+	m_kinds = Arrays.copyOf(m_kinds, capacity);
+	m_classes = Arrays.copyOf(m_classes, capacity);
+	m_names = Arrays.copyOf(m_names, capacity);
+	m_signatures = Arrays.copyOf(m_signatures, capacity);
+    }
+
+    private void rehashStrings(int numSlots) {
+	m_stringSlots = newSlots(numSlots);
+	for (int i = 0; i < m_numStrings; i++) {
+	    insertString(i);
+	}
+    }
+
+    private void rehashSymbols(int numSlots) {
+	m_symbolSlots = newSlots(numSlots);
+	for (int i = 0; i < m_numSymbols; i++) {
+	    m_symbolSlots[findSlot(m_kinds[i], m_classes[i], m_names[i], m_signatures[i])] = i;
+	}
+    }
+
+    private static boolean isOverloaded(int size, int[] slots) {
+	// keep the probe chains short, but don't pay for more than a quarter of the slots being empty
+	return size * 4 > slots.length * 3;
+    }
+
+    private static int getNumSlots(int size) {
+	int numSlots = 32;
+	while (size * 4 > numSlots * 3) {
+	    numSlots *= 2;
+	}
+	return numSlots;
+    }
+
+    private static int[] newSlots(int size) {
+	int[] slots = new int[size];
+	Arrays.fill(slots, -1);
+	return slots;
+    }
+
+    private static int hash(byte kind, int classId, int nameId, int signatureId) {
+	int hash = kind;
+	hash = hash * 31 + classId;
+	hash = hash * 31 + nameId;
+	hash = hash * 31 + signatureId;
+	return mix(hash);
+    }
+
+    private static int mix(int hash) {
+	// spread the bits out, the ids are dense so the low bits alone cluster badly
+	hash ^= hash >>> 16;
+	hash *= 0x85ebca6b;
+	hash ^= hash >>> 13;
+	return hash;
+    }
+}
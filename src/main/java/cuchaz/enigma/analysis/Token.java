@@ -36,6 +36,12 @@ public class Token implements Comparable<Token> {
 	return start - other.start;
     }
 
+    @Override
+    public int hashCode() {
+	// tokens are map keys all over the place, so this has to agree with equals()
+	return start * 67 + end;
+    }
+
     @Override
     public boolean equals(Object other) {
 	if (other instanceof Token) {
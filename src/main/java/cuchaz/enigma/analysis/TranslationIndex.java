@@ -18,7 +18,7 @@ import java.util.Set;
 
 import javassist.bytecode.Descriptor;
 
-import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
@@ -26,17 +26,21 @@ import com.google.common.collect.Multimap;
 public class TranslationIndex implements Serializable {
     private static final long serialVersionUID = 738687982126844179L;
 
-    private Map<String, String> m_superclasses;
-    private Multimap<String, String> m_fields;
+    protected Map<String, String> m_superclasses;
+    protected Multimap<String, String> m_subclasses;
+    protected Multimap<String, String> m_fields;
 
     public TranslationIndex() {
 	m_superclasses = Maps.newHashMap();
-	m_fields = HashMultimap.create();
+	// most classes have only a few subclasses and fields, so lists are much smaller than hash sets
+	m_subclasses = ArrayListMultimap.create();
+	m_fields = ArrayListMultimap.create();
     }
 
     public TranslationIndex(TranslationIndex other) {
 	m_superclasses = Maps.newHashMap(other.m_superclasses);
-	m_fields = HashMultimap.create(other.m_fields);
+	m_subclasses = ArrayListMultimap.create(other.m_subclasses);
+	m_fields = ArrayListMultimap.create(other.m_fields);
     }
 
     public void addSuperclass(String className, String superclassName) {
@@ -48,7 +52,11 @@ public class TranslationIndex implements Serializable {
 	}
 
 	if (!isJre(className) && !isJre(superclassName)) {
-	    m_superclasses.put(className, superclassName);
+	    String oldSuperclassName = m_superclasses.put(className, superclassName);
+	    if (oldSuperclassName != null) {
+		m_subclasses.remove(oldSuperclassName, className);
+	    }
+	    m_subclasses.put(superclassName, className);
 	}
     }
 
@@ -58,6 +66,7 @@ public class TranslationIndex implements Serializable {
 
     public void renameClasses(Map<String, String> renames) {
 	EntryRenamer.renameClassesInMap(renames, m_superclasses);
+	EntryRenamer.renameClassesInMultimap(renames, m_subclasses);
 	EntryRenamer.renameClassesInMultimap(renames, m_fields);
     }
 
@@ -77,16 +86,7 @@ public class TranslationIndex implements Serializable {
     }
 
     public List<String> getSubclassNames(String className) {
-	// linear search is fast enough for now
-	List<String> subclasses = Lists.newArrayList();
-	for (Map.Entry<String, String> entry : m_superclasses.entrySet()) {
-	    String subclass = entry.getKey();
-	    String superclass = entry.getValue();
-	    if (className.equals(superclass)) {
-		subclasses.add(subclass);
-	    }
-	}
-	return subclasses;
+	return Lists.newArrayList(m_subclasses.get(className));
     }
 
     public void getSubclassNamesRecursively(Set<String> out, String className) {
@@ -37,6 +37,7 @@ import com.google.common.collect.Maps;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.Sets;
 
+import cuchaz.enigma.ClassSource;
 import cuchaz.enigma.TranslatingTypeLoader;
 import cuchaz.enigma.analysis.JarIndex;
 import cuchaz.enigma.convert.ClassNamer.SidedClassNamer;
@@ -76,7 +77,7 @@ public class ClassMatcher {
     }
 
     private static void convertMappings(JarFile sourceJar, JarFile destJar, Mappings mappings,
-	    Map<String, String> fallbackMatching) {
+	    Map<String, String> fallbackMatching) throws IOException {
 	// index jars
 	System.out.println("Indexing source jar...");
 	JarIndex sourceIndex = new JarIndex();
@@ -84,9 +85,16 @@ public class ClassMatcher {
 	System.out.println("Indexing dest jar...");
 	JarIndex destIndex = new JarIndex();
 	destIndex.indexJar(destJar, false);
-	TranslatingTypeLoader sourceLoader = new TranslatingTypeLoader(sourceJar, sourceIndex);
-	TranslatingTypeLoader destLoader = new TranslatingTypeLoader(destJar, destIndex);
+	// matching reads every class many times, so keep the bytes around instead of inflating them each time
+	try (ClassSource sourceClasses = ClassSource.open(new File(sourceJar.getName()));
+		ClassSource destClasses = ClassSource.open(new File(destJar.getName()))) {
+	    convertMappings(sourceIndex, new TranslatingTypeLoader(sourceClasses, sourceIndex), destIndex,
+		    new TranslatingTypeLoader(destClasses, destIndex), mappings, fallbackMatching);
+	}
+    }
 
+    private static void convertMappings(JarIndex sourceIndex, TranslatingTypeLoader sourceLoader, JarIndex destIndex,
+	    TranslatingTypeLoader destLoader, Mappings mappings, Map<String, String> fallbackMatching) {
 	// compute the matching
 	ClassMatching matching = computeMatching(sourceIndex, sourceLoader, destIndex, destLoader);
 	Map<String, Map.Entry<ClassIdentity, List<ClassIdentity>>> matchingIndex = matching.getIndex();
@@ -0,0 +1,135 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.gui;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.swing.SwingUtilities;
+
+public class DecompileScheduler {
+    public static abstract class Job {
+	private DecompileScheduler m_scheduler;
+	private long m_generation;
+
+	public abstract void run();
+
+	public boolean isCancelled() {
+	    // decompiling can't be interrupted, so jobs should check this between steps
+	    return m_scheduler.m_generation.get() != m_generation;
+	}
+
+	protected void publish(final Runnable runnable) {
+	    // results go out on the event thread, and only if nothing newer was scheduled by the time they get there
+	    // the gui cancels and schedules jobs on the event thread too, so it can't change its mind half way through
+	    SwingUtilities.invokeLater(new Runnable() {
+		@Override
+		public void run() {
+		    if (!isCancelled()) {
+			runnable.run();
+		    }
+		}
+	    });
+	}
+    }
+
+    private ExecutorService m_executor;
+    private AtomicLong m_generation;
+    private AtomicReference<Job> m_pendingJob;
+    private AtomicLong m_numQueued;
+    private AtomicLong m_numCancelled;
+    private AtomicLong m_numCompleted;
+
+    public DecompileScheduler() {
+	m_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "Decompiler");
+		thread.setDaemon(true);
+		return thread;
+	    }
+	});
+	m_generation = new AtomicLong(0);
+	m_pendingJob = new AtomicReference<Job>(null);
+	m_numQueued = new AtomicLong(0);
+	m_numCancelled = new AtomicLong(0);
+	m_numCompleted = new AtomicLong(0);
+    }
+
+    public synchronized void schedule(Job job) {
+	job.m_scheduler = this;
+	job.m_generation = m_generation.incrementAndGet();
+	m_numQueued.incrementAndGet();
+
+	// if the last job hasn't started yet, this one just takes its place
+	Job replacedJob = m_pendingJob.getAndSet(job);
+	if (replacedJob != null) {
+	    m_numCancelled.incrementAndGet();
+	} else {
+	    m_executor.execute(new Runnable() {
+		@Override
+		public void run() {
+		    runPendingJob();
+		}
+	    });
+	}
+    }
+
+    public synchronized void cancel() {
+	// anything that's already running finds out the next time it checks
+	m_generation.incrementAndGet();
+    }
+
+    private void runPendingJob() {
+	Job job = m_pendingJob.getAndSet(null);
+	if (job == null) {
+	    return;
+	}
+	if (job.isCancelled()) {
+	    m_numCancelled.incrementAndGet();
+	    return;
+	}
+
+	try {
+	    job.run();
+	} catch (Throwable t) {
+	    // don't take the decompile thread down with the job
+	    t.printStackTrace(System.err);
+	}
+
+	if (job.isCancelled()) {
+	    m_numCancelled.incrementAndGet();
+	} else {
+	    m_numCompleted.incrementAndGet();
+	}
+    }
+
+    public long getNumQueued() {
+	return m_numQueued.get();
+    }
+
+    public long getNumCancelled() {
+	return m_numCancelled.get();
+    }
+
+    public long getNumCompleted() {
+	return m_numCompleted.get();
+    }
+
+    @Override
+    public String toString() {
+	return String.format("%d queued, %d cancelled, %d completed", getNumQueued(), getNumCancelled(),
+		getNumCompleted());
+    }
+}
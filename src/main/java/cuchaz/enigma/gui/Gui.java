@@ -124,6 +124,7 @@ public class Gui {
     private JMenuItem m_showImplementationsMenu;
     private JMenuItem m_toggleMappingMenu;
     private JMenuItem m_exportSourceMenu;
+    private JMenuItem m_exportSourceArchiveMenu;
     private JMenuItem m_exportJarMenu;
 
     // state
@@ -131,6 +132,7 @@ public class Gui {
     private JFileChooser m_jarFileChooser;
     private JFileChooser m_mappingsFileChooser;
     private JFileChooser m_exportSourceFileChooser;
+    private JFileChooser m_exportSourceArchiveFileChooser;
     private JFileChooser m_exportJarFileChooser;
 
     public Gui() {
@@ -158,6 +160,7 @@ public class Gui {
 	m_mappingsFileChooser = new JFileChooser();
 	m_exportSourceFileChooser = new JFileChooser();
 	m_exportSourceFileChooser.setFileSelectionMode(JFileChooser.DIRECTORIES_ONLY);
+	m_exportSourceArchiveFileChooser = new JFileChooser();
 	m_exportJarFileChooser = new JFileChooser();
 
 	// init obfuscated classes list
@@ -596,6 +599,19 @@ public class Gui {
 		});
 		m_exportSourceMenu = item;
 	    }
+	    {
+		JMenuItem item = new JMenuItem("Export Source Archive...");
+		menu.add(item);
+		item.addActionListener(new ActionListener() {
+		    @Override
+		    public void actionPerformed(ActionEvent event) {
+			if (m_exportSourceArchiveFileChooser.showSaveDialog(m_frame) == JFileChooser.APPROVE_OPTION) {
+			    m_controller.exportSourceArchive(m_exportSourceArchiveFileChooser.getSelectedFile());
+			}
+		    }
+		});
+		m_exportSourceArchiveMenu = item;
+	    }
 	    {
 		JMenuItem item = new JMenuItem("Export Jar...");
 		menu.add(item);
@@ -685,6 +701,7 @@ public class Gui {
 	m_saveMappingsAsMenu.setEnabled(true);
 	m_closeMappingsMenu.setEnabled(true);
 	m_exportSourceMenu.setEnabled(true);
+	m_exportSourceArchiveMenu.setEnabled(true);
 	m_exportJarMenu.setEnabled(true);
 
 	redraw();
@@ -705,6 +722,7 @@ public class Gui {
 	m_saveMappingsAsMenu.setEnabled(false);
 	m_closeMappingsMenu.setEnabled(false);
 	m_exportSourceMenu.setEnabled(false);
+	m_exportSourceArchiveMenu.setEnabled(false);
 	m_exportJarMenu.setEnabled(false);
 
 	redraw();
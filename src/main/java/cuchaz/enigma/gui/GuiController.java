@@ -17,8 +17,11 @@ import java.io.IOException;
 import java.util.Collection;
 import java.util.Deque;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Queues;
 import com.strobel.decompiler.languages.java.ast.CompilationUnit;
 
@@ -45,20 +48,30 @@ import cuchaz.enigma.mapping.MethodEntry;
 import cuchaz.enigma.mapping.TranslationDirection;
 
 public class GuiController {
+    private static final int SourceCacheSize = 32;
+
     private Deobfuscator m_deobfuscator;
     private Gui m_gui;
     private SourceIndex m_index;
+    private SourceCache.Source m_source;
     private ClassEntry m_currentObfClass;
     private boolean m_isDirty;
     private Deque<EntryReference<Entry, Entry>> m_referenceStack;
+    private SourceCache m_sourceCache;
+    private DecompileScheduler m_decompileScheduler;
+    private SourcePrefetcher m_prefetcher;
 
     public GuiController(Gui gui) {
 	m_gui = gui;
 	m_deobfuscator = null;
 	m_index = null;
+	m_source = null;
 	m_currentObfClass = null;
 	m_isDirty = false;
 	m_referenceStack = Queues.newArrayDeque();
+	m_sourceCache = new SourceCache(SourceCacheSize);
+	m_decompileScheduler = new DecompileScheduler();
+	m_prefetcher = new SourcePrefetcher(m_sourceCache);
     }
 
     public boolean isDirty() {
@@ -67,19 +80,40 @@ public class GuiController {
 
     public void openJar(final File file) throws IOException {
 	m_gui.onStartOpenJar();
-	m_deobfuscator = new Deobfuscator(file);
+	Deobfuscator deobfuscator = new Deobfuscator(file);
+	closeDeobfuscator();
+	m_deobfuscator = deobfuscator;
+	m_sourceCache.clear();
 	m_gui.onFinishOpenJar(m_deobfuscator.getJarName());
 	refreshClasses();
     }
 
     public void closeJar() {
+	closeDeobfuscator();
 	m_deobfuscator = null;
+	m_sourceCache.clear();
 	m_gui.onCloseJar();
     }
 
+    private void closeDeobfuscator() {
+	if (m_deobfuscator == null) {
+	    return;
+	}
+
+	// let go of the old jar's mapping and class bytes now, instead of whenever the gc gets around to it
+	m_decompileScheduler.cancel();
+	m_prefetcher.backOff();
+	try {
+	    m_deobfuscator.close();
+	} catch (IOException ex) {
+	    System.err.println("WARNING: Unable to close jar " + m_deobfuscator.getJarName() + ": " + ex);
+	}
+    }
+
     public void openMappings(File file) throws IOException, MappingParseException {
 	FileReader in = new FileReader(file);
 	m_deobfuscator.setMappings(new MappingsReader().read(in));
+	m_sourceCache.clear();
 	in.close();
 	m_isDirty = false;
 	m_gui.setMappingsFile(file);
@@ -96,6 +130,7 @@ public class GuiController {
 
     public void closeMappings() {
 	m_deobfuscator.setMappings(null);
+	m_sourceCache.clear();
 	m_gui.setMappingsFile(null);
 	refreshClasses();
 	refreshCurrentClass();
@@ -110,6 +145,15 @@ public class GuiController {
 	});
     }
 
+    public void exportSourceArchive(final File fileOut) {
+	ProgressDialog.runInThread(m_gui.getFrame(), new ProgressRunnable() {
+	    @Override
+	    public void run(ProgressListener progress) throws Exception {
+		m_deobfuscator.writeSourceArchive(fileOut, progress, true);
+	    }
+	});
+    }
+
     public void exportJar(final File fileOut) {
 	ProgressDialog.runInThread(m_gui.getFrame(), new ProgressRunnable() {
 	    @Override
@@ -201,26 +245,35 @@ public class GuiController {
 
     public void rename(EntryReference<Entry, Entry> deobfReference, String newName) {
 	EntryReference<Entry, Entry> obfReference = m_deobfuscator.obfuscateReference(deobfReference);
+	Set<Entry> obfEntries = m_deobfuscator.getAffectedEntries(obfReference.getNameableEntry());
+	Map<Token, EntryReference<Entry, Entry>> obfReferences = getObfReferences();
 	m_deobfuscator.rename(obfReference.getNameableEntry(), newName);
+	m_sourceCache.invalidate(obfEntries);
 	m_isDirty = true;
 	refreshClasses();
-	refreshCurrentClass(obfReference);
+	refreshCurrentClass(obfReference, obfEntries, obfReferences);
     }
 
     public void removeMapping(EntryReference<Entry, Entry> deobfReference) {
 	EntryReference<Entry, Entry> obfReference = m_deobfuscator.obfuscateReference(deobfReference);
+	Set<Entry> obfEntries = m_deobfuscator.getAffectedEntries(obfReference.getNameableEntry());
+	Map<Token, EntryReference<Entry, Entry>> obfReferences = getObfReferences();
 	m_deobfuscator.removeMapping(obfReference.getNameableEntry());
+	m_sourceCache.invalidate(obfEntries);
 	m_isDirty = true;
 	refreshClasses();
-	refreshCurrentClass(obfReference);
+	refreshCurrentClass(obfReference, obfEntries, obfReferences);
     }
 
     public void markAsDeobfuscated(EntryReference<Entry, Entry> deobfReference) {
 	EntryReference<Entry, Entry> obfReference = m_deobfuscator.obfuscateReference(deobfReference);
+	Set<Entry> obfEntries = m_deobfuscator.getAffectedEntries(obfReference.getNameableEntry());
+	Map<Token, EntryReference<Entry, Entry>> obfReferences = getObfReferences();
 	m_deobfuscator.markAsDeobfuscated(obfReference.getNameableEntry());
+	m_sourceCache.invalidate(obfEntries);
 	m_isDirty = true;
 	refreshClasses();
-	refreshCurrentClass(obfReference);
+	refreshCurrentClass(obfReference, obfEntries, obfReferences);
     }
 
     public void openDeclaration(Entry deobfEntry) {
@@ -294,46 +347,155 @@ public class GuiController {
 	}
     }
 
+    private void refreshCurrentClass(EntryReference<Entry, Entry> obfReference, Set<Entry> renamedObfEntries,
+	    Map<Token, EntryReference<Entry, Entry>> obfReferences) {
+	if (m_currentObfClass == null) {
+	    return;
+	}
+
+	// most renames only change a few names in the source, so patch those up instead of decompiling again
+	SourceIndex index = null;
+	if (m_source != null && obfReferences != null) {
+	    index = renameTokens(m_source.getIndex(), obfReferences, renamedObfEntries);
+	}
+	if (index == null) {
+	    deobfuscate(m_currentObfClass, obfReference);
+	    return;
+	}
+
+	// NOTE: the tree still has the old names, but nothing reads names from it after the index is built
+	m_decompileScheduler.cancel();
+	SourceCache.Source source = new SourceCache.Source(m_source.getSourceTree(), index.getSource(), index,
+		m_source.getObfDependencies());
+	m_sourceCache.put(m_currentObfClass, source, m_sourceCache.getVersion());
+	showSource(m_currentObfClass, source, obfReference);
+    }
+
+    private Map<Token, EntryReference<Entry, Entry>> getObfReferences() {
+	// remember what the tokens point to before the names change
+	if (m_source == null) {
+	    return null;
+	}
+	Map<Token, EntryReference<Entry, Entry>> obfReferences = Maps.newHashMap();
+	for (Token token : m_index.referenceTokens()) {
+	    obfReferences.put(token, m_deobfuscator.obfuscateReference(m_index.getDeobfReference(token)));
+	}
+	return obfReferences;
+    }
+
+    private SourceIndex renameTokens(SourceIndex index, Map<Token, EntryReference<Entry, Entry>> obfReferences,
+	    Set<Entry> renamedObfEntries) {
+	// renaming a class can change imports, packages, and the order of things, so only members get the fast path
+	for (Entry obfEntry : renamedObfEntries) {
+	    if (obfEntry instanceof ClassEntry) {
+		return null;
+	    }
+	}
+
+	Map<Token, String> newTexts = Maps.newHashMap();
+	Map<Token, EntryReference<Entry, Entry>> deobfReferences = Maps.newHashMap();
+	for (Map.Entry<Token, EntryReference<Entry, Entry>> entry : obfReferences.entrySet()) {
+	    Token token = entry.getKey();
+	    EntryReference<Entry, Entry> obfReference = entry.getValue();
+	    EntryReference<Entry, Entry> deobfReference = m_deobfuscator.deobfuscateReference(obfReference);
+	    deobfReferences.put(token, deobfReference);
+	    if (renamedObfEntries.contains(obfReference.getNameableEntry())) {
+		// make sure the token really shows the old name, otherwise we'd better decompile again
+		if (!token.text.equals(index.getDeobfReference(token).getNamableName())) {
+		    return null;
+		}
+		newTexts.put(token, deobfReference.getNamableName());
+	    }
+	}
+	return index.replaceTokens(newTexts, deobfReferences);
+    }
+
     private void deobfuscate(final ClassEntry classEntry, final EntryReference<Entry, Entry> obfReference) {
+	// whatever was decompiling before is old news now
+	m_decompileScheduler.cancel();
+	m_prefetcher.backOff();
 	m_gui.setSource("(deobfuscating...)");
+	m_source = null;
 
-	// run the deobfuscator in a separate thread so we don't block the GUI
+	// run the deobfuscator on the decompile thread so we don't block the GUI
 	// event queue
-	new Thread() {
+	m_decompileScheduler.schedule(new DecompileScheduler.Job() {
 	    @Override
 	    public void run() {
-		// decompile,deobfuscate the bytecode
-		CompilationUnit sourceTree = m_deobfuscator.getSourceTree(classEntry.getClassName());
-		if (sourceTree == null) {
-		    // decompilation of this class is not supported
-		    m_gui.setSource("Unable to find class: " + classEntry);
-		    return;
-		}
-		String source = m_deobfuscator.getSource(sourceTree);
-		m_index = m_deobfuscator.getSourceIndex(sourceTree, source);
-		m_gui.setSource(m_index.getSource());
-		if (obfReference != null) {
-		    showReference(obfReference);
+		// did we decompile this class recently?
+		SourceCache.Source source = m_sourceCache.get(classEntry);
+		if (source == null) {
+		    long version = m_sourceCache.getVersion();
+
+		    // decompile,deobfuscate the bytecode
+		    CompilationUnit sourceTree = m_deobfuscator.getSourceTree(classEntry.getClassName());
+		    if (sourceTree == null) {
+			// decompilation of this class is not supported
+			publish(new Runnable() {
+			    @Override
+			    public void run() {
+				m_gui.setSource("Unable to find class: " + classEntry);
+			    }
+			});
+			return;
+		    }
+		    if (isCancelled()) {
+			return;
+		    }
+		    String sourceText = m_deobfuscator.getSource(sourceTree);
+		    if (isCancelled()) {
+			return;
+		    }
+		    SourceIndex index = m_deobfuscator.getSourceIndex(sourceTree, sourceText);
+
+		    // even if nobody wants this class anymore, it's worth keeping
+		    source = new SourceCache.Source(sourceTree, sourceText, index, SourceCache.getObfDependencies(m_deobfuscator,
+			    classEntry, index));
+		    m_sourceCache.put(classEntry, source, version);
 		}
 
-		// set the highlighted tokens
-		List<Token> obfuscatedTokens = Lists.newArrayList();
-		List<Token> deobfuscatedTokens = Lists.newArrayList();
-		List<Token> otherTokens = Lists.newArrayList();
-		for (Token token : m_index.referenceTokens()) {
-		    EntryReference<Entry, Entry> reference = m_index.getDeobfReference(token);
-		    if (referenceIsRenameable(reference)) {
-			if (entryHasDeobfuscatedName(reference.getNameableEntry())) {
-			    deobfuscatedTokens.add(token);
-			} else {
-			    obfuscatedTokens.add(token);
-			}
-		    } else {
-			otherTokens.add(token);
+		final SourceCache.Source finalSource = source;
+		publish(new Runnable() {
+		    @Override
+		    public void run() {
+			showSource(classEntry, finalSource, obfReference);
 		    }
+		});
+
+		// DEBUG
+		// System.out.println( "Decompiles: " + m_decompileScheduler );
+	    }
+	});
+    }
+
+    private void showSource(ClassEntry obfClassEntry, SourceCache.Source source,
+	    EntryReference<Entry, Entry> obfReference) {
+	m_source = source;
+	m_index = source.getIndex();
+	m_gui.setSource(m_index.getSource());
+	if (obfReference != null) {
+	    showReference(obfReference);
+	}
+
+	// set the highlighted tokens
+	List<Token> obfuscatedTokens = Lists.newArrayList();
+	List<Token> deobfuscatedTokens = Lists.newArrayList();
+	List<Token> otherTokens = Lists.newArrayList();
+	for (Token token : m_index.referenceTokens()) {
+	    EntryReference<Entry, Entry> reference = m_index.getDeobfReference(token);
+	    if (referenceIsRenameable(reference)) {
+		if (entryHasDeobfuscatedName(reference.getNameableEntry())) {
+		    deobfuscatedTokens.add(token);
+		} else {
+		    obfuscatedTokens.add(token);
 		}
-		m_gui.setHighlightedTokens(obfuscatedTokens, deobfuscatedTokens, otherTokens);
+	    } else {
+		otherTokens.add(token);
 	    }
-	}.start();
+	}
+	m_gui.setHighlightedTokens(obfuscatedTokens, deobfuscatedTokens, otherTokens);
+
+	// while the user reads this class, get the ones they'll probably want next
+	m_prefetcher.prefetch(m_deobfuscator, obfClassEntry, m_index);
     }
 }
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.gui;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+import com.google.common.collect.Sets;
+import com.strobel.decompiler.languages.java.ast.CompilationUnit;
+
+import cuchaz.enigma.Deobfuscator;
+import cuchaz.enigma.analysis.EntryReference;
+import cuchaz.enigma.analysis.SourceIndex;
+import cuchaz.enigma.analysis.Token;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.Entry;
+
+public class SourceCache {
+    public static class Source {
+	private CompilationUnit m_sourceTree;
+	private String m_source;
+	private SourceIndex m_index;
+	private Set<Entry> m_obfDependencies;
+
+	public Source(CompilationUnit sourceTree, String source, SourceIndex index, Set<Entry> obfDependencies) {
+	    m_sourceTree = sourceTree;
+	    m_source = source;
+	    m_index = index;
+	    m_obfDependencies = obfDependencies;
+	}
+
+	public CompilationUnit getSourceTree() {
+	    return m_sourceTree;
+	}
+
+	public String getSource() {
+	    return m_source;
+	}
+
+	public SourceIndex getIndex() {
+	    return m_index;
+	}
+
+	public Set<Entry> getObfDependencies() {
+	    return m_obfDependencies;
+	}
+    }
+
+    private Map<ClassEntry, Source> m_sources;
+    private long m_version;
+
+    public SourceCache(final int maxNumClasses) {
+	// keep the most recently viewed classes
+	m_sources = new LinkedHashMap<ClassEntry, Source>(16, 0.75f, true) {
+	    private static final long serialVersionUID = 4385307512209432961L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<ClassEntry, Source> eldest) {
+		return size() > maxNumClasses;
+	    }
+	};
+	m_version = 0;
+    }
+
+    public synchronized Source get(ClassEntry obfClassEntry) {
+	return m_sources.get(obfClassEntry);
+    }
+
+    public synchronized boolean contains(ClassEntry obfClassEntry) {
+	// unlike get(), this doesn't count as a use
+	return m_sources.containsKey(obfClassEntry);
+    }
+
+    public synchronized long getVersion() {
+	return m_version;
+    }
+
+    public synchronized void put(ClassEntry obfClassEntry, Source source, long version) {
+	// if the mappings changed while this class was decompiling, the source could already be stale
+	if (version == m_version) {
+	    m_sources.put(obfClassEntry, source);
+	}
+    }
+
+    public synchronized void invalidate(Collection<? extends Entry> obfEntries) {
+	m_version++;
+
+	// drop every class that shows one of these entries
+	Iterator<Source> iter = m_sources.values().iterator();
+	while (iter.hasNext()) {
+	    Set<Entry> obfDependencies = iter.next().getObfDependencies();
+	    for (Entry obfEntry : obfEntries) {
+		if (obfDependencies.contains(obfEntry)) {
+		    iter.remove();
+		    break;
+		}
+	    }
+	}
+    }
+
+    public synchronized void clear() {
+	m_version++;
+	m_sources.clear();
+    }
+
+    public static Set<Entry> getObfDependencies(Deobfuscator deobfuscator, ClassEntry obfClassEntry,
+	    SourceIndex index) {
+	// the source only changes when one of the entries it shows gets a new name
+	Set<Entry> obfDependencies = Sets.newHashSet();
+	obfDependencies.add(obfClassEntry);
+	for (Token token : index.referenceTokens()) {
+	    EntryReference<Entry, Entry> obfReference = deobfuscator.obfuscateReference(index
+		    .getDeobfReference(token));
+	    obfDependencies.add(obfReference.entry);
+	    obfDependencies.add(obfReference.entry.getClassEntry());
+	    if (obfReference.context != null) {
+		obfDependencies.add(obfReference.context);
+	    }
+	}
+	return obfDependencies;
+    }
+}
@@ -0,0 +1,167 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma.gui;
+
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.strobel.decompiler.languages.java.ast.CompilationUnit;
+
+import cuchaz.enigma.Constants;
+import cuchaz.enigma.Deobfuscator;
+import cuchaz.enigma.Deobfuscator.SourceDecompiler;
+import cuchaz.enigma.analysis.EntryReference;
+import cuchaz.enigma.analysis.SourceIndex;
+import cuchaz.enigma.analysis.Token;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.Entry;
+
+public class SourcePrefetcher {
+    // don't let guesses push too many of the classes the user actually looked at out of the cache
+    private static final int MaxNumClasses = 8;
+
+    // the trees and indices weigh a lot more than the source text itself
+    private static final int BytesPerSourceChar = 32;
+    private static final long MemoryBudget = 32 * Constants.MiB;
+
+    // the superclass is where people go most often
+    private static final int SuperclassScore = 1000;
+
+    private SourceCache m_sourceCache;
+    private ExecutorService m_executor;
+    private AtomicLong m_generation;
+
+    public SourcePrefetcher(SourceCache sourceCache) {
+	m_sourceCache = sourceCache;
+	m_executor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+	    @Override
+	    public Thread newThread(Runnable runnable) {
+		Thread thread = new Thread(runnable, "Prefetcher");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		return thread;
+	    }
+	});
+	m_generation = new AtomicLong(0);
+    }
+
+    public void backOff() {
+	// the user wants something decompiled right now, so stop guessing
+	m_generation.incrementAndGet();
+    }
+
+    public void prefetch(final Deobfuscator deobfuscator, ClassEntry obfClassEntry, SourceIndex index) {
+	final long generation = m_generation.incrementAndGet();
+	final List<ClassEntry> obfClassEntries = getNeighbors(deobfuscator, obfClassEntry, index);
+	if (obfClassEntries.isEmpty()) {
+	    return;
+	}
+
+	// the translators change with the mappings, so grab them now
+	// read the version first, so a rename in between makes the cache drop what we decompile instead of keeping
+	// sources made with the old names
+	final long version = m_sourceCache.getVersion();
+	final SourceDecompiler decompiler = deobfuscator.newSourceDecompiler();
+
+	m_executor.execute(new Runnable() {
+	    @Override
+	    public void run() {
+		long numBytes = 0;
+		for (ClassEntry obfClassEntry : obfClassEntries) {
+		    if (m_generation.get() != generation) {
+			return;
+		    }
+
+		    // stay inside the budget, and don't prefetch ourselves into an out of memory error
+		    Runtime runtime = Runtime.getRuntime();
+		    long freeBytes = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		    if (numBytes >= MemoryBudget || freeBytes < MemoryBudget) {
+			return;
+		    }
+
+		    if (m_sourceCache.contains(obfClassEntry)) {
+			continue;
+		    }
+
+		    try {
+			CompilationUnit sourceTree = decompiler.getSourceTree(obfClassEntry.getName());
+			if (sourceTree == null || m_generation.get() != generation) {
+			    continue;
+			}
+			String source = decompiler.getSource(sourceTree);
+			SourceIndex index = deobfuscator.getSourceIndex(sourceTree, source);
+			if (m_generation.get() != generation) {
+			    return;
+			}
+			m_sourceCache.put(obfClassEntry, new SourceCache.Source(sourceTree, source, index,
+				SourceCache.getObfDependencies(deobfuscator, obfClassEntry, index)), version);
+			numBytes += (long) source.length() * BytesPerSourceChar;
+		    } catch (Throwable t) {
+			// it was only a guess anyway, the user will see the error if they open the class
+		    }
+		}
+	    }
+	});
+    }
+
+    private List<ClassEntry> getNeighbors(Deobfuscator deobfuscator, ClassEntry obfClassEntry, SourceIndex index) {
+	// the classes this one mentions the most are the most likely to be opened next
+	final Map<ClassEntry, Integer> scores = Maps.newHashMap();
+	for (Token token : index.referenceTokens()) {
+	    EntryReference<Entry, Entry> obfReference = deobfuscator.obfuscateReference(index
+		    .getDeobfReference(token));
+	    addScore(scores, obfReference.entry.getClassEntry().getOuterClassEntry(), 1);
+	}
+	String superclassName = deobfuscator.getJarIndex().getTranslationIndex()
+		.getSuperclassName(obfClassEntry.getName());
+	if (superclassName != null) {
+	    addScore(scores, new ClassEntry(superclassName).getOuterClassEntry(), SuperclassScore);
+	}
+
+	List<ClassEntry> obfClassEntries = Lists.newArrayList();
+	for (ClassEntry neighbor : scores.keySet()) {
+	    if (!neighbor.equals(obfClassEntry) && deobfuscator.isObfuscatedIdentifier(neighbor)
+		    && !m_sourceCache.contains(neighbor)) {
+		obfClassEntries.add(neighbor);
+	    }
+	}
+	Collections.sort(obfClassEntries, new Comparator<ClassEntry>() {
+	    @Override
+	    public int compare(ClassEntry a, ClassEntry b) {
+		int diff = scores.get(b) - scores.get(a);
+		if (diff != 0) {
+		    return diff;
+		}
+		return a.getName().compareTo(b.getName());
+	    }
+	});
+	if (obfClassEntries.size() > MaxNumClasses) {
+	    return Lists.newArrayList(obfClassEntries.subList(0, MaxNumClasses));
+	}
+	return obfClassEntries;
+    }
+
+    private void addScore(Map<ClassEntry, Integer> scores, ClassEntry obfClassEntry, int score) {
+	Integer oldScore = scores.get(obfClassEntry);
+	if (oldScore != null) {
+	    score += oldScore;
+	}
+	scores.put(obfClassEntry, score);
+    }
+}
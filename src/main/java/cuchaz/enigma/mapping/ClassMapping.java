@@ -28,6 +28,9 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     private Map<String, MethodMapping> m_methodsByObf;
     private Map<String, MethodMapping> m_methodsByDeobf;
 
+    // the copy the last translator got, so translators can share it until something in this class changes
+    private transient ClassMapping m_snapshot;
+
     public ClassMapping(String obfName) {
 	this(obfName, null);
     }
@@ -43,6 +46,58 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
 	m_methodsByDeobf = Maps.newHashMap();
     }
 
+    private ClassMapping(ClassMapping other) {
+	// a deep copy, so renames in the other mapping don't show up in this one
+	// inner classes have snapshots of their own, so share those instead of copying them again
+	m_obfName = other.m_obfName;
+	m_deobfName = other.m_deobfName;
+	Map<ClassMapping, ClassMapping> innerClasses = Maps.newIdentityHashMap();
+	for (ClassMapping classMapping : other.m_innerClassesByObf.values()) {
+	    innerClasses.put(classMapping, classMapping.getSnapshot());
+	}
+	m_innerClassesByObf = copy(other.m_innerClassesByObf, innerClasses);
+	m_innerClassesByDeobf = copy(other.m_innerClassesByDeobf, innerClasses);
+	Map<FieldMapping, FieldMapping> fields = Maps.newIdentityHashMap();
+	for (FieldMapping fieldMapping : other.m_fieldsByObf.values()) {
+	    fields.put(fieldMapping, new FieldMapping(fieldMapping));
+	}
+	m_fieldsByObf = copy(other.m_fieldsByObf, fields);
+	m_fieldsByDeobf = copy(other.m_fieldsByDeobf, fields);
+	Map<MethodMapping, MethodMapping> methods = Maps.newIdentityHashMap();
+	for (MethodMapping methodMapping : other.m_methodsByObf.values()) {
+	    methods.put(methodMapping, new MethodMapping(methodMapping));
+	}
+	m_methodsByObf = copy(other.m_methodsByObf, methods);
+	m_methodsByDeobf = copy(other.m_methodsByDeobf, methods);
+    }
+
+    ClassMapping getSnapshot() {
+	// inner classes can change without telling us, so make sure we still point at their latest snapshots
+	if (m_snapshot != null) {
+	    for (ClassMapping classMapping : m_innerClassesByObf.values()) {
+		if (classMapping.getSnapshot() != m_snapshot.m_innerClassesByObf.get(classMapping.m_obfName)) {
+		    m_snapshot = null;
+		    break;
+		}
+	    }
+	}
+	if (m_snapshot == null) {
+	    m_snapshot = new ClassMapping(this);
+	}
+	return m_snapshot;
+    }
+
+    private static <T> Map<String, T> copy(Map<String, T> map, Map<T, T> copies) {
+	// the obf and deobf maps hold the same mappings, so both copies have to point at the same new ones
+	Map<String, T> copy = Maps.newHashMap();
+	for (Map.Entry<String, T> entry : map.entrySet()) {
+	    T value = copies.get(entry.getValue());
+	    assert (value != null);
+	    copy.put(entry.getKey(), value);
+	}
+	return copy;
+    }
+
     public String getObfName() {
 	return m_obfName;
     }
@@ -52,6 +107,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void setDeobfName(String val) {
+	m_snapshot = null;
 	m_deobfName = NameValidator.validateClassName(val, false);
     }
 
@@ -63,6 +119,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void addInnerClassMapping(ClassMapping classMapping) {
+	m_snapshot = null;
 	assert (isSimpleClassName(classMapping.getObfName()));
 	boolean obfWasAdded = m_innerClassesByObf.put(classMapping.getObfName(), classMapping) == null;
 	assert (obfWasAdded);
@@ -74,6 +131,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void removeInnerClassMapping(ClassMapping classMapping) {
+	m_snapshot = null;
 	boolean obfWasRemoved = m_innerClassesByObf.remove(classMapping.getObfName()) != null;
 	assert (obfWasRemoved);
 	if (classMapping.getDeobfName() != null) {
@@ -86,6 +144,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
 	assert (isSimpleClassName(obfName));
 	ClassMapping classMapping = m_innerClassesByObf.get(obfName);
 	if (classMapping == null) {
+	    m_snapshot = null;
 	    classMapping = new ClassMapping(obfName);
 	    boolean wasAdded = m_innerClassesByObf.put(obfName, classMapping) == null;
 	    assert (wasAdded);
@@ -131,6 +190,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
 
     public void setInnerClassName(String obfName, String deobfName) {
 	assert (isSimpleClassName(obfName));
+	m_snapshot = null;
 	ClassMapping classMapping = getOrCreateInnerClass(obfName);
 	if (classMapping.getDeobfName() != null) {
 	    boolean wasRemoved = m_innerClassesByDeobf.remove(classMapping.getDeobfName()) != null;
@@ -160,6 +220,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void addFieldMapping(FieldMapping fieldMapping) {
+	m_snapshot = null;
 	if (m_fieldsByObf.containsKey(fieldMapping.getObfName())) {
 	    throw new Error("Already have mapping for " + m_obfName + "." + fieldMapping.getObfName());
 	}
@@ -174,6 +235,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void removeFieldMapping(FieldMapping fieldMapping) {
+	m_snapshot = null;
 	boolean obfWasRemoved = m_fieldsByObf.remove(fieldMapping.getObfName()) != null;
 	assert (obfWasRemoved);
 	if (fieldMapping.getDeobfName() != null) {
@@ -207,6 +269,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void setFieldName(String obfName, String deobfName) {
+	m_snapshot = null;
 	FieldMapping fieldMapping = m_fieldsByObf.get(obfName);
 	if (fieldMapping == null) {
 	    fieldMapping = new FieldMapping(obfName, deobfName);
@@ -239,6 +302,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void addMethodMapping(MethodMapping methodMapping) {
+	m_snapshot = null;
 	String obfKey = getMethodKey(methodMapping.getObfName(), methodMapping.getObfSignature());
 	if (m_methodsByObf.containsKey(obfKey)) {
 	    throw new Error("Already have mapping for " + m_obfName + "." + obfKey);
@@ -257,6 +321,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void removeMethodMapping(MethodMapping methodMapping) {
+	m_snapshot = null;
 	boolean obfWasRemoved = m_methodsByObf.remove(getMethodKey(methodMapping.getObfName(),
 		methodMapping.getObfSignature())) != null;
 	assert (obfWasRemoved);
@@ -286,6 +351,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void setMethodName(String obfName, String obfSignature, String deobfName) {
+	m_snapshot = null;
 	MethodMapping methodMapping = m_methodsByObf.get(getMethodKey(obfName, obfSignature));
 	if (methodMapping == null) {
 	    methodMapping = createMethodMapping(obfName, obfSignature);
@@ -304,6 +370,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     // // ARGUMENTS ////////
 
     public void setArgumentName(String obfMethodName, String obfMethodSignature, int argumentIndex, String argumentName) {
+	m_snapshot = null;
 	MethodMapping methodMapping = m_methodsByObf.get(getMethodKey(obfMethodName, obfMethodSignature));
 	if (methodMapping == null) {
 	    methodMapping = createMethodMapping(obfMethodName, obfMethodSignature);
@@ -312,6 +379,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public void removeArgumentName(String obfMethodName, String obfMethodSignature, int argumentIndex) {
+	m_snapshot = null;
 	m_methodsByObf.get(getMethodKey(obfMethodName, obfMethodSignature)).removeArgumentName(argumentIndex);
     }
 
@@ -363,6 +431,7 @@ public class ClassMapping implements Serializable, Comparable<ClassMapping> {
     }
 
     public boolean renameObfClass(String oldObfClassName, String newObfClassName) {
+	m_snapshot = null;
 	// rename inner classes
 	for (ClassMapping innerClassMapping : new ArrayList<ClassMapping>(m_innerClassesByObf.values())) {
 	    if (innerClassMapping.renameObfClass(oldObfClassName, newObfClassName)) {
@@ -23,6 +23,11 @@ public class FieldMapping implements Serializable, Comparable<FieldMapping> {
 	m_deobfName = NameValidator.validateFieldName(deobfName);
     }
 
+    public FieldMapping(FieldMapping other) {
+	m_obfName = other.m_obfName;
+	m_deobfName = other.m_deobfName;
+    }
+
     public String getObfName() {
 	return m_obfName;
     }
@@ -104,10 +104,17 @@ public class Mappings implements Serializable {
     }
 
     public Translator getTranslator(TranslationDirection direction) {
+	// translators get used off the event thread, so they get a copy of the mappings that later renames can't change
+	// only the classes that changed since the last translator get copied again, the rest share the old copies
 	switch (direction) {
 	case Deobfuscating:
 
-	    return new Translator(direction, m_classesByObf);
+	    Map<String, ClassMapping> classesByObf = Maps.newHashMap();
+	    for (ClassMapping classMapping : classes()) {
+		classesByObf.put(classMapping.getObfName(), classMapping.getSnapshot());
+	    }
+
+	    return new Translator(direction, classesByObf);
 
 	case Obfuscating:
 
@@ -115,9 +122,9 @@ public class Mappings implements Serializable {
 	    Map<String, ClassMapping> classes = Maps.newHashMap();
 	    for (ClassMapping classMapping : classes()) {
 		if (classMapping.getDeobfName() != null) {
-		    classes.put(classMapping.getDeobfName(), classMapping);
+		    classes.put(classMapping.getDeobfName(), classMapping.getSnapshot());
 		} else {
-		    classes.put(classMapping.getObfName(), classMapping);
+		    classes.put(classMapping.getObfName(), classMapping.getSnapshot());
 		}
 	    }
 
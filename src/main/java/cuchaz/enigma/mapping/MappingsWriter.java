@@ -28,6 +28,10 @@ public class MappingsWriter {
 	}
     }
 
+    public void write(PrintWriter out, ClassMapping classMapping) throws IOException {
+	write(out, classMapping, 0);
+    }
+
     private void write(PrintWriter out, ClassMapping classMapping, int depth) throws IOException {
 	if (classMapping.getDeobfName() == null) {
 	    out.format("%sCLASS %s\n", getIndent(depth), classMapping.getObfName());
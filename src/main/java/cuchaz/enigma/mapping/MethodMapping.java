@@ -41,6 +41,16 @@ public class MethodMapping implements Serializable, Comparable<MethodMapping> {
 	m_arguments = new TreeMap<Integer, ArgumentMapping>();
     }
 
+    public MethodMapping(MethodMapping other) {
+	m_obfName = other.m_obfName;
+	m_deobfName = other.m_deobfName;
+	m_obfSignature = other.m_obfSignature;
+	m_arguments = new TreeMap<Integer, ArgumentMapping>();
+	for (Map.Entry<Integer, ArgumentMapping> entry : other.m_arguments.entrySet()) {
+	    m_arguments.put(entry.getKey(), new ArgumentMapping(entry.getValue()));
+	}
+    }
+
     public String getObfName() {
 	return m_obfName;
     }
@@ -0,0 +1,73 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+import com.google.common.collect.Lists;
+import com.strobel.assembler.metadata.MetadataSystem;
+
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class BenchmarkDecompile
+{
+	// run with a big jar, eg: java -Xmx2g cuchaz.enigma.BenchmarkDecompile minecraft.jar
+	// run each mode in its own jvm, so the first class really is the first class
+	public static void main( String[] args )
+	throws Exception
+	{
+		File file = new File( args.length > 0 ? args[0] : "build/libs/testInheritanceTree.obf.jar" );
+		boolean isLayered = args.length <= 1 || !args[1].equals( "fresh" );
+		Deobfuscator deobfuscator = new Deobfuscator( file, null );
+
+		List<String> obfClassNames = Lists.newArrayList();
+		for( ClassEntry obfClassEntry : deobfuscator.getJarIndex().getObfClassEntries() )
+		{
+			if( !obfClassEntry.isInnerClass() )
+			{
+				obfClassNames.add( obfClassEntry.getName() );
+			}
+		}
+		Collections.sort( obfClassNames );
+
+		long firstTime = 0;
+		long start = System.nanoTime();
+		for( String obfClassName : obfClassNames )
+		{
+			long classStart = System.nanoTime();
+			if( isLayered )
+			{
+				// the library types stick around, the jar types live until the mappings change
+				deobfuscator.getSourceTree( obfClassName );
+			}
+			else
+			{
+				// the old way: read every type again for every class
+				// use the same translated class cache as the layered mode, so only the metadata differs
+				deobfuscator.getSourceTree( obfClassName, new MetadataSystem( deobfuscator.newTypeLoader() ) );
+			}
+			if( firstTime == 0 )
+			{
+				firstTime = System.nanoTime() - classStart;
+			}
+		}
+		long totalTime = System.nanoTime() - start;
+
+		System.out.println( String.format( "%s metadata, %d classes", isLayered ? "layered" : "fresh", obfClassNames.size() ) );
+		System.out.println( String.format( "first class:  %8.1f ms", firstTime/1e6 ) );
+		if( obfClassNames.size() > 1 )
+		{
+			System.out.println( String.format( "steady state: %8.1f ms/class", ( totalTime - firstTime )/1e6/( obfClassNames.size() - 1 ) ) );
+		}
+	}
+}
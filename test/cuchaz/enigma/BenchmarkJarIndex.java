@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarFile;
+
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimap;
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.analysis.Access;
+import cuchaz.enigma.analysis.EntryReference;
+import cuchaz.enigma.analysis.IndexedClass;
+import cuchaz.enigma.analysis.InnerClassFinder;
+import cuchaz.enigma.analysis.JarClassIterator;
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.FieldEntry;
+import cuchaz.enigma.mapping.MethodEntry;
+
+public class BenchmarkJarIndex
+{
+	// run with a big jar, eg: java -Xmx2g cuchaz.enigma.BenchmarkJarIndex minecraft.jar
+	public static void main( String[] args )
+	throws Exception
+	{
+		JarFile jar = new JarFile( args.length > 0 ? args[0] : "build/libs/testInheritanceTree.obf.jar" );
+		
+		// the old index kept entry objects and resolved references in hash maps and multimaps
+		long before = usedHeap();
+		long start = System.currentTimeMillis();
+		Object oldIndex = buildMultimapIndex( jar );
+		long oldTime = System.currentTimeMillis() - start;
+		long oldHeap = usedHeap() - before;
+		System.out.println( String.format( "multimap index: %8d KiB, %6d ms", oldHeap/1024, oldTime ) );
+		oldIndex = null;
+		
+		before = usedHeap();
+		start = System.currentTimeMillis();
+		JarIndex index = new JarIndex();
+		index.indexJar( jar, true );
+		long newTime = System.currentTimeMillis() - start;
+		long newHeap = usedHeap() - before;
+		System.out.println( String.format( "symbol index:   %8d KiB, %6d ms", newHeap/1024, newTime ) );
+		System.out.println( String.format( "heap reduction: %.1fx", (double)oldHeap/newHeap ) );
+		
+		// keep the index reachable until it's measured
+		System.out.println( index.getObfClassEntries().size() + " classes" );
+	}
+	
+	private static Object buildMultimapIndex( JarFile jar )
+	{
+		List<IndexedClass> classes = Lists.newArrayList();
+		for( ClassEntry classEntry : JarClassIterator.getClassEntries( jar ) )
+		{
+			classes.add( IndexedClass.index( JarClassIterator.getClassBytes( jar, classEntry ) ) );
+		}
+		
+		// everything the old index kept, so both sides answer the same queries
+		Set<ClassEntry> obfClassEntries = Sets.newHashSet();
+		Map<String,String> superclasses = Maps.newHashMap();
+		Multimap<String,String> fields = HashMultimap.create();
+		Multimap<String,String> interfaces = HashMultimap.create();
+		Map<Entry,Access> access = Maps.newHashMap();
+		Map<FieldEntry,ClassEntry> fieldClasses = Maps.newHashMap();
+		Multimap<String,MethodEntry> methodImplementations = HashMultimap.create();
+		Multimap<BehaviorEntry,EntryReference<BehaviorEntry,BehaviorEntry>> behaviorReferences = HashMultimap.create();
+		Multimap<FieldEntry,EntryReference<FieldEntry,BehaviorEntry>> fieldReferences = HashMultimap.create();
+		Multimap<BehaviorEntry,BehaviorEntry> referencedBehaviors = HashMultimap.create();
+		Multimap<BehaviorEntry,FieldEntry> referencedFields = HashMultimap.create();
+		Multimap<String,String> innerClasses = HashMultimap.create();
+		Map<String,String> outerClasses = Maps.newHashMap();
+		Map<String,BehaviorEntry> anonymousClasses = Maps.newHashMap();
+		Map<MethodEntry,MethodEntry> bridgeMethods = Maps.newHashMap();
+		for( IndexedClass c : classes )
+		{
+			ClassEntry classEntry = c.getClassEntry();
+			if( classEntry.isInDefaultPackage() )
+			{
+				classEntry = new ClassEntry( Constants.NonePackage + "/" + classEntry.getName() );
+			}
+			obfClassEntries.add( classEntry );
+			if( c.getSuperclassName() != null )
+			{
+				superclasses.put( c.getClassName(), c.getSuperclassName() );
+			}
+			access.putAll( c.getAccess() );
+			interfaces.putAll( c.getClassName(), c.getInterfaceNames() );
+			for( Map.Entry<FieldEntry,String> entry : c.getFieldTypes().entrySet() )
+			{
+				fields.put( c.getClassName(), entry.getKey().getName() );
+				String type = entry.getValue();
+				if( type.startsWith( "L" ) )
+				{
+					fieldClasses.put( entry.getKey(), new ClassEntry( type.substring( 1, type.length() - 1 ) ) );
+				}
+			}
+			methodImplementations.putAll( c.getClassName(), c.getMethods() );
+			bridgeMethods.putAll( c.getBridgeMethods() );
+		}
+		
+		// the old index resolved every reference to the class that declares the member
+		for( IndexedClass c : classes )
+		{
+			for( EntryReference<BehaviorEntry,BehaviorEntry> reference : c.getBehaviorReferences() )
+			{
+				reference = resolve( reference, access, superclasses );
+				behaviorReferences.put( reference.entry, reference );
+				referencedBehaviors.put( reference.context, reference.entry );
+			}
+			for( EntryReference<FieldEntry,BehaviorEntry> reference : c.getFieldReferences() )
+			{
+				reference = resolve( reference, access, superclasses );
+				fieldReferences.put( reference.entry, reference );
+				referencedFields.put( reference.context, reference.entry );
+			}
+		}
+		
+		InnerClassFinder innerClassFinder = new InnerClassFinder( obfClassEntries, classes );
+		for( IndexedClass c : classes )
+		{
+			String outerClassName = innerClassFinder.findOuterClass( c );
+			if( outerClassName != null )
+			{
+				String innerClassName = c.getClassEntry().getSimpleName();
+				innerClasses.put( outerClassName, innerClassName );
+				outerClasses.put( innerClassName, outerClassName );
+				BehaviorEntry enclosingBehavior = innerClassFinder.findAnonymousClassCaller( c );
+				if( enclosingBehavior != null )
+				{
+					anonymousClasses.put( innerClassName, enclosingBehavior );
+				}
+			}
+		}
+		return new Object[] {
+			obfClassEntries, superclasses, fields, interfaces, access, fieldClasses, methodImplementations,
+			behaviorReferences, fieldReferences, referencedBehaviors, referencedFields,
+			innerClasses, outerClasses, anonymousClasses, bridgeMethods
+		};
+	}
+	
+	private static <E extends Entry> EntryReference<E,BehaviorEntry> resolve( EntryReference<E,BehaviorEntry> reference, Map<Entry,Access> access, Map<String,String> superclasses )
+	{
+		Entry entry = reference.entry;
+		while( !access.containsKey( entry ) )
+		{
+			String superclassName = superclasses.get( entry.getClassName() );
+			if( superclassName == null )
+			{
+				return reference;
+			}
+			entry = entry.cloneToNewClass( new ClassEntry( superclassName ) );
+		}
+		if( entry.getClassName().equals( reference.entry.getClassName() ) )
+		{
+			return reference;
+		}
+		@SuppressWarnings( "unchecked" )
+		E resolvedEntry = (E)entry;
+		return new EntryReference<E,BehaviorEntry>( resolvedEntry, reference.context, reference );
+	}
+	
+	private static long usedHeap( )
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for( int i=0; i<5; i++ )
+		{
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
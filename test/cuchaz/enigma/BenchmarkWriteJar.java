@@ -0,0 +1,48 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import java.io.File;
+
+import com.google.common.io.Files;
+
+public class BenchmarkWriteJar
+{
+	// run with a big jar, eg: java -Xmx2g cuchaz.enigma.BenchmarkWriteJar minecraft.jar 8
+	public static void main( String[] args )
+	throws Exception
+	{
+		Deobfuscator deobfuscator = new Deobfuscator( new File( args.length > 0 ? args[0] : "build/libs/testInheritanceTree.obf.jar" ), null );
+		int numThreads = args.length > 1 ? Integer.parseInt( args[1] ) : Runtime.getRuntime().availableProcessors();
+		File dir = Files.createTempDir();
+
+		// warm up the jit so the first run isn't penalized
+		deobfuscator.writeJar( new File( dir, "warmup.jar" ), null, numThreads );
+
+		File serialJar = new File( dir, "serial.jar" );
+		TranslatingTypeLoader.resetStageTimes();
+		long start = System.currentTimeMillis();
+		deobfuscator.writeJar( serialJar, null, 1 );
+		long serialTime = System.currentTimeMillis() - start;
+		System.out.println( String.format( "1 thread:   %6d ms", serialTime ) );
+		System.out.print( TranslatingTypeLoader.getStageTimes() );
+
+		File parallelJar = new File( dir, "parallel.jar" );
+		start = System.currentTimeMillis();
+		deobfuscator.writeJar( parallelJar, null, numThreads );
+		long parallelTime = System.currentTimeMillis() - start;
+		System.out.println( String.format( "%d threads: %6d ms", numThreads, parallelTime ) );
+		System.out.println( String.format( "speedup: %.1fx", (double)serialTime/parallelTime ) );
+
+		// the thread count shouldn't change a single byte
+		System.out.println( "identical: " + Files.equal( serialJar, parallelJar ) );
+	}
+}
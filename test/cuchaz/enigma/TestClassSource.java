@@ -0,0 +1,145 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+import java.util.jar.JarFile;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestClassSource
+{
+	private static final File LoneClassJar = new File( "build/libs/testLoneClass.obf.jar" );
+	private static final File InheritanceTreeJar = new File( "build/libs/testInheritanceTree.obf.jar" );
+
+	@Test
+	public void mappedJar( )
+	throws Exception
+	{
+		try( JarFile jar = new JarFile( InheritanceTreeJar ); ClassSource source = ClassSource.open( InheritanceTreeJar ) )
+		{
+			assertFalse( source.getClassEntries().isEmpty() );
+			for( ClassEntry classEntry : source.getClassEntries() )
+			{
+				byte[] expected = readClass( jar, classEntry );
+				assertArrayEquals( expected, getBytes( source.getClassData( classEntry.getName() ) ) );
+
+				// the second read hands out the same bytes again
+				assertArrayEquals( expected, getBytes( source.getClassData( classEntry.getName() ) ) );
+			}
+			assertNull( source.getClassData( "none/doesNotExist" ) );
+		}
+	}
+
+	@Test
+	public void classData( )
+	throws Exception
+	{
+		try( ClassSource source = ClassSource.open( LoneClassJar ) )
+		{
+			ByteBuffer data = source.getClassData( "none/a" );
+			assertTrue( data.isReadOnly() );
+
+			// reading one view doesn't move the others
+			data.get( new byte[data.remaining()] );
+			assertTrue( source.getClassData( "none/a" ).hasRemaining() );
+		}
+	}
+
+	@Test
+	public void directory( )
+	throws Exception
+	{
+		File dir = Files.createTempDir();
+		try( JarFile jar = new JarFile( LoneClassJar ) )
+		{
+			for( ClassEntry classEntry : ClassSource.open( LoneClassJar ).getClassEntries() )
+			{
+				File file = new File( dir, classEntry.getName() + ".class" );
+				file.getParentFile().mkdirs();
+				Files.write( readClass( jar, classEntry ), file );
+			}
+
+			ClassSource source = ClassSource.open( dir );
+			assertEquals( 2, source.getClassEntries().size() );
+			for( ClassEntry classEntry : source.getClassEntries() )
+			{
+				assertArrayEquals( readClass( jar, classEntry ), getBytes( source.getClassData( classEntry.getName() ) ) );
+			}
+		}
+	}
+
+	@Test( expected = IOException.class )
+	public void closed( )
+	throws Exception
+	{
+		ClassSource source = ClassSource.open( LoneClassJar );
+		assertNotNull( source.getClassData( "none/a" ) );
+		source.close();
+		
+		// a closed source lets go of the mapping and the bytes, so there's nothing left to read from
+		source.getClassData( "none/a" );
+	}
+
+	@Test
+	public void multipleJars( )
+	throws Exception
+	{
+		try(
+			ClassSource loneClassSource = ClassSource.open( LoneClassJar );
+			ClassSource inheritanceTreeSource = ClassSource.open( InheritanceTreeJar );
+			ClassSource source = ClassSource.open( Arrays.asList( LoneClassJar, InheritanceTreeJar ) )
+		)
+		{
+			// both jars have a none/a, the first one wins
+			assertArrayEquals(
+				getBytes( loneClassSource.getClassData( "none/a" ) ),
+				getBytes( source.getClassData( "none/a" ) )
+			);
+			List<ClassEntry> classEntries = source.getClassEntries();
+			for( ClassEntry classEntry : inheritanceTreeSource.getClassEntries() )
+			{
+				assertTrue( classEntries.contains( classEntry ) );
+			}
+			assertEquals( classEntries.size(), Sets.newHashSet( classEntries ).size() );
+		}
+	}
+
+	private byte[] readClass( JarFile jar, ClassEntry classEntry )
+	throws IOException
+	{
+		try( InputStream in = jar.getInputStream( jar.getJarEntry( classEntry.getName() + ".class" ) ) )
+		{
+			return ByteStreams.toByteArray( in );
+		}
+	}
+
+	private byte[] getBytes( ByteBuffer data )
+	{
+		byte[] bytes = new byte[data.remaining()];
+		data.duplicate().get( bytes );
+		return bytes;
+	}
+}
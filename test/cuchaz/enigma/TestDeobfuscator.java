@@ -14,14 +14,30 @@ package cuchaz.enigma;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.junit.Test;
 
+import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
 
 import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.TranslationDirection;
+import cuchaz.enigma.mapping.Translator;
 
 public class TestDeobfuscator
 {
@@ -59,4 +75,231 @@ public class TestDeobfuscator
 		Deobfuscator deobfuscator = getDeobfuscator();
 		deobfuscator.getSource( deobfuscator.getSourceTree( "none/a" ) );
 	}
+	
+	@Test
+	public void translatorSnapshot( )
+	throws Exception
+	{
+		Deobfuscator deobfuscator = getDeobfuscator();
+		Translator translator = deobfuscator.getTranslator( TranslationDirection.Deobfuscating );
+		assertNull( translator.translateClass( "none/a" ) );
+		
+		// translators are used off the event thread, so renames shouldn't change them under their feet
+		deobfuscator.rename( new ClassEntry( "none/a" ), "foo/Renamed" );
+		assertNull( translator.translateClass( "none/a" ) );
+		assertEquals( "foo/Renamed", deobfuscator.getTranslator( TranslationDirection.Deobfuscating ).translateClass( "none/a" ) );
+	}
+	
+	@Test
+	public void writeSources( )
+	throws Exception
+	{
+		Deobfuscator deobfuscator = getDeobfuscator();
+		File dirSerial = Files.createTempDir();
+		File dirParallel = Files.createTempDir();
+		deobfuscator.writeSources( dirSerial, null, 1 );
+		deobfuscator.writeSources( dirParallel, null, 4 );
+		
+		// the thread count shouldn't change anything we write
+		for( String path : Arrays.asList( "none/a.java", "cuchaz/enigma/inputs/Keep.java" ) )
+		{
+			String source = Files.toString( new File( dirSerial, path ), Charsets.UTF_8 );
+			assertEquals( source, Files.toString( new File( dirParallel, path ), Charsets.UTF_8 ) );
+		}
+		assertFalse( new File( dirParallel, Deobfuscator.SourceReportFileName ).exists() );
+	}
+	
+	@Test
+	public void writeSourcesTimeout( )
+	throws Exception
+	{
+		final CountDownLatch interrupted = new CountDownLatch( 1 );
+		Deobfuscator deobfuscator = new Deobfuscator( new File( "build/libs/testLoneClass.obf.jar" ) )
+		{
+			@Override
+			String getSource( SourceDecompiler decompiler, String obfClassName )
+			{
+				if( !obfClassName.equals( "none/a" ) )
+				{
+					return super.getSource( decompiler, obfClassName );
+				}
+				
+				// hang until the watchdog gives up on us
+				try
+				{
+					new CountDownLatch( 1 ).await();
+				}
+				catch( InterruptedException ex )
+				{
+					interrupted.countDown();
+				}
+				return null;
+			}
+		};
+		File dir = Files.createTempDir();
+		deobfuscator.writeSources( dir, null, 1, 100 );
+		
+		String source = Files.toString( new File( dir, "none/a.java" ), Charsets.UTF_8 );
+		assertTrue( source.contains( "took longer than 100 ms" ) );
+		assertTrue( new File( dir, "cuchaz/enigma/inputs/Keep.java" ).exists() );
+		String report = Files.toString( new File( dir, Deobfuscator.SourceReportFileName ), Charsets.UTF_8 );
+		assertTrue( report.contains( "Timed out after 100 ms" ) );
+		assertTrue( report.contains( "none/a" ) );
+		
+		// the stuck worker should have been told to stop too
+		assertTrue( interrupted.await( 10, TimeUnit.SECONDS ) );
+	}
+	
+	@Test
+	public void writeSourcesFailure( )
+	throws Exception
+	{
+		Deobfuscator deobfuscator = new Deobfuscator( new File( "build/libs/testLoneClass.obf.jar" ) )
+		{
+			@Override
+			String getSource( SourceDecompiler decompiler, String obfClassName )
+			{
+				if( obfClassName.equals( "none/a" ) )
+				{
+					throw new IllegalStateException( "broken on purpose" );
+				}
+				return super.getSource( decompiler, obfClassName );
+			}
+		};
+		File dir = Files.createTempDir();
+		deobfuscator.writeSources( dir, null, 1 );
+		
+		// failed classes still get a stub, and show up in the report
+		String source = Files.toString( new File( dir, "none/a.java" ), Charsets.UTF_8 );
+		assertTrue( source.contains( "failed with IllegalStateException" ) );
+		String report = Files.toString( new File( dir, Deobfuscator.SourceReportFileName ), Charsets.UTF_8 );
+		assertTrue( report.contains( "Failed, wrote signatures only:" ) );
+		assertTrue( report.contains( "broken on purpose" ) );
+	}
+	
+	@Test
+	public void writeSourcesUnwritable( )
+	throws Exception
+	{
+		Deobfuscator deobfuscator = getDeobfuscator();
+		File dir = Files.createTempDir();
+		
+		// a directory where the source should go makes the write fail
+		assertTrue( new File( dir, "none/a.java" ).mkdirs() );
+		deobfuscator.writeSources( dir, null, 1 );
+		
+		// the class decompiled fine, so it belongs with the classes we couldn't write, not the failed ones
+		String report = Files.toString( new File( dir, Deobfuscator.SourceReportFileName ), Charsets.UTF_8 );
+		assertTrue( report.contains( "Unable to write:" ) );
+		assertTrue( report.contains( "none/a" ) );
+		assertFalse( report.contains( "Failed" ) );
+		assertTrue( new File( dir, "cuchaz/enigma/inputs/Keep.java" ).exists() );
+	}
+	
+	@Test
+	public void writeSourceArchive( )
+	throws Exception
+	{
+		Deobfuscator deobfuscator = getDeobfuscator();
+		File dir = Files.createTempDir();
+		File serialFile = new File( dir, "serial.zip" );
+		File parallelFile = new File( dir, "parallel.zip" );
+		deobfuscator.writeSourceArchive( serialFile, null, true, 1, Deobfuscator.SourceTimeoutMillis );
+		deobfuscator.writeSourceArchive( parallelFile, null, true, 4, Deobfuscator.SourceTimeoutMillis );
+		
+		// the archive should come out the same, byte for byte
+		assertTrue( Files.equal( serialFile, parallelFile ) );
+		try( ZipFile zip = new ZipFile( serialFile ) )
+		{
+			assertNotNull( zip.getEntry( "none/a.java" ) );
+			assertNotNull( zip.getEntry( Deobfuscator.SourceHashesFileName ) );
+			assertNull( zip.getEntry( Deobfuscator.SourceReportFileName ) );
+		}
+	}
+	
+	@Test
+	public void writeJar( )
+	throws Exception
+	{
+		Deobfuscator deobfuscator = getDeobfuscator();
+		File dir = Files.createTempDir();
+		File storedFile = new File( dir, "stored.jar" );
+		File compressedFile = new File( dir, "compressed.jar" );
+		deobfuscator.writeJar( storedFile, null, 1, RawZipWriter.Stored );
+		deobfuscator.writeJar( compressedFile, null, 4, Deflater.BEST_COMPRESSION );
+		
+		// only the compression should be different
+		try( JarFile storedJar = new JarFile( storedFile ); JarFile compressedJar = new JarFile( compressedFile ) )
+		{
+			assertEquals( storedJar.size(), compressedJar.size() );
+			JarEntry storedEntry = storedJar.getJarEntry( "none/a.class" );
+			JarEntry compressedEntry = compressedJar.getJarEntry( "none/a.class" );
+			assertEquals( ZipEntry.STORED, storedEntry.getMethod() );
+			assertEquals( ZipEntry.DEFLATED, compressedEntry.getMethod() );
+			assertEquals( storedEntry.getCrc(), compressedEntry.getCrc() );
+		}
+	}
+	
+	@Test
+	public void writeJarIncremental( )
+	throws Exception
+	{
+		Deobfuscator deobfuscator = getDeobfuscator();
+		File dir = Files.createTempDir();
+		File jarFile = new File( dir, "out.jar" );
+		File firstFile = new File( dir, "first.jar" );
+		deobfuscator.writeJar( jarFile, null, 1 );
+		Files.copy( jarFile, firstFile );
+		assertTrue( JarExportRecord.getFile( jarFile ).exists() );
+		
+		// reusing the last export shouldn't change anything
+		deobfuscator.writeJar( jarFile, null, 1 );
+		assertTrue( Files.equal( firstFile, jarFile ) );
+		assertEquals( 1, deobfuscator.getNumReusedExportClasses() );
+		
+		// but new mappings should
+		deobfuscator.rename( new ClassEntry( "none/a" ), "Renamed" );
+		deobfuscator.writeJar( jarFile, null, 1 );
+		assertEquals( 0, deobfuscator.getNumReusedExportClasses() );
+		try( JarFile jar = new JarFile( jarFile ) )
+		{
+			assertNotNull( jar.getJarEntry( "Renamed.class" ) );
+			assertNull( jar.getJarEntry( "none/a.class" ) );
+		}
+	}
+	
+	@Test
+	public void writeJarIncrementalChangedInput( )
+	throws Exception
+	{
+		File dir = Files.createTempDir();
+		File inFile = new File( dir, "in.jar" );
+		File jarFile = new File( dir, "out.jar" );
+		Files.copy( new File( "build/libs/testLoneClass.obf.jar" ), inFile );
+		Deobfuscator deobfuscator = new Deobfuscator( inFile, null );
+		deobfuscator.writeJar( jarFile, null, 1 );
+		deobfuscator.writeJar( jarFile, null, 1 );
+		assertEquals( 1, deobfuscator.getNumReusedExportClasses() );
+		
+		// other classes in the jar can change how a class gets translated, so a new jar shouldn't reuse anything
+		File newInFile = new File( dir, "new.jar" );
+		try( JarFile oldJar = new JarFile( inFile ); JarOutputStream out = new JarOutputStream( new FileOutputStream( newInFile ) ) )
+		{
+			for( JarEntry entry : Collections.list( oldJar.entries() ) )
+			{
+				out.putNextEntry( new JarEntry( entry.getName() ) );
+				ByteStreams.copy( oldJar.getInputStream( entry ), out );
+			}
+			out.putNextEntry( new JarEntry( "build.txt" ) );
+			out.write( "2".getBytes( Charsets.UTF_8 ) );
+		}
+		deobfuscator = new Deobfuscator( newInFile, null );
+		deobfuscator.writeJar( jarFile, null, 1 );
+		assertEquals( 0, deobfuscator.getNumReusedExportClasses() );
+		try( JarFile jar = new JarFile( jarFile ) )
+		{
+			assertNotNull( jar.getJarEntry( "none/a.class" ) );
+			assertNotNull( jar.getJarEntry( "build.txt" ) );
+		}
+	}
 }
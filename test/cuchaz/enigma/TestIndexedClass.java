@@ -0,0 +1,63 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static cuchaz.enigma.EntryFactory.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.InputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.ByteStreams;
+
+import cuchaz.enigma.analysis.IndexedClass;
+
+public class TestIndexedClass
+{
+	private static final String CovariantClass = "cuchaz/enigma/inputs/bridges/CovariantClass";
+	private static final String InheritedClass = "cuchaz/enigma/inputs/bridges/InheritedClass";
+
+	@Test
+	public void bridgeMethods( )
+	throws Exception
+	{
+		IndexedClass c = index( CovariantClass );
+		assertThat( c.getBridgeMethods().keySet(), containsInAnyOrder(
+			newMethod( CovariantClass, "getValue", "()Ljava/lang/String;" )
+		) );
+		assertThat( c.getBridgeMethods().get( newMethod( CovariantClass, "getValue", "()Ljava/lang/String;" ) ),
+			is( newMethod( CovariantClass, "getValue", "()Ljava/lang/Object;" ) ) );
+	}
+
+	@Test
+	public void inheritedBridgeTarget( )
+	throws Exception
+	{
+		// the bridge calls StringClass.getValue(), which isn't in this class
+		IndexedClass c = index( InheritedClass );
+		assertThat( c.getMethods(), containsInAnyOrder(
+			newMethod( InheritedClass, "getValue", "()Ljava/lang/Object;" )
+		) );
+		assertThat( c.getBridgeMethods().isEmpty(), is( true ) );
+	}
+
+	private IndexedClass index( String className )
+	throws Exception
+	{
+		try( InputStream in = getClass().getResourceAsStream( "/" + className + ".class" ) )
+		{
+			return IndexedClass.index( ByteStreams.toByteArray( in ) );
+		}
+	}
+}
@@ -11,6 +11,7 @@
  ******************************************************************************/
 package cuchaz.enigma;
 
+import static cuchaz.enigma.EntryFactory.*;
 import static org.hamcrest.MatcherAssert.*;
 import static org.hamcrest.Matchers.*;
 
@@ -64,6 +65,14 @@ public class TestInnerClasses
 		assertThat( m_index.isAnonymousClass( ConstructorArgsInner ), is( false ) );
 	}
 	
+	@Test
+	public void innerClassFieldTypes( )
+	{
+		// the outer class has one field, and its type is the inner class
+		assertThat( m_index.getFieldClass( newField( ConstructorArgsOuter, "a" ) ),
+			is( newClass( ConstructorArgsOuter + "$" + ConstructorArgsInner ) ) );
+	}
+	
 	@Test
 	public void anonymousWithScopeArgs( )
 	{
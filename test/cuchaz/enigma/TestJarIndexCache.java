@@ -0,0 +1,256 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * 
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ * 
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.ObjectOutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.Test;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+
+import cuchaz.enigma.analysis.IndexedClass;
+import cuchaz.enigma.analysis.JarIndex;
+import cuchaz.enigma.analysis.JarIndexCache;
+import cuchaz.enigma.mapping.BehaviorEntry;
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestJarIndexCache
+{
+	private File m_jarFile = new File( "build/libs/testInnerClasses.obf.jar" );
+	
+	@Test
+	public void roundTrip( )
+	throws Exception
+	{
+		File dir = Files.createTempDirectory( "enigma" ).toFile();
+		JarFile jar = new JarFile( m_jarFile );
+		
+		JarIndex built = new JarIndexCache( dir ).getIndex( m_jarFile, jar, true );
+		File indexFile = new File( dir, JarIndexCache.hashJar( m_jarFile ) + ".index" );
+		assertThat( indexFile.exists(), is( true ) );
+		
+		JarIndex cached = new JarIndexCache( dir ).getIndex( m_jarFile, jar, true );
+		assertThat( cached, is( not( sameInstance( built ) ) ) );
+		assertSameIndex( cached, built );
+	}
+	
+	@Test
+	public void staleCache( )
+	throws Exception
+	{
+		File dir = Files.createTempDirectory( "enigma" ).toFile();
+		JarFile jar = new JarFile( m_jarFile );
+		
+		// put garbage where the index should be
+		File indexFile = new File( dir, JarIndexCache.hashJar( m_jarFile ) + ".index" );
+		Files.write( indexFile.toPath(), new byte[] { 1, 2, 3, 4, 5, 6, 7, 8 } );
+		
+		JarIndex index = new JarIndexCache( dir ).getIndex( m_jarFile, jar, true );
+		JarIndex expected = new JarIndex();
+		expected.indexJar( jar, true );
+		assertSameIndex( index, expected );
+		assertThat( indexFile.length(), is( greaterThan( 8L ) ) );
+	}
+	
+	@Test
+	public void incremental( )
+	throws Exception
+	{
+		JarFile jar = new JarFile( m_jarFile );
+		JarIndex expected = new JarIndex();
+		Map<String,IndexedClass> classes = expected.indexJar( jar, true, null );
+		
+		// pretend the last version of the jar had a different a, no h, and an extra class z
+		Map<String,IndexedClass> previousClasses = Maps.newHashMap( classes );
+		previousClasses.put( "a", classes.get( "c" ) );
+		previousClasses.remove( "h" );
+		previousClasses.put( "z", classes.get( "b" ) );
+		
+		JarIndex index = new JarIndex();
+		Map<String,IndexedClass> updatedClasses = index.indexJar( jar, true, previousClasses );
+		assertSameIndex( index, expected );
+		assertThat( updatedClasses.keySet(), is( classes.keySet() ) );
+		assertThat( updatedClasses.get( "b" ), is( sameInstance( classes.get( "b" ) ) ) );
+		assertThat( updatedClasses.get( "a" ), is( not( sameInstance( classes.get( "c" ) ) ) ) );
+		assertThat( updatedClasses.get( "a" ).getClassName(), is( "none/a" ) );
+	}
+	
+	@Test
+	public void incrementalFromCache( )
+	throws Exception
+	{
+		File dir = Files.createTempDirectory( "enigma" ).toFile();
+		File jarFile = new File( dir, "test.jar" );
+		Files.copy( m_jarFile.toPath(), jarFile.toPath() );
+		JarIndex first = new JarIndexCache( dir ).getIndex( jarFile, new JarFile( jarFile ), true );
+		int numClasses = 0;
+		try( JarFile jar = new JarFile( m_jarFile ) )
+		{
+			for( JarEntry entry : Collections.list( jar.entries() ) )
+			{
+				if( entry.getName().endsWith( ".class" ) )
+				{
+					numClasses++;
+				}
+			}
+		}
+		assertThat( first.getNumReadClasses(), is( (long)numClasses ) );
+		
+		// a new build of the jar with the same classes should reuse all of them
+		writeJar( jarFile, Collections.<String,byte[]>emptyMap(), Collections.<String>emptySet() );
+		JarFile jar = new JarFile( jarFile );
+		JarIndex index = new JarIndexCache( dir ).getIndex( jarFile, jar, true );
+		JarIndex expected = new JarIndex();
+		expected.indexJar( jar, true );
+		assertSameIndex( index, expected );
+		assertThat( index.getNumReusedClasses(), is( (long)numClasses ) );
+		assertThat( index.getNumReadClasses(), is( 0L ) );
+		
+		// the next build has no h, and an extra class z
+		Map<String,byte[]> extraClasses = Maps.newHashMap();
+		extraClasses.put( "z.class", newClass( "z" ) );
+		writeJar( jarFile, extraClasses, Collections.singleton( "h.class" ) );
+		jar = new JarFile( jarFile );
+		index = new JarIndexCache( dir ).getIndex( jarFile, jar, true );
+		assertThat( index.getNumReusedClasses(), is( (long)numClasses - 1 ) );
+		assertThat( index.getNumReadClasses(), is( 1L ) );
+		
+		// and the one after that has h back, no z, and a changed a
+		byte[] changedClass;
+		try( JarFile oldJar = new JarFile( m_jarFile ) )
+		{
+			changedClass = ByteStreams.toByteArray( oldJar.getInputStream( oldJar.getEntry( "a.class" ) ) );
+		}
+		changedClass[5]++; // minor version
+		writeJar( jarFile, Collections.singletonMap( "a.class", changedClass ), Collections.<String>emptySet() );
+		jar = new JarFile( jarFile );
+		index = new JarIndexCache( dir ).getIndex( jarFile, jar, true );
+		expected = new JarIndex();
+		expected.indexJar( jar, true );
+		assertSameIndex( index, expected );
+		assertThat( index.getObfClassEntries(), not( hasItem( new ClassEntry( "none/z" ) ) ) );
+		assertThat( index.getNumReusedClasses(), is( (long)numClasses - 2 ) );
+		assertThat( index.getNumReadClasses(), is( 2L ) );
+	}
+	
+	@Test
+	public void foreignClassesFile( )
+	throws Exception
+	{
+		File dir = Files.createTempDirectory( "enigma" ).toFile();
+		File jarFile = new File( dir, "test.jar" );
+		Files.copy( m_jarFile.toPath(), jarFile.toPath() );
+		
+		// a serialized file that isn't ours shouldn't get deserialized, even sitting right next to the jar
+		try( ObjectOutputStream out = new ObjectOutputStream( new GZIPOutputStream( new FileOutputStream( jarFile.getPath() + ".classes" ) ) ) )
+		{
+			out.writeObject( Maps.newHashMap() );
+		}
+		JarFile jar = new JarFile( jarFile );
+		JarIndex index = new JarIndexCache().getIndex( jarFile, jar, true );
+		JarIndex expected = new JarIndex();
+		expected.indexJar( jar, true );
+		assertSameIndex( index, expected );
+		assertThat( index.getNumReusedClasses(), is( 0L ) );
+	}
+	
+	private void writeJar( File jarFile, Map<String,byte[]> replacedEntries, Set<String> removedEntries )
+	throws Exception
+	{
+		try( JarFile oldJar = new JarFile( m_jarFile ); JarOutputStream out = new JarOutputStream( new FileOutputStream( jarFile ) ) )
+		{
+			for( JarEntry entry : Collections.list( oldJar.entries() ) )
+			{
+				if( removedEntries.contains( entry.getName() ) || replacedEntries.containsKey( entry.getName() ) )
+				{
+					continue;
+				}
+				out.putNextEntry( new JarEntry( entry.getName() ) );
+				ByteStreams.copy( oldJar.getInputStream( entry ), out );
+			}
+			for( Map.Entry<String,byte[]> entry : replacedEntries.entrySet() )
+			{
+				out.putNextEntry( new JarEntry( entry.getKey() ) );
+				out.write( entry.getValue() );
+			}
+			
+			// make each build a different jar
+			out.putNextEntry( new JarEntry( "build.txt" ) );
+			out.write( Long.toString( System.nanoTime() ).getBytes() );
+		}
+	}
+	
+	private byte[] newClass( String className )
+	throws Exception
+	{
+		// the smallest class file there is: a class that extends Object and has nothing in it
+		ByteArrayOutputStream buf = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream( buf );
+		out.writeInt( 0xcafebabe );
+		out.writeShort( 0 ); // minor version
+		out.writeShort( 51 ); // major version
+		out.writeShort( 5 ); // constant pool size
+		out.writeByte( 7 ); // #1 class
+		out.writeShort( 2 );
+		out.writeByte( 1 ); // #2 utf8
+		out.writeUTF( className );
+		out.writeByte( 7 ); // #3 class
+		out.writeShort( 4 );
+		out.writeByte( 1 ); // #4 utf8
+		out.writeUTF( "java/lang/Object" );
+		out.writeShort( 0x0021 ); // public super
+		out.writeShort( 1 ); // this class
+		out.writeShort( 3 ); // superclass
+		out.writeShort( 0 ); // interfaces
+		out.writeShort( 0 ); // fields
+		out.writeShort( 0 ); // methods
+		out.writeShort( 0 ); // attributes
+		return buf.toByteArray();
+	}
+	
+	private void assertSameIndex( JarIndex actual, JarIndex expected )
+	{
+		assertThat( actual.getObfClassEntries(), is( expected.getObfClassEntries() ) );
+		for( ClassEntry classEntry : expected.getObfClassEntries() )
+		{
+			String className = classEntry.getName();
+			assertThat( actual.getTranslationIndex().getSuperclassName( className ), is( expected.getTranslationIndex().getSuperclassName( className ) ) );
+			assertThat( actual.getInterfaces( className ), is( expected.getInterfaces( className ) ) );
+			assertThat( actual.getInnerClasses( className ), containsInAnyOrder( expected.getInnerClasses( className ).toArray() ) );
+		}
+		for( String innerClassName : new String[] { "b", "d", "f", "h" } )
+		{
+			assertThat( actual.getOuterClass( innerClassName ), is( expected.getOuterClass( innerClassName ) ) );
+			assertThat( actual.isAnonymousClass( innerClassName ), is( expected.isAnonymousClass( innerClassName ) ) );
+			assertThat( actual.getAnonymousClassCaller( innerClassName ), is( expected.getAnonymousClassCaller( innerClassName ) ) );
+		}
+		BehaviorEntry caller = expected.getAnonymousClassCaller( "b" );
+		assertThat( actual.getAccess( caller ), is( expected.getAccess( caller ) ) );
+		assertThat( actual.getBehaviorReferences( caller ), containsInAnyOrder( expected.getBehaviorReferences( caller ).toArray() ) );
+	}
+}
@@ -202,6 +202,26 @@ public class TestJarIndexInheritanceTree
 		) );
 	}
 	
+	@Test
+	public void referencedEntries( )
+	{
+		// baseClass.getName() reads name
+		assertThat( m_index.getReferencedFields( new MethodEntry( m_baseClass, "a", "()Ljava/lang/String;" ) ), hasItem( m_nameField ) );
+		
+		// subClassB.doBThings() reads numThings
+		assertThat( m_index.getReferencedFields( new MethodEntry( m_subClassB, "b", "()V" ) ), hasItem( m_numThingsField ) );
+		
+		// subClassAA constructor calls the subClassA constructor
+		assertThat( m_index.getReferencedBehaviors( new ConstructorEntry( m_subClassAA, "()V" ) ), hasItem(
+			(BehaviorEntry)new ConstructorEntry( m_subClassA, "(Ljava/lang/String;)V" )
+		) );
+		
+		// subClassB.doBaseThings() calls baseClass.getName()
+		assertThat( m_index.getReferencedBehaviors( new MethodEntry( m_subClassB, "a", "()V" ) ), hasItem(
+			(BehaviorEntry)new MethodEntry( m_baseClass, "a", "()Ljava/lang/String;" )
+		) );
+	}
+	
 	@Test
 	public void containsEntries( )
 	{
@@ -235,4 +255,40 @@ public class TestJarIndexInheritanceTree
 		assertThat( m_index.containsObfBehavior( new MethodEntry( m_subClassB, "b", "()V" ) ), is( true ) );
 
 	}
+	
+	@Test
+	public void resolveEntryClass( )
+	{
+		// getName()
+		assertThat( m_index.resolveEntryClass( new MethodEntry( m_subClassA, "a", "()Ljava/lang/String;" ) ), is( m_baseClass ) );
+		assertThat( m_index.resolveEntryClass( new MethodEntry( m_subClassAA, "a", "()Ljava/lang/String;" ) ), is( m_subClassAA ) );
+		
+		// fields
+		assertThat( m_index.resolveEntryClass( new FieldEntry( m_subClassAA, "a" ) ), is( m_baseClass ) );
+		
+		// library methods don't resolve
+		assertThat( m_index.resolveEntryClass( new MethodEntry( m_subClassAA, "toString", "()Ljava/lang/String;" ) ), is( nullValue() ) );
+		
+		// asking again should hit the cache, even for library methods
+		long numHits = m_index.getResolvedClassHits();
+		long numMisses = m_index.getResolvedClassMisses();
+		assertThat( m_index.resolveEntryClass( new MethodEntry( m_subClassA, "a", "()Ljava/lang/String;" ) ), is( m_baseClass ) );
+		assertThat( m_index.resolveEntryClass( new MethodEntry( m_subClassAA, "toString", "()Ljava/lang/String;" ) ), is( nullValue() ) );
+		assertThat( m_index.getResolvedClassHits(), is( numHits + 2 ) );
+		assertThat( m_index.getResolvedClassMisses(), is( numMisses ) );
+	}
+	
+	@Test
+	public void resolveEntryClassWarm( )
+	{
+		// indexing already resolved everything in the jar, so even the first lookup shouldn't have to
+		JarIndex index = new JarIndex();
+		index.indexJar( new JarFile( "build/libs/testInheritanceTree.obf.jar" ), false );
+		long numHits = index.getResolvedClassHits();
+		long numMisses = index.getResolvedClassMisses();
+		assertThat( index.resolveEntryClass( new MethodEntry( m_subClassA, "a", "()Ljava/lang/String;" ) ), is( m_baseClass ) );
+		assertThat( index.resolveEntryClass( new MethodEntry( new ClassEntry( "java/io/PrintStream" ), "println", "(Ljava/lang/String;)V" ) ), is( nullValue() ) );
+		assertThat( index.getResolvedClassHits(), is( numHits + 2 ) );
+		assertThat( index.getResolvedClassMisses(), is( numMisses ) );
+	}
 }
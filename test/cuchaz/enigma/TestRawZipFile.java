@@ -0,0 +1,164 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Test;
+
+import com.google.common.io.Files;
+
+public class TestRawZipFile
+{
+	private static final Charset Cp437 = Charset.forName( "IBM437" );
+	private static final String Name = "caf\u00e9.txt";
+
+	@Test
+	public void cp437Names( )
+	throws Exception
+	{
+		File dir = Files.createTempDir();
+		File file = writeZip( new File( dir, "cp437.zip" ), Cp437 );
+		File copy = copyZip( file, new File( dir, "copy.zip" ) );
+		for( File f : new File[] { file, copy } )
+		{
+			try( RawZipFile zip = new RawZipFile( f ) )
+			{
+				RawZipFile.Entry entry = zip.entries().get( 0 );
+				assertEquals( Name, entry.getName() );
+				assertEquals( 0, entry.getFlags() & RawZipFile.Utf8Flag );
+			}
+
+			// copies keep the original encoding, so other readers still agree on the name
+			try( ZipFile zip = new ZipFile( f, Cp437 ) )
+			{
+				assertNotNull( zip.getEntry( Name ) );
+			}
+		}
+	}
+
+	@Test
+	public void utf8Names( )
+	throws Exception
+	{
+		File dir = Files.createTempDir();
+		File file = writeZip( new File( dir, "utf8.zip" ), StandardCharsets.UTF_8 );
+		File copy = copyZip( file, new File( dir, "copy.zip" ) );
+		for( File f : new File[] { file, copy } )
+		{
+			try( RawZipFile zip = new RawZipFile( f ) )
+			{
+				RawZipFile.Entry entry = zip.entries().get( 0 );
+				assertEquals( Name, entry.getName() );
+				assertEquals( RawZipFile.Utf8Flag, entry.getFlags() & RawZipFile.Utf8Flag );
+			}
+			try( ZipFile zip = new ZipFile( f ) )
+			{
+				assertNotNull( zip.getEntry( Name ) );
+			}
+		}
+	}
+
+	@Test
+	public void encrypted( )
+	throws Exception
+	{
+		File file = writeZip( new File( Files.createTempDir(), "encrypted.zip" ), StandardCharsets.UTF_8 );
+
+		// set the encrypted flag
+		patchCentralHeader( file, 8, 0x01 | RawZipFile.Utf8Flag, 2 );
+		assertUnreadable( file, "Encrypted" );
+	}
+
+	@Test
+	public void zip64( )
+	throws Exception
+	{
+		File file = writeZip( new File( Files.createTempDir(), "zip64.zip" ), StandardCharsets.UTF_8 );
+
+		// zip64 entries keep their real compressed size in an extra field
+		patchCentralHeader( file, 20, 0xffffffff, 4 );
+		assertUnreadable( file, "Zip64" );
+	}
+
+	private File writeZip( File file, Charset charset )
+	throws IOException
+	{
+		try( ZipOutputStream out = new ZipOutputStream( new FileOutputStream( file ), charset ) )
+		{
+			out.putNextEntry( new ZipEntry( Name ) );
+			out.write( "hello".getBytes( StandardCharsets.UTF_8 ) );
+			out.closeEntry();
+		}
+		return file;
+	}
+
+	private File copyZip( File file, File copy )
+	throws IOException
+	{
+		try( RawZipFile in = new RawZipFile( file ); RawZipWriter out = new RawZipWriter( copy ) )
+		{
+			for( RawZipFile.Entry entry : in.entries() )
+			{
+				out.putRawEntry( in, entry );
+			}
+		}
+		return copy;
+	}
+
+	private void patchCentralHeader( File file, int offset, int value, int size )
+	throws IOException
+	{
+		// the zip only has one entry, so find its central header by the signature
+		byte[] bytes = Files.toByteArray( file );
+		int pos = -1;
+		for( int i = 0; i + 4 <= bytes.length; i++ )
+		{
+			if( bytes[i] == 0x50 && bytes[i + 1] == 0x4b && bytes[i + 2] == 0x01 && bytes[i + 3] == 0x02 )
+			{
+				pos = i;
+				break;
+			}
+		}
+		assertTrue( pos >= 0 );
+		try( RandomAccessFile out = new RandomAccessFile( file, "rw" ) )
+		{
+			out.seek( pos + offset );
+			for( int i = 0; i < size; i++ )
+			{
+				out.write( value >>> ( i*8 ) );
+			}
+		}
+	}
+
+	private void assertUnreadable( File file, String reason )
+	{
+		try( RawZipFile zip = new RawZipFile( file ) )
+		{
+			fail( "read " + zip.entries() );
+		}
+		catch( IOException ex )
+		{
+			assertTrue( ex.getCause().getMessage().startsWith( reason ) );
+		}
+	}
+}
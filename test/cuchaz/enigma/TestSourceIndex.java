@@ -11,15 +11,27 @@
  ******************************************************************************/
 package cuchaz.enigma;
 
+import static org.junit.Assert.*;
+
 import java.io.File;
+import java.util.Collections;
+import java.util.Map;
 import java.util.Set;
 
 import org.junit.Test;
 
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
+import com.strobel.decompiler.languages.TextLocation;
 import com.strobel.decompiler.languages.java.ast.CompilationUnit;
+import com.strobel.decompiler.languages.java.ast.Identifier;
 
+import cuchaz.enigma.analysis.EntryReference;
+import cuchaz.enigma.analysis.SourceIndex;
+import cuchaz.enigma.analysis.Token;
 import cuchaz.enigma.mapping.ClassEntry;
+import cuchaz.enigma.mapping.Entry;
+import cuchaz.enigma.mapping.FieldEntry;
 
 public class TestSourceIndex
 {
@@ -53,4 +65,83 @@ public class TestSourceIndex
 			}
 		}
 	}
+	
+	private static final String Source = "class a {\n\tint b;\n\tvoid c() { b = b + 1; }\n}\n";
+	private static final ClassEntry ClassA = new ClassEntry( "none/a" );
+	private static final FieldEntry FieldB = new FieldEntry( ClassA, "b" );
+	private static final FieldEntry FieldCount = new FieldEntry( ClassA, "count" );
+	
+	private SourceIndex getFieldIndex( )
+	{
+		SourceIndex index = new SourceIndex( Source );
+		index.addDeclaration( Identifier.create( "a", new TextLocation( 1, 7 ) ), ClassA );
+		index.addDeclaration( Identifier.create( "b", new TextLocation( 2, 6 ) ), FieldB );
+		index.addReference( Identifier.create( "b", new TextLocation( 3, 13 ) ), FieldB, null );
+		index.addReference( Identifier.create( "b", new TextLocation( 3, 17 ) ), FieldB, null );
+		return index;
+	}
+	
+	private SourceIndex renameField( SourceIndex index )
+	{
+		Map<Token,String> newTexts = Maps.newHashMap();
+		Map<Token,EntryReference<Entry,Entry>> newDeobfReferences = Maps.newHashMap();
+		for( Token token : index.referenceTokens() )
+		{
+			// look the tokens up by new, equal instances, like the gui does
+			Token key = new Token( token.start, token.end );
+			if( index.getDeobfReference( token ).entry.equals( FieldB ) )
+			{
+				newTexts.put( key, "count" );
+				newDeobfReferences.put( key, new EntryReference<Entry,Entry>( FieldCount, "count" ) );
+			}
+		}
+		return index.replaceTokens( newTexts, newDeobfReferences );
+	}
+	
+	@Test
+	public void replaceTokens( )
+	{
+		SourceIndex index = renameField( getFieldIndex() );
+		assertEquals( "class a {\n\tint count;\n\tvoid c() { count = count + 1; }\n}\n", index.getSource() );
+		
+		// every token should still cover its own text, even after the earlier ones got longer
+		int numTokens = 0;
+		for( Token token : index.referenceTokens() )
+		{
+			assertEquals( index.getSource().substring( token.start, token.end ), token.text );
+			numTokens++;
+		}
+		assertEquals( 4, numTokens );
+		Token token = index.getReferenceToken( Source.indexOf( "b = b" ) + 4 );
+		assertEquals( "count", token.text );
+		assertEquals( Source.indexOf( "b = b" ) + 4, token.start );
+		assertEquals( FieldCount, index.getDeobfReference( token ).entry );
+		assertEquals( 3, index.getReferenceTokens( new EntryReference<Entry,Entry>( FieldCount, "count" ) ).size() );
+	}
+	
+	@Test
+	public void replaceTokensDeclarations( )
+	{
+		SourceIndex index = renameField( getFieldIndex() );
+		
+		// tokens before the change stay put
+		assertEquals( new Token( 6, 7 ), index.getDeclarationToken( ClassA ) );
+		
+		// and the declarations follow their references to the new entries
+		assertNull( index.getDeclarationToken( FieldB ) );
+		Token token = index.getDeclarationToken( FieldCount );
+		assertEquals( new Token( 15, 20 ), token );
+		assertEquals( "count", token.text );
+	}
+	
+	@Test
+	public void replaceTokensOverlapping( )
+	{
+		SourceIndex index = getFieldIndex();
+		index.addReference( Identifier.create( "void", new TextLocation( 3, 2 ) ), ClassA, null );
+		index.addReference( Identifier.create( "oid", new TextLocation( 3, 3 ) ), ClassA, null );
+		
+		// there's no telling where the text should go, so don't even try
+		assertNull( index.replaceTokens( Collections.<Token,String>emptyMap(), Collections.<Token,EntryReference<Entry,Entry>>emptyMap() ) );
+	}
 }
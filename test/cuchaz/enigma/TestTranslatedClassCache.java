@@ -0,0 +1,109 @@
+/*******************************************************************************
+ * Copyright (c) 2014 Jeff Martin.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the GNU Public License v3.0
+ * which accompanies this distribution, and is available at
+ * http://www.gnu.org/licenses/gpl.html
+ *
+ * Contributors:
+ *     Jeff Martin - initial API and implementation
+ ******************************************************************************/
+package cuchaz.enigma;
+
+import static cuchaz.enigma.EntryFactory.*;
+import static org.hamcrest.MatcherAssert.*;
+import static org.hamcrest.Matchers.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.google.common.collect.Sets;
+
+import cuchaz.enigma.mapping.ClassEntry;
+
+public class TestTranslatedClassCache
+{
+	private static final byte[] Data = new byte[] { 1, 2, 3 };
+
+	@Test
+	public void getPut( )
+	{
+		TranslatedClassCache cache = new TranslatedClassCache( Constants.MiB );
+		assertThat( cache.get( "none/a" ), is( nullValue() ) );
+		cache.put( "none/a", Data, Collections.<ClassEntry>emptySet(), cache.getVersion() );
+		assertThat( cache.get( "none/a" ), is( sameInstance( Data ) ) );
+	}
+
+	@Test
+	public void invalidateSelf( )
+	{
+		TranslatedClassCache cache = new TranslatedClassCache( Constants.MiB );
+		cache.put( "none/a", Data, Collections.<ClassEntry>emptySet(), cache.getVersion() );
+		cache.invalidate( Arrays.asList( newClass( "none/a" ) ) );
+		assertThat( cache.get( "none/a" ), is( nullValue() ) );
+	}
+
+	@Test
+	public void invalidateDependents( )
+	{
+		TranslatedClassCache cache = new TranslatedClassCache( Constants.MiB );
+		cache.put( "none/a", Data, dependencies( "none/b" ), cache.getVersion() );
+		cache.put( "none/b", Data, dependencies( "none/c" ), cache.getVersion() );
+		cache.put( "none/c", Data, Collections.<ClassEntry>emptySet(), cache.getVersion() );
+
+		// only the classes that mention b were translated with its mappings
+		cache.invalidate( Arrays.asList( newClass( "none/b" ) ) );
+		assertThat( cache.get( "none/a" ), is( nullValue() ) );
+		assertThat( cache.get( "none/b" ), is( nullValue() ) );
+		assertThat( cache.get( "none/c" ), is( sameInstance( Data ) ) );
+		assertThat( cache.size(), is( 1L ) );
+	}
+
+	@Test
+	public void bounded( )
+	{
+		TranslatedClassCache cache = new TranslatedClassCache( 10 * Data.length );
+		for( int i=0; i<100; i++ )
+		{
+			cache.put( "none/c" + i, Data, dependencies( "none/b" ), cache.getVersion() );
+		}
+		assertThat( cache.size(), is( lessThan( 100L ) ) );
+
+		// evicted classes shouldn't linger as dependents
+		cache.invalidate( Arrays.asList( newClass( "none/b" ) ) );
+		assertThat( cache.size(), is( 0L ) );
+	}
+
+	@Test
+	public void staleTranslation( )
+	{
+		TranslatedClassCache cache = new TranslatedClassCache( Constants.MiB );
+		long version = cache.getVersion();
+
+		// the mappings changed while the class was being translated, so the result is stale
+		cache.invalidate( Arrays.asList( newClass( "none/b" ) ) );
+		cache.put( "none/a", Data, dependencies( "none/b" ), version );
+		assertThat( cache.get( "none/a" ), is( nullValue() ) );
+
+		version = cache.getVersion();
+		cache.clear();
+		cache.put( "none/a", Data, dependencies( "none/b" ), version );
+		assertThat( cache.get( "none/a" ), is( nullValue() ) );
+
+		cache.put( "none/a", Data, dependencies( "none/b" ), cache.getVersion() );
+		assertThat( cache.get( "none/a" ), is( sameInstance( Data ) ) );
+	}
+
+	private Set<ClassEntry> dependencies( String ... classNames )
+	{
+		Set<ClassEntry> classEntries = Sets.newHashSet();
+		for( String className : classNames )
+		{
+			classEntries.add( newClass( className ) );
+		}
+		return classEntries;
+	}
+}
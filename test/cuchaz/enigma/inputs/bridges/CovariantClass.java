@@ -0,0 +1,12 @@
+package cuchaz.enigma.inputs.bridges;
+
+public class CovariantClass implements ValueInterface
+{
+	@Override
+	// getValue()Ljava/lang/String;
+	// bridged by getValue()Ljava/lang/Object;, which calls CovariantClass.getValue()Ljava/lang/String;
+	public String getValue( )
+	{
+		return "covariant";
+	}
+}
@@ -0,0 +1,6 @@
+package cuchaz.enigma.inputs.bridges;
+
+// getValue()Ljava/lang/Object; is a bridge that calls StringClass.getValue()Ljava/lang/String;
+public class InheritedClass extends StringClass implements ValueInterface
+{
+}
@@ -0,0 +1,10 @@
+package cuchaz.enigma.inputs.bridges;
+
+public class StringClass
+{
+	// getValue()Ljava/lang/String;
+	public String getValue( )
+	{
+		return "string";
+	}
+}
@@ -0,0 +1,7 @@
+package cuchaz.enigma.inputs.bridges;
+
+public interface ValueInterface
+{
+	// getValue()Ljava/lang/Object;
+	Object getValue( );
+}